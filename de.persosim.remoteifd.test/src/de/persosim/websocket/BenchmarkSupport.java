@@ -0,0 +1,427 @@
+package de.persosim.websocket;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.bouncycastle.tls.BasicTlsPSKIdentity;
+import org.bouncycastle.tls.CertificateRequest;
+import org.bouncycastle.tls.DefaultTlsClient;
+import org.bouncycastle.tls.DefaultTlsKeyExchangeFactory;
+import org.bouncycastle.tls.PSKTlsClient;
+import org.bouncycastle.tls.ProtocolVersion;
+import org.bouncycastle.tls.TlsAuthentication;
+import org.bouncycastle.tls.TlsClient;
+import org.bouncycastle.tls.TlsClientProtocol;
+import org.bouncycastle.tls.TlsCredentials;
+import org.bouncycastle.tls.TlsDHGroupVerifier;
+import org.bouncycastle.tls.TlsKeyExchange;
+import org.bouncycastle.tls.TlsKeyExchangeFactory;
+import org.bouncycastle.tls.TlsPSKIdentity;
+import org.bouncycastle.tls.TlsServerCertificate;
+import org.bouncycastle.tls.TlsSession;
+import org.bouncycastle.tls.crypto.TlsCryptoParameters;
+
+import de.persosim.simulator.utils.HexString;
+
+/**
+ * Harness shared by the benchmarks and the TLS tests of this bundle: argument
+ * parsing, the host configs, TLS clients and loopback connections to a
+ * {@link TlsHandshaker}.
+ */
+final class BenchmarkSupport {
+
+	static final String PAIRING_CODE = "1234";
+
+	private static final int CHUNK_SIZE = 16 * 1024;
+
+	/**
+	 * Creates the server side of a loopback connection
+	 */
+	interface ServerFactory {
+		TlsHandshaker create(Socket serverSide);
+	}
+
+	/**
+	 * Client offering a single protocol version and cipher suite and
+	 * authenticating with the host credentials of the config
+	 */
+	static class SuiteClient extends DefaultTlsClient {
+		private HostCredentials credentials;
+		private ProtocolVersion version;
+		private int cipherSuite;
+		ProtocolVersion negotiatedVersion;
+		int negotiatedCipherSuite;
+
+		SuiteClient(RemoteIfdConfigManager config, ProtocolVersion version, int cipherSuite) {
+			this(new HostCredentials(config), version, cipherSuite);
+		}
+
+		SuiteClient(HostCredentials credentials, ProtocolVersion version, int cipherSuite) {
+			super(credentials.getCrypto());
+			this.credentials = credentials;
+			this.version = version;
+			this.cipherSuite = cipherSuite;
+		}
+
+		@Override
+		public ProtocolVersion[] getProtocolVersions() {
+			return version.only();
+		}
+
+		@Override
+		protected int[] getSupportedCipherSuites() {
+			return new int[] { cipherSuite };
+		}
+
+		@Override
+		public void notifyHandshakeComplete() throws IOException {
+			super.notifyHandshakeComplete();
+			negotiatedVersion = context.getServerVersion();
+			negotiatedCipherSuite = context.getSecurityParametersConnection().getCipherSuite();
+		}
+
+		@Override
+		public TlsAuthentication getAuthentication() throws IOException {
+			return new LoopbackAuthentication(credentials, new TlsCryptoParameters(context));
+		}
+	}
+
+	/**
+	 * Client offering the session of its previous connection like the
+	 * AusweisApp does when it reconnects
+	 */
+	static class ResumingClient extends SuiteClient {
+		private TlsSession session;
+
+		ResumingClient(RemoteIfdConfigManager config, ProtocolVersion version, int cipherSuite) {
+			super(config, version, cipherSuite);
+		}
+
+		@Override
+		public TlsSession getSessionToResume() {
+			return session;
+		}
+
+		@Override
+		public void notifyHandshakeComplete() throws IOException {
+			super.notifyHandshakeComplete();
+			session = context.getResumableSession();
+		}
+	}
+
+	/**
+	 * Pairing client offering the given cipher suites. Like the AusweisApp
+	 * it sends its certificate although the PSK key exchanges do not
+	 * authenticate the client.
+	 */
+	static class PairingClient extends PSKTlsClient {
+		private HostCredentials credentials;
+		private int[] cipherSuites;
+		int negotiatedCipherSuite;
+
+		PairingClient(HostCredentials credentials, int... cipherSuites) {
+			super(credentials.getCrypto(), new BasicTlsPSKIdentity("PersoSimTest", PAIRING_CODE.getBytes()));
+			this.credentials = credentials;
+			this.cipherSuites = cipherSuites;
+		}
+
+		@Override
+		public ProtocolVersion[] getProtocolVersions() {
+			return ProtocolVersion.TLSv12.only();
+		}
+
+		@Override
+		protected int[] getSupportedCipherSuites() {
+			return cipherSuites;
+		}
+
+		@Override
+		public TlsKeyExchangeFactory getKeyExchangeFactory() throws IOException {
+			return new DefaultTlsKeyExchangeFactory() {
+
+				@Override
+				public TlsKeyExchange createPSKKeyExchangeClient(int keyExchange, TlsPSKIdentity pskIdentity, TlsDHGroupVerifier dhGroupVerifier) {
+					return new GTTlsPSKKeyExchange(keyExchange, pskIdentity, dhGroupVerifier) {
+
+						@Override
+						public void processClientCredentials(TlsCredentials clientCredentials) {
+							// the certificate is sent for the pairing only
+						}
+					};
+				}
+			};
+		}
+
+		@Override
+		public void notifyHandshakeComplete() throws IOException {
+			super.notifyHandshakeComplete();
+			negotiatedCipherSuite = context.getSecurityParametersConnection().getCipherSuite();
+		}
+
+		@Override
+		public TlsAuthentication getAuthentication() throws IOException {
+			return new LoopbackAuthentication(credentials, new TlsCryptoParameters(context));
+		}
+	}
+
+	/**
+	 * Config keeping its pairings in memory, unlike the
+	 * {@link KeystoreRemoteIfdConfigManager}. The host identity can be
+	 * replaced to simulate a new host certificate.
+	 */
+	static class IdentityConfig implements RemoteIfdConfigManager {
+		private volatile KeyStore.PrivateKeyEntry identity;
+		private String name;
+		private Map<Certificate, String> pairedCertificates = new ConcurrentHashMap<>();
+
+		IdentityConfig(KeyStore.PrivateKeyEntry identity, String name) {
+			this.identity = identity;
+			this.name = name;
+		}
+
+		void setIdentity(KeyStore.PrivateKeyEntry identity) {
+			this.identity = identity;
+		}
+
+		@Override
+		public Certificate getHostCertificate() {
+			return identity.getCertificate();
+		}
+
+		@Override
+		public PrivateKey getHostKey() {
+			return identity.getPrivateKey();
+		}
+
+		@Override
+		@Deprecated
+		public RSAPrivateKey getHostPrivateKey() {
+			PrivateKey key = getHostKey();
+			if (!(key instanceof RSAPrivateKey)) {
+				throw new IllegalStateException("The host key is not an RSA key");
+			}
+			return (RSAPrivateKey) key;
+		}
+
+		@Override
+		public Map<Certificate, String> getPairedCertificates() {
+			return new HashMap<>(pairedCertificates);
+		}
+
+		@Override
+		public void addPairedCertificate(Certificate certificate) {
+			pairedCertificates.put(certificate, "");
+		}
+
+		@Override
+		public void deletePairedCertificate(Certificate certificate) {
+			pairedCertificates.remove(certificate);
+		}
+
+		@Override
+		public void updateUdNameForCertificate(Certificate certificate, String udName) {
+			pairedCertificates.replace(certificate, udName);
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+	}
+
+	/**
+	 * Trusts the loopback server and authenticates with the given credentials
+	 */
+	private static class LoopbackAuthentication implements TlsAuthentication {
+		private HostCredentials credentials;
+		private TlsCryptoParameters parameters;
+
+		LoopbackAuthentication(HostCredentials credentials, TlsCryptoParameters parameters) {
+			this.credentials = credentials;
+			this.parameters = parameters;
+		}
+
+		@Override
+		public void notifyServerCertificate(TlsServerCertificate serverCertificate) throws IOException {
+			// the loopback server is trusted
+		}
+
+		@Override
+		public TlsCredentials getClientCredentials(CertificateRequest certificateRequest) throws IOException {
+			return credentials.createSigner(parameters);
+		}
+	}
+
+	private BenchmarkSupport() {
+		// static helpers only
+	}
+
+	/**
+	 * @return the argument at the given index or the default, if there are
+	 *         fewer arguments
+	 */
+	static int intArgument(String[] args, int index, int defaultValue) {
+		return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+	}
+
+	/**
+	 * @param durations
+	 *            in nanoseconds, the array is sorted
+	 * @return the median in milliseconds
+	 */
+	static double medianMillis(long[] durations) {
+		Arrays.sort(durations);
+		return durations[durations.length / 2] / 1e6;
+	}
+
+	/**
+	 * @param durations
+	 *            in nanoseconds, the array is sorted
+	 * @return mean, median and maximum in milliseconds
+	 */
+	static String summarizeMillis(long[] durations) {
+		double median = medianMillis(durations);
+		return String.format("mean %6.2f ms, median %6.2f ms, max %6.2f ms", Arrays.stream(durations).sum() / 1e6 / durations.length, median,
+				durations[durations.length - 1] / 1e6);
+	}
+
+	/**
+	 * @return a config with the test keystore for RSA or a newly generated
+	 *         host identity for EC
+	 */
+	static RemoteIfdConfigManager createConfig(HostKeyType keyType) throws Exception {
+		if (keyType == HostKeyType.RSA) {
+			return new KeystoreRemoteIfdConfigManager(new ByteArrayInputStream(HexString.toByteArray(Application.KEYSTORE)), Application.STOREPASSWORD.toCharArray(),
+					Application.KEYPASSWORD.toCharArray());
+		}
+		KeyPair keyPair = keyType.generateKeyPair();
+		KeyStore keyStore = KeyStore.getInstance("JKS");
+		keyStore.load(null, null);
+		keyStore.setKeyEntry("default", keyPair.getPrivate(), Application.KEYPASSWORD.toCharArray(), new Certificate[] { keyType.generateCertificate(keyPair) });
+		ByteArrayOutputStream stored = new ByteArrayOutputStream();
+		keyStore.store(stored, Application.STOREPASSWORD.toCharArray());
+		return new KeystoreRemoteIfdConfigManager(new ByteArrayInputStream(stored.toByteArray()), Application.STOREPASSWORD.toCharArray(),
+				Application.KEYPASSWORD.toCharArray());
+	}
+
+	/**
+	 * Performs connections over loopback, each closed after the handshake.
+	 * The client must authenticate.
+	 *
+	 * @param client
+	 *            provides the client for each connection
+	 * @param serverCpuTimes
+	 *            if not null, receives the CPU time of each server side
+	 *            handshake in nanoseconds
+	 * @return the duration of each handshake in nanoseconds
+	 */
+	static long[] handshakes(int connections, ServerFactory server, Supplier<? extends TlsClient> client, long[] serverCpuTimes) throws Exception {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long[] durations = new long[connections];
+
+		try (ServerSocket serverSocket = new ServerSocket(0)) {
+			for (int i = 0; i < connections; i++) {
+				long start = System.nanoTime();
+				try (Socket clientSocket = new Socket("localhost", serverSocket.getLocalPort()); Socket serverSide = serverSocket.accept()) {
+					clientSocket.setTcpNoDelay(true);
+					serverSide.setTcpNoDelay(true);
+					TlsHandshaker handshaker = server.create(serverSide);
+					boolean[] result = new boolean[1];
+					int index = i;
+					Thread serverThread = new Thread(() -> {
+						long cpuStart = threads.getCurrentThreadCpuTime();
+						result[0] = handshaker.performHandshake();
+						if (serverCpuTimes != null) {
+							serverCpuTimes[index] = threads.getCurrentThreadCpuTime() - cpuStart;
+						}
+					});
+					serverThread.start();
+
+					TlsClientProtocol protocol = new TlsClientProtocol(clientSocket.getInputStream(), clientSocket.getOutputStream());
+					protocol.connect(client.get());
+					serverThread.join();
+					durations[i] = System.nanoTime() - start;
+
+					if (!result[0] || handshaker.getClientCertificate() == null) {
+						throw new IllegalStateException("Handshake failed");
+					}
+					protocol.close();
+				}
+			}
+		}
+		return durations;
+	}
+
+	/**
+	 * Sends random data from the client to the server over a loopback
+	 * connection.
+	 *
+	 * @return the throughput in MB/s, measured after the handshake
+	 */
+	static double throughput(ServerFactory server, TlsClient client, int megabytes) throws Exception {
+		long total = (long) megabytes * 1024 * 1024;
+
+		try (ServerSocket serverSocket = new ServerSocket(0); Socket clientSocket = new Socket("localhost", serverSocket.getLocalPort()); Socket serverSide = serverSocket.accept()) {
+			TlsHandshaker handshaker = server.create(serverSide);
+			long[] received = new long[1];
+			Thread serverThread = new Thread(() -> {
+				if (!handshaker.performHandshake()) {
+					return;
+				}
+				byte[] buffer = new byte[CHUNK_SIZE];
+				try {
+					InputStream in = handshaker.getInputStream();
+					while (received[0] < total) {
+						int read = in.read(buffer);
+						if (read < 0) {
+							break;
+						}
+						received[0] += read;
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			});
+			serverThread.start();
+
+			TlsClientProtocol protocol = new TlsClientProtocol(clientSocket.getInputStream(), clientSocket.getOutputStream());
+			protocol.connect(client);
+
+			byte[] chunk = new byte[CHUNK_SIZE];
+			new SecureRandom().nextBytes(chunk);
+			OutputStream out = protocol.getOutputStream();
+			long start = System.nanoTime();
+			for (long sent = 0; sent < total; sent += chunk.length) {
+				out.write(chunk);
+			}
+			out.flush();
+			serverThread.join();
+			long duration = System.nanoTime() - start;
+			protocol.close();
+
+			if (received[0] != total) {
+				throw new IllegalStateException("Received " + received[0] + " of " + total + " bytes");
+			}
+			return total / 1024.0 / 1024.0 / (duration / 1e9);
+		}
+	}
+
+}
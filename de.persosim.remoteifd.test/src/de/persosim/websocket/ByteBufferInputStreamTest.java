@@ -0,0 +1,53 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ByteBufferInputStreamTest {
+
+	@Test
+	public void testReadSlice() throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5, (byte) 0xFF }, 1, 5).slice().asReadOnlyBuffer();
+		ByteBufferInputStream in = new ByteBufferInputStream(buffer);
+
+		assertEquals(5, in.available());
+		assertEquals(2, in.read());
+		byte[] data = new byte[10];
+		assertEquals(3, in.read(data, 1, 3));
+		assertArrayEquals(new byte[] { 0, 3, 4, 5 }, Arrays.copyOf(data, 4));
+		assertEquals(0xFF, in.read());
+		assertEquals(-1, in.read());
+		assertEquals(-1, in.read(data, 0, 1));
+	}
+
+	@Test
+	public void testSkip() {
+		ByteBufferInputStream in = new ByteBufferInputStream(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+		assertEquals(2, in.skip(2));
+		assertEquals(1, in.skip(5));
+		assertEquals(0, in.available());
+	}
+
+	@Test
+	public void testDecodeUtf8() throws IOException {
+		String message = "{\"msg\":\"IFDStatus\",\"SlotName\":\"Leseger\u00e4t \u2713\"}";
+		Reader reader = new InputStreamReader(new ByteBufferInputStream(ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8))), StandardCharsets.UTF_8);
+		StringBuilder decoded = new StringBuilder();
+		char[] chars = new char[7];
+		int length;
+		while ((length = reader.read(chars)) != -1) {
+			decoded.append(chars, 0, length);
+		}
+		assertEquals(message, decoded.toString());
+	}
+
+}
@@ -0,0 +1,59 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.security.KeyPair;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.RSAPrivateCrtKey;
+
+import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.params.RSAPrivateCrtKeyParameters;
+import org.junit.Test;
+
+import de.persosim.simulator.utils.HexString;
+
+public class CertificateConverterTest {
+
+	private static RemoteIfdConfigManager createConfig() {
+		return new KeystoreRemoteIfdConfigManager(new ByteArrayInputStream(HexString.toByteArray(Application.KEYSTORE)), Application.STOREPASSWORD.toCharArray(),
+				Application.KEYPASSWORD.toCharArray());
+	}
+
+	@Test
+	public void testCrtKeyParameters() {
+		RSAPrivateCrtKey key = (RSAPrivateCrtKey) createConfig().getHostKey();
+
+		AsymmetricKeyParameter converted = CertificateConverter.fromJavaKeyToBcAsymetricKeyParameter(key);
+
+		assertTrue(converted.isPrivate());
+		assertTrue(converted instanceof RSAPrivateCrtKeyParameters);
+		RSAPrivateCrtKeyParameters crt = (RSAPrivateCrtKeyParameters) converted;
+		assertEquals(key.getModulus(), crt.getModulus());
+		assertEquals(key.getPrivateExponent(), crt.getExponent());
+		assertEquals(key.getPrimeP(), crt.getP());
+		assertEquals(key.getCrtCoefficient(), crt.getQInv());
+	}
+
+	@Test
+	public void testEcKeyParameters() {
+		KeyPair keyPair = HostKeyType.EC.generateKeyPair();
+
+		AsymmetricKeyParameter converted = CertificateConverter.fromJavaKeyToBcAsymetricKeyParameter(keyPair.getPrivate());
+
+		assertTrue(converted instanceof ECPrivateKeyParameters);
+		assertEquals(((ECPrivateKey) keyPair.getPrivate()).getS(), ((ECPrivateKeyParameters) converted).getD());
+	}
+
+	@Test
+	public void testCertificateRoundTrip() throws Exception {
+		java.security.cert.Certificate certificate = createConfig().getHostCertificate();
+
+		org.bouncycastle.tls.Certificate converted = CertificateConverter.fromJavaCertificateToBcTlsCertificate(certificate);
+
+		assertEquals(certificate, CertificateConverter.fromBcTlsCertificateToJavaCertificate(converted));
+	}
+
+}
@@ -0,0 +1,89 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class DefaultHandshakeHandlerTest {
+
+	@Test
+	public void testAcceptValue() {
+		// example from RFC6455 1.3
+		assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", DefaultHandshakeHandler.getAcceptValue("dGhlIHNhbXBsZSBub25jZQ=="));
+	}
+
+	@Test
+	public void testHandle() {
+		String request = HttpUpgradeRequestTest.REQUEST.replace("\r\n\r\n", "\r\nSec-WebSocket-Extensions: permessage-deflate\r\n\r\n");
+		ByteArrayInputStream input = new ByteArrayInputStream((request + "\u0081\u0000").getBytes(StandardCharsets.ISO_8859_1));
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		DefaultHandshakeHandler handler = new DefaultHandshakeHandler(output, input);
+		handler.setPerMessageDeflatePreferences(new PerMessageDeflate(false, false, PerMessageDeflate.MAX_WINDOW_BITS));
+		assertTrue(handler.handle());
+
+		String response = new String(output.toByteArray(), StandardCharsets.UTF_8);
+		assertTrue(response.startsWith("HTTP/1.1 101 Switching Protocols\r\n"));
+		assertTrue(response.contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=\r\n"));
+		assertTrue(response.contains("Sec-WebSocket-Extensions: permessage-deflate\r\n"));
+		assertTrue(response.endsWith("\r\n\r\n"));
+		assertNotNull(handler.getPerMessageDeflate());
+
+		// the first frame is left for the protocol
+		assertEquals(2, input.available());
+	}
+
+	private static String handshake(DefaultHandshakeHandler handler, ByteArrayOutputStream output) {
+		assertTrue(handler.handle());
+		return new String(output.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testSubprotocolSelected() {
+		String request = HttpUpgradeRequestTest.REQUEST.replace("\r\n\r\n", "\r\nSec-WebSocket-Protocol: IFDInterface_WebSocket_v9, IFDInterface_WebSocket_v2\r\n\r\n");
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		DefaultHandshakeHandler handler = new DefaultHandshakeHandler(output, new ByteArrayInputStream(request.getBytes(StandardCharsets.ISO_8859_1)));
+		handler.setSupportedSubprotocols(Arrays.asList("IFDInterface_WebSocket_v0", "IFDInterface_WebSocket_v2"));
+
+		String response = handshake(handler, output);
+		assertEquals("IFDInterface_WebSocket_v2", handler.getSubprotocol());
+		assertTrue(response.contains("Sec-WebSocket-Protocol: IFDInterface_WebSocket_v2\r\n"));
+	}
+
+	@Test
+	public void testSubprotocolNotSupported() {
+		String request = HttpUpgradeRequestTest.REQUEST.replace("\r\n\r\n", "\r\nSec-WebSocket-Protocol: chat\r\n\r\n");
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		DefaultHandshakeHandler handler = new DefaultHandshakeHandler(output, new ByteArrayInputStream(request.getBytes(StandardCharsets.ISO_8859_1)));
+		handler.setSupportedSubprotocols(Arrays.asList("IFDInterface_WebSocket_v2"));
+
+		String response = handshake(handler, output);
+		assertNull(handler.getSubprotocol());
+		assertFalse(response.contains("Sec-WebSocket-Protocol"));
+	}
+
+	@Test
+	public void testMissingKey() {
+		String request = HttpUpgradeRequestTest.REQUEST.replace("Sec-WebSocket-Key", "X-Other");
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		assertFalse(new DefaultHandshakeHandler(output, new ByteArrayInputStream(request.getBytes(StandardCharsets.ISO_8859_1))).handle());
+		assertEquals(0, output.size());
+	}
+
+	@Test
+	public void testTruncatedRequest() {
+		ByteArrayInputStream input = new ByteArrayInputStream("GET / HTTP/1.1\r\n".getBytes(StandardCharsets.ISO_8859_1));
+		assertFalse(new DefaultHandshakeHandler(new ByteArrayOutputStream(), input).handle());
+	}
+
+}
@@ -0,0 +1,176 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.KeyStore;
+
+import org.bouncycastle.tls.CipherSuite;
+import org.bouncycastle.tls.DefaultTlsClient;
+import org.bouncycastle.tls.ProtocolVersion;
+import org.bouncycastle.tls.TlsClient;
+import org.bouncycastle.tls.TlsClientProtocol;
+import org.junit.Test;
+
+public class DefaultHandshakerTest {
+
+	private static final int TIMEOUT_MILLIS = 10000;
+
+	/**
+	 * Performs a handshake over loopback and returns whether the server side
+	 * succeeded
+	 */
+	private static boolean handshake(RemoteIfdConfigManager config, boolean tls13Enabled, DefaultTlsClient client) throws Exception {
+		try (ServerSocket serverSocket = new ServerSocket(0); Socket clientSocket = new Socket("localhost", serverSocket.getLocalPort()); Socket serverSide = serverSocket.accept()) {
+			DefaultHandshaker handshaker = new DefaultHandshaker(config, new HostCredentials(config), serverSide, null);
+			handshaker.setTls13Enabled(tls13Enabled);
+			boolean[] result = new boolean[1];
+			Thread serverThread = new Thread(() -> result[0] = handshaker.performHandshake());
+			serverThread.start();
+
+			TlsClientProtocol protocol = new TlsClientProtocol(clientSocket.getInputStream(), clientSocket.getOutputStream());
+			protocol.connect(client);
+			serverThread.join();
+			assertNotNull(handshaker.getClientCertificate());
+			protocol.close();
+			return result[0];
+		}
+	}
+
+	/**
+	 * Performs a handshake over loopback with a server using the session
+	 * cache
+	 *
+	 * @return the server side handshaker, null if its handshake failed
+	 */
+	private static DefaultHandshaker connect(RemoteIfdConfigManager config, HostCredentials credentials, TlsSessionCache cache, TlsClient client) throws Exception {
+		try (ServerSocket serverSocket = new ServerSocket(0); Socket clientSocket = new Socket("localhost", serverSocket.getLocalPort()); Socket serverSide = serverSocket.accept()) {
+			clientSocket.setSoTimeout(TIMEOUT_MILLIS);
+			DefaultHandshaker handshaker = new DefaultHandshaker(config, credentials, serverSide, cache);
+			boolean[] result = new boolean[1];
+			Thread serverThread = new Thread(() -> result[0] = handshaker.performHandshake());
+			serverThread.start();
+
+			TlsClientProtocol protocol = new TlsClientProtocol(clientSocket.getInputStream(), clientSocket.getOutputStream());
+			try {
+				protocol.connect(client);
+				protocol.close();
+			} catch (IOException e) {
+				// the server aborted the handshake
+			}
+			serverThread.join();
+			return result[0] ? handshaker : null;
+		}
+	}
+
+	/**
+	 * @return a config for a new EC host identity, the client identity is
+	 *         paired
+	 */
+	private static BenchmarkSupport.IdentityConfig createPairedConfig(KeyStore.PrivateKeyEntry clientIdentity) {
+		BenchmarkSupport.IdentityConfig config = new BenchmarkSupport.IdentityConfig(HostKeyType.EC.generateIdentity(), "host");
+		config.addPairedCertificate(clientIdentity.getCertificate());
+		return config;
+	}
+
+	private static BenchmarkSupport.ResumingClient createResumingClient(KeyStore.PrivateKeyEntry clientIdentity) {
+		return new BenchmarkSupport.ResumingClient(new BenchmarkSupport.IdentityConfig(clientIdentity, "client"), ProtocolVersion.TLSv12,
+				CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256);
+	}
+
+	@Test
+	public void testSessionResumed() throws Exception {
+		KeyStore.PrivateKeyEntry clientIdentity = HostKeyType.EC.generateIdentity();
+		BenchmarkSupport.IdentityConfig config = createPairedConfig(clientIdentity);
+		HostCredentials credentials = new HostCredentials(config);
+		TlsSessionCache cache = new TlsSessionCache(TlsSessionCache.DEFAULT_MAX_SIZE, TlsSessionCache.DEFAULT_LIFETIME_MILLIS);
+		BenchmarkSupport.ResumingClient client = createResumingClient(clientIdentity);
+
+		DefaultHandshaker first = connect(config, credentials, cache, client);
+		assertNotNull(first);
+		assertFalse(first.isResumed());
+
+		DefaultHandshaker second = connect(config, credentials, cache, client);
+		assertNotNull(second);
+		assertTrue(second.isResumed());
+		assertSame(first.getClientCertificate(), second.getClientCertificate());
+	}
+
+	@Test
+	public void testSessionOfUnpairedClientNotResumed() throws Exception {
+		KeyStore.PrivateKeyEntry clientIdentity = HostKeyType.EC.generateIdentity();
+		BenchmarkSupport.IdentityConfig config = createPairedConfig(clientIdentity);
+		HostCredentials credentials = new HostCredentials(config);
+		TlsSessionCache cache = new TlsSessionCache(TlsSessionCache.DEFAULT_MAX_SIZE, TlsSessionCache.DEFAULT_LIFETIME_MILLIS);
+		BenchmarkSupport.ResumingClient client = createResumingClient(clientIdentity);
+
+		assertNotNull(connect(config, credentials, cache, client));
+		config.deletePairedCertificate(clientIdentity.getCertificate());
+
+		// the full handshake rejects the client certificate
+		assertNull(connect(config, credentials, cache, client));
+		assertEquals(0, cache.getResumedHandshakes());
+	}
+
+	@Test
+	public void testSessionNotResumedAfterHostCertificateChange() throws Exception {
+		KeyStore.PrivateKeyEntry clientIdentity = HostKeyType.EC.generateIdentity();
+		BenchmarkSupport.IdentityConfig config = createPairedConfig(clientIdentity);
+		HostCredentials credentials = new HostCredentials(config);
+		TlsSessionCache cache = new TlsSessionCache(TlsSessionCache.DEFAULT_MAX_SIZE, TlsSessionCache.DEFAULT_LIFETIME_MILLIS);
+		BenchmarkSupport.ResumingClient client = createResumingClient(clientIdentity);
+
+		assertNotNull(connect(config, credentials, cache, client));
+		config.setIdentity(HostKeyType.EC.generateIdentity());
+
+		DefaultHandshaker handshaker = connect(config, credentials, cache, client);
+		assertNotNull(handshaker);
+		assertFalse(handshaker.isResumed());
+	}
+
+	@Test
+	public void testEcdheEcdsaWithEcHostKey() throws Exception {
+		RemoteIfdConfigManager config = BenchmarkSupport.createConfig(HostKeyType.EC);
+		BenchmarkSupport.SuiteClient client = new BenchmarkSupport.SuiteClient(config, ProtocolVersion.TLSv12, CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256);
+
+		assertTrue(handshake(config, false, client));
+		assertEquals(CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256, client.negotiatedCipherSuite);
+	}
+
+	@Test
+	public void testTls13WithRsaHostKey() throws Exception {
+		RemoteIfdConfigManager config = BenchmarkSupport.createConfig(HostKeyType.RSA);
+		BenchmarkSupport.SuiteClient client = new BenchmarkSupport.SuiteClient(config, ProtocolVersion.TLSv13, CipherSuite.TLS_AES_128_GCM_SHA256);
+
+		assertTrue(handshake(config, true, client));
+		assertEquals(ProtocolVersion.TLSv13, client.negotiatedVersion);
+	}
+
+	@Test
+	public void testTls12NegotiatedIfTls13Disabled() throws Exception {
+		RemoteIfdConfigManager config = BenchmarkSupport.createConfig(HostKeyType.RSA);
+		BenchmarkSupport.SuiteClient client = new BenchmarkSupport.SuiteClient(config, ProtocolVersion.TLSv13, CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256) {
+
+			@Override
+			public ProtocolVersion[] getProtocolVersions() {
+				return ProtocolVersion.TLSv13.downTo(ProtocolVersion.TLSv12);
+			}
+
+			@Override
+			protected int[] getSupportedCipherSuites() {
+				return new int[] { CipherSuite.TLS_AES_128_GCM_SHA256, CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256 };
+			}
+		};
+
+		assertTrue(handshake(config, false, client));
+		assertEquals(ProtocolVersion.TLSv12, client.negotiatedVersion);
+	}
+
+}
@@ -0,0 +1,136 @@
+package de.persosim.websocket;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Measures the time from bundle start to the first UDP announcement of a
+ * {@link WebsocketComm} on a fresh profile, i.e. without a stored host
+ * identity. The identity is either generated synchronously when the config is
+ * created or in the background, overlapping with a simulated startup phase
+ * between bundle start and the start of the server.
+ * <p>
+ * Usage: FirstAnnounceBenchmark [startup milliseconds] [runs]
+ */
+public class FirstAnnounceBenchmark {
+
+	private static final int DEFAULT_STARTUP_MILLIS = 300;
+	private static final int DEFAULT_RUNS = 5;
+	private static final int RECEIVE_TIMEOUT_MILLIS = 30000;
+
+	/**
+	 * Config without pairings whose host identity is completed by a future
+	 */
+	private static class GeneratedIdentityConfig implements RemoteIfdConfigManager {
+		private CompletableFuture<KeyStore.PrivateKeyEntry> identity;
+		private String name;
+
+		GeneratedIdentityConfig(CompletableFuture<KeyStore.PrivateKeyEntry> identity, String name) {
+			this.identity = identity;
+			this.name = name;
+		}
+
+		@Override
+		public Certificate getHostCertificate() {
+			return identity.join().getCertificate();
+		}
+
+		@Override
+		public PrivateKey getHostKey() {
+			return identity.join().getPrivateKey();
+		}
+
+		@Override
+		@Deprecated
+		public RSAPrivateKey getHostPrivateKey() {
+			PrivateKey key = getHostKey();
+			if (!(key instanceof RSAPrivateKey)) {
+				throw new IllegalStateException("The host key is not an RSA key");
+			}
+			return (RSAPrivateKey) key;
+		}
+
+		@Override
+		public Map<Certificate, String> getPairedCertificates() {
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public void addPairedCertificate(Certificate certificate) {
+			// no pairing in this benchmark
+		}
+
+		@Override
+		public void deletePairedCertificate(Certificate certificate) {
+			// no pairing in this benchmark
+		}
+
+		@Override
+		public void updateUdNameForCertificate(Certificate certificate, String udName) {
+			// no pairing in this benchmark
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+	}
+
+	/**
+	 * @return the milliseconds from the simulated bundle start to the
+	 *         reception of the first announcement
+	 */
+	private static long run(HostKeyType keyType, boolean async, int startupMillis, String name) throws Exception {
+		try (DatagramSocket receiver = new DatagramSocket(null)) {
+			receiver.setReuseAddress(true);
+			receiver.bind(new InetSocketAddress(Announcer.ANNOUNCE_PORT));
+			receiver.setSoTimeout(RECEIVE_TIMEOUT_MILLIS);
+
+			long start = System.nanoTime();
+			CompletableFuture<KeyStore.PrivateKeyEntry> identity = async ? keyType.generateIdentityAsync() : CompletableFuture.completedFuture(keyType.generateIdentity());
+			Thread.sleep(startupMillis);
+
+			WebsocketComm comm = new WebsocketComm(null, new GeneratedIdentityConfig(identity, name));
+			comm.start();
+			try {
+				DatagramPacket packet = new DatagramPacket(new byte[4096], 4096);
+				do {
+					receiver.receive(packet);
+				} while (!new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8).contains(name));
+				return (System.nanoTime() - start) / 1000000;
+			} finally {
+				comm.stop();
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int startupMillis = BenchmarkSupport.intArgument(args, 0, DEFAULT_STARTUP_MILLIS);
+		int runs = BenchmarkSupport.intArgument(args, 1, DEFAULT_RUNS);
+
+		System.out.println(startupMillis + " ms startup before the server is started, " + runs + " runs each");
+		int id = 0;
+		for (HostKeyType keyType : HostKeyType.values()) {
+			for (boolean async : new boolean[] { false, true }) {
+				long total = 0;
+				long max = 0;
+				for (int i = 0; i < runs; i++) {
+					long duration = run(keyType, async, startupMillis, "FirstAnnounceBenchmark-" + id++);
+					total += duration;
+					max = Math.max(max, duration);
+				}
+				System.out.println(String.format("%-3s %-5s first announce average %5d ms, max %5d ms", keyType, async ? "async" : "sync", total / runs, max));
+			}
+		}
+	}
+
+}
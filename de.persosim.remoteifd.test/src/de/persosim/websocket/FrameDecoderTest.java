@@ -0,0 +1,258 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.persosim.websocket.Frame.Opcode;
+
+public class FrameDecoderTest {
+
+	/**
+	 * Returns at most one byte per read call
+	 */
+	private static class TrickleInputStream extends ByteArrayInputStream {
+		TrickleInputStream(byte[] data) {
+			super(data);
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) {
+			return super.read(b, off, Math.min(len, 1));
+		}
+	}
+
+	private static byte[] encode(Opcode opcode, boolean fin, byte[] payload, byte[] maskingKey) {
+		FrameHeader header = new FrameHeader();
+		header.setFin(fin);
+		header.setOpcode(opcode);
+		header.setPayloadLength(payload.length);
+		header.setMaskingKey(maskingKey);
+
+		byte[] headerBytes = new byte[FrameHeader.MAX_LENGTH];
+		int headerLength = header.encode(headerBytes, 0);
+
+		byte[] masked = payload.clone();
+		if (maskingKey != null) {
+			FrameMasking.applyMask(masked, 0, masked.length, maskingKey, 0);
+		}
+
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		result.write(headerBytes, 0, headerLength);
+		result.writeBytes(masked);
+		return result.toByteArray();
+	}
+
+	private static byte[] getRandomBytes(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+
+	/**
+	 * Feeds the input in chunks of the given size and collects all decoded
+	 * frames or messages
+	 */
+	private static List<Frame> decodeInChunks(FrameDecoder decoder, byte[] input, int chunkSize, boolean messages) throws WebSocketProtocolException {
+		List<Frame> result = new ArrayList<>();
+		for (int offset = 0; offset < input.length; offset += chunkSize) {
+			ByteBuffer chunk = ByteBuffer.wrap(Arrays.copyOfRange(input, offset, Math.min(input.length, offset + chunkSize)));
+			Frame frame;
+			while ((frame = messages ? decoder.decode(chunk) : decoder.decodeFrame(chunk)) != null) {
+				result.add(frame);
+			}
+			assertFalse(chunk.hasRemaining());
+		}
+		return result;
+	}
+
+	@Test
+	public void testChunkSizes() throws WebSocketProtocolException {
+		byte[] first = getRandomBytes(300);
+		byte[] second = getRandomBytes(70000);
+		ByteArrayOutputStream input = new ByteArrayOutputStream();
+		input.writeBytes(encode(Opcode.TEXT, true, first, new byte[] { 1, 2, 3, 4 }));
+		input.writeBytes(encode(Opcode.BINARY, true, second, null));
+		input.writeBytes(encode(Opcode.PING, true, new byte[0], new byte[] { 5, 6, 7, 8 }));
+
+		for (int chunkSize : new int[] { 1, 2, 3, 13, 1000, Integer.MAX_VALUE }) {
+			FrameDecoder decoder = new FrameDecoder();
+			List<Frame> frames = decodeInChunks(decoder, input.toByteArray(), Math.min(chunkSize, input.size()), false);
+
+			assertEquals(3, frames.size());
+			assertArrayEquals(first, frames.get(0).getPayload());
+			assertArrayEquals(second, frames.get(1).getPayload());
+			assertEquals(Opcode.PING, frames.get(2).getOpcode());
+			assertEquals(0, frames.get(2).getPayloadLength());
+			assertFalse(decoder.isPartial());
+		}
+	}
+
+	@Test
+	public void testPartialHeader() throws WebSocketProtocolException {
+		byte[] frame = encode(Opcode.TEXT, true, getRandomBytes(1000), new byte[] { 9, 8, 7, 6 });
+		FrameDecoder decoder = new FrameDecoder();
+
+		assertNull(decoder.decodeFrame(ByteBuffer.wrap(frame, 0, 5)));
+		assertTrue(decoder.isPartial());
+		ByteBuffer rest = ByteBuffer.wrap(frame, 5, frame.length - 5);
+		Frame decoded = decoder.decodeFrame(rest);
+		assertArrayEquals(getRandomBytes(1000), decoded.getPayload());
+	}
+
+	@Test
+	public void testFragmentedMessageWithControlFrame() throws WebSocketProtocolException {
+		byte[] payload = getRandomBytes(1000);
+		ByteArrayOutputStream input = new ByteArrayOutputStream();
+		input.writeBytes(encode(Opcode.TEXT, false, Arrays.copyOfRange(payload, 0, 400), new byte[] { 1, 1, 1, 1 }));
+		input.writeBytes(encode(Opcode.PING, true, new byte[] { 42 }, new byte[] { 2, 2, 2, 2 }));
+		input.writeBytes(encode(Opcode.CONTINUATION, false, Arrays.copyOfRange(payload, 400, 401), new byte[] { 3, 3, 3, 3 }));
+		input.writeBytes(encode(Opcode.CONTINUATION, true, Arrays.copyOfRange(payload, 401, 1000), new byte[] { 4, 4, 4, 4 }));
+
+		FrameDecoder decoder = new FrameDecoder();
+		List<Frame> messages = decodeInChunks(decoder, input.toByteArray(), 7, true);
+
+		assertEquals(2, messages.size());
+		assertEquals(Opcode.PING, messages.get(0).getOpcode());
+		assertEquals(Opcode.TEXT, messages.get(1).getOpcode());
+		assertArrayEquals(payload, messages.get(1).getPayload());
+		assertFalse(decoder.isPartial());
+	}
+
+	private static void assertProtocolError(FrameDecoder decoder, byte[] input, int closeCode) {
+		try {
+			decoder.decode(ByteBuffer.wrap(input));
+			fail("Protocol error expected");
+		} catch (WebSocketProtocolException e) {
+			assertEquals(closeCode, e.getCloseCode());
+		}
+	}
+
+	@Test
+	public void testReservedBits() {
+		byte[] frame = encode(Opcode.TEXT, true, new byte[] { 1 }, null);
+
+		frame[0] |= 0x40;
+		assertProtocolError(new FrameDecoder(), frame, WebSocketProtocol.CLOSE_PROTOCOL_ERROR);
+
+		frame[0] = (byte) ((frame[0] & ~0x40) | 0x20);
+		FrameDecoder decoder = new FrameDecoder();
+		decoder.setRsv1Allowed(true);
+		assertProtocolError(decoder, frame, WebSocketProtocol.CLOSE_PROTOCOL_ERROR);
+	}
+
+	@Test
+	public void testRsv1Negotiated() throws WebSocketProtocolException {
+		byte[] frame = encode(Opcode.TEXT, true, new byte[] { 1 }, null);
+		frame[0] |= 0x40;
+
+		FrameDecoder decoder = new FrameDecoder();
+		decoder.setRsv1Allowed(true);
+		assertTrue(decoder.decode(ByteBuffer.wrap(frame)).getRSV1());
+
+		byte[] ping = encode(Opcode.PING, true, new byte[0], null);
+		ping[0] |= 0x40;
+		assertProtocolError(decoder, ping, WebSocketProtocol.CLOSE_PROTOCOL_ERROR);
+	}
+
+	@Test
+	public void testInvalidControlFrames() {
+		assertProtocolError(new FrameDecoder(), encode(Opcode.PING, true, new byte[126], null), WebSocketProtocol.CLOSE_PROTOCOL_ERROR);
+		assertProtocolError(new FrameDecoder(), encode(Opcode.PONG, false, new byte[0], null), WebSocketProtocol.CLOSE_PROTOCOL_ERROR);
+	}
+
+	@Test
+	public void testUnknownOpcode() {
+		assertProtocolError(new FrameDecoder(), new byte[] { (byte) 0x83, 0 }, WebSocketProtocol.CLOSE_PROTOCOL_ERROR);
+	}
+
+	@Test
+	public void testFrameSizeCheckedBeforeAllocation() {
+		// 2^40 bytes announced, only the header is sent
+		byte[] header = new byte[] { (byte) 0x82, 127, 0, 0, 1, 0, 0, 0, 0, 0 };
+		assertProtocolError(new FrameDecoder(), header, WebSocketProtocol.CLOSE_MESSAGE_TOO_BIG);
+
+		FrameDecoder decoder = new FrameDecoder();
+		decoder.setMaxFrameSize(1000);
+		assertProtocolError(decoder, encode(Opcode.TEXT, true, new byte[1001], null), WebSocketProtocol.CLOSE_MESSAGE_TOO_BIG);
+		assertEquals(0, decoder.getInboundBudget().getReserved());
+	}
+
+	@Test
+	public void testMessageSize() throws WebSocketProtocolException {
+		FrameDecoder decoder = new FrameDecoder();
+		decoder.setMaxFrameSize(1000);
+		decoder.setMaxMessageSize(2500);
+
+		assertNull(decoder.decode(ByteBuffer.wrap(encode(Opcode.TEXT, false, new byte[1000], null))));
+		assertNull(decoder.decode(ByteBuffer.wrap(encode(Opcode.CONTINUATION, false, new byte[1000], null))));
+		// control frames do not count against the message
+		assertEquals(Opcode.PING, decoder.decode(ByteBuffer.wrap(encode(Opcode.PING, true, new byte[100], null))).getOpcode());
+		assertProtocolError(decoder, encode(Opcode.CONTINUATION, true, new byte[501], null), WebSocketProtocol.CLOSE_MESSAGE_TOO_BIG);
+	}
+
+	@Test
+	public void testInboundBudget() throws WebSocketProtocolException {
+		FrameDecoder decoder = new FrameDecoder();
+		InboundBudget budget = new InboundBudget(2500);
+		decoder.setInboundBudget(budget);
+
+		Frame first = decoder.decode(ByteBuffer.wrap(encode(Opcode.TEXT, true, new byte[1000], null)));
+		Frame second = decoder.decode(ByteBuffer.wrap(encode(Opcode.TEXT, true, new byte[1000], null)));
+		assertEquals(2000, budget.getReserved());
+
+		// messages not released yet leave no room for the next one
+		assertProtocolError(decoder, encode(Opcode.TEXT, true, new byte[1000], null), WebSocketProtocol.CLOSE_MESSAGE_TOO_BIG);
+
+		budget.release(first.getPayloadLength());
+		budget.release(second.getPayloadLength());
+		assertEquals(0, budget.getReserved());
+		assertEquals(2000, budget.getPeak());
+	}
+
+	@Test
+	public void testDiscardedFragmentReleased() throws WebSocketProtocolException {
+		FrameDecoder decoder = new FrameDecoder();
+		assertNull(decoder.decode(ByteBuffer.wrap(encode(Opcode.CONTINUATION, true, new byte[100], null))));
+		assertEquals(0, decoder.getInboundBudget().getReserved());
+	}
+
+	@Test
+	public void testBlockingReader() throws IOException {
+		byte[] payload = getRandomBytes(5000);
+		ByteArrayOutputStream input = new ByteArrayOutputStream();
+		input.writeBytes(encode(Opcode.TEXT, false, Arrays.copyOfRange(payload, 0, 2500), new byte[] { 1, 2, 3, 4 }));
+		input.writeBytes(encode(Opcode.CONTINUATION, true, Arrays.copyOfRange(payload, 2500, 5000), new byte[] { 1, 2, 3, 4 }));
+		input.writeBytes(encode(Opcode.CLOSE, true, new byte[0], null));
+
+		for (InputStream stream : new InputStream[] { new ByteArrayInputStream(input.toByteArray()), new TrickleInputStream(input.toByteArray()) }) {
+			BlockingFrameReader reader = new BlockingFrameReader(stream, new FrameDecoder(), 100);
+			assertArrayEquals(payload, reader.read().getPayload());
+			assertEquals(Opcode.CLOSE, reader.read().getOpcode());
+			assertNull(reader.read());
+		}
+	}
+
+	@Test(expected = EOFException.class)
+	public void testBlockingReaderTruncated() throws IOException {
+		byte[] frame = encode(Opcode.TEXT, true, getRandomBytes(100), null);
+		new BlockingFrameReader(new ByteArrayInputStream(frame, 0, 50), new FrameDecoder()).read();
+	}
+
+}
@@ -0,0 +1,48 @@
+package de.persosim.websocket;
+
+import de.persosim.websocket.Frame.Opcode;
+
+/**
+ * Micro benchmark for encoding and decoding of frame headers. Reports the time
+ * and the number of allocated bytes per frame.
+ * <p>
+ * Usage: FrameHeaderBenchmark [iterations]
+ */
+public class FrameHeaderBenchmark {
+
+	private static final long[] PAYLOAD_LENGTHS = new long[] { 17, 4000, 70000 };
+
+	/**
+	 * Encodes and decodes a header for each iteration, cycling through the 7,
+	 * 16 and 64 bit length forms.
+	 *
+	 * @return a checksum of the decoded lengths
+	 */
+	static long encodeDecode(byte[] buffer, FrameHeader header, int iterations) {
+		long checksum = 0;
+		for (int i = 0; i < iterations; i++) {
+			long payloadLength = PAYLOAD_LENGTHS[i % PAYLOAD_LENGTHS.length];
+			int length = FrameHeader.encode(true, i % 2 == 0, false, false, Opcode.TEXT, payloadLength, buffer, 0);
+			header.decode(buffer, 0, length);
+			checksum += header.getPayloadLength();
+		}
+		return checksum;
+	}
+
+	public static void main(String[] args) {
+		int iterations = BenchmarkSupport.intArgument(args, 0, 10000000);
+		byte[] buffer = new byte[FrameHeader.MAX_LENGTH];
+		FrameHeader header = new FrameHeader();
+
+		for (int round = 0; round < 5; round++) {
+			long allocatedBefore = FrameHeaderTest.getAllocatedBytes();
+			long start = System.nanoTime();
+			long checksum = encodeDecode(buffer, header, iterations);
+			long duration = System.nanoTime() - start;
+			long allocated = FrameHeaderTest.getAllocatedBytes() - allocatedBefore;
+
+			System.out.println(String.format("Round %d: %.2f ns/frame, %.4f allocated bytes/frame (checksum %d)", round, (double) duration / iterations, (double) allocated / iterations, checksum));
+		}
+	}
+
+}
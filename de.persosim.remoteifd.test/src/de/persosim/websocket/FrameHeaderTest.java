@@ -0,0 +1,159 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import de.persosim.websocket.Frame.Opcode;
+
+public class FrameHeaderTest {
+
+	private static void testRoundTrip(long payloadLength, int expectedHeaderLength) {
+		byte[] buffer = new byte[FrameHeader.MAX_LENGTH + 3];
+		int written = FrameHeader.encode(true, false, false, false, Opcode.TEXT, payloadLength, buffer, 3);
+		assertEquals(expectedHeaderLength, written);
+		assertEquals(expectedHeaderLength, FrameHeader.getEncodedLength(payloadLength));
+		assertEquals(expectedHeaderLength, FrameHeader.getEncodedLength(buffer[4]));
+
+		FrameHeader header = new FrameHeader();
+		assertEquals(written, header.decode(buffer, 3, written));
+		assertTrue(header.getFin());
+		assertEquals(Opcode.TEXT, header.getOpcode());
+		assertFalse(header.isMasked());
+		assertEquals(payloadLength, header.getPayloadLength());
+	}
+
+	@Test
+	public void test7BitLength() {
+		testRoundTrip(0, 2);
+		testRoundTrip(125, 2);
+	}
+
+	@Test
+	public void test16BitLength() {
+		testRoundTrip(126, 4);
+		testRoundTrip(65535, 4);
+	}
+
+	@Test
+	public void test64BitLength() {
+		testRoundTrip(65536, 10);
+		testRoundTrip(Long.MAX_VALUE, 10);
+	}
+
+	@Test
+	public void testEncodingMatchesRfc() {
+		byte[] buffer = new byte[FrameHeader.MAX_LENGTH];
+		assertEquals(4, FrameHeader.encode(true, false, false, false, Opcode.BINARY, 256, buffer, 0));
+		assertArrayEquals(new byte[] { (byte) 0x82, 0x7E, 0x01, 0x00 }, Arrays.copyOf(buffer, 4));
+	}
+
+	@Test
+	public void testRsvBits() {
+		Frame frame = new Frame();
+		frame.setOpcode(Opcode.TEXT);
+		frame.setRSV1(true);
+		frame.setRSV3(true);
+
+		byte[] encoded = frame.getHeaderBytes();
+		assertEquals(0x50 | 0x01, encoded[0]);
+
+		FrameHeader header = new FrameHeader();
+		header.decode(encoded, 0, encoded.length);
+		assertTrue(header.getRSV1());
+		assertFalse(header.getRSV2());
+		assertTrue(header.getRSV3());
+		assertFalse(header.getFin());
+	}
+
+	@Test
+	public void testMasked() {
+		FrameHeader header = new FrameHeader();
+		header.setFin(true);
+		header.setOpcode(Opcode.PING);
+		header.setPayloadLength(300);
+		header.setMaskingKey(new byte[] { 1, 2, 3, 4 });
+
+		byte[] buffer = new byte[FrameHeader.MAX_LENGTH];
+		int written = header.encode(buffer, 0);
+		assertEquals(8, written);
+
+		FrameHeader decoded = new FrameHeader();
+		assertEquals(8, decoded.decode(buffer, 0, buffer.length));
+		assertTrue(decoded.isMasked());
+		assertEquals(Opcode.PING, decoded.getOpcode());
+		assertEquals(300, decoded.getPayloadLength());
+		assertArrayEquals(new byte[] { 1, 2, 3, 4 }, decoded.getMaskingKey());
+	}
+
+	@Test
+	public void testIncomplete() {
+		byte[] buffer = new byte[FrameHeader.MAX_LENGTH];
+		int written = FrameHeader.encode(true, false, false, false, Opcode.TEXT, 70000, buffer, 0);
+
+		FrameHeader header = new FrameHeader();
+		for (int available = 0; available < written; available++) {
+			assertEquals(0, header.decode(buffer, 0, available));
+		}
+		assertEquals(written, header.decode(buffer, 0, written));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownOpcode() {
+		new FrameHeader().decode(new byte[] { (byte) 0x83, 0 }, 0, 2);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeLength() {
+		byte[] buffer = new byte[] { (byte) 0x81, 127, (byte) 0x80, 0, 0, 0, 0, 0, 0, 0 };
+		new FrameHeader().decode(buffer, 0, buffer.length);
+	}
+
+	@Test
+	public void testOpcodeLookup() {
+		for (Opcode opcode : Opcode.values()) {
+			assertEquals(opcode, Opcode.forValue(opcode.getValue()));
+		}
+	}
+
+	/**
+	 * @return the bytes allocated by the current thread or -1 if this is not
+	 *         supported by the runtime
+	 */
+	static long getAllocatedBytes() {
+		try {
+			Method method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getCurrentThreadAllocatedBytes");
+			return (Long) method.invoke(ManagementFactory.getThreadMXBean());
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return -1;
+		}
+	}
+
+	@Test
+	public void testAllocationFree() {
+		int iterations = 100000;
+		byte[] buffer = new byte[FrameHeader.MAX_LENGTH];
+		FrameHeader header = new FrameHeader();
+
+		// warm up
+		FrameHeaderBenchmark.encodeDecode(buffer, header, iterations);
+
+		long before = getAllocatedBytes();
+		FrameHeaderBenchmark.encodeDecode(buffer, header, iterations);
+		long after = getAllocatedBytes();
+
+		if (before < 0 || after < 0) {
+			// allocation measurement not supported by this runtime
+			return;
+		}
+		assertTrue("Allocated " + (after - before) + " bytes for " + iterations + " frames", after - before < iterations);
+	}
+
+}
@@ -0,0 +1,112 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FrameMaskingTest {
+
+	private static final byte[] MASKING_KEY = new byte[] { (byte) 0x37, (byte) 0xFA, (byte) 0x21, (byte) 0x3D };
+
+	private static byte[] getRandomBytes(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+
+	/**
+	 * Bytewise unmasking as originally done while reading the frame payload
+	 */
+	private static byte[] unmaskBytewise(byte[] data, byte[] maskingKey) {
+		byte[] result = new byte[data.length];
+		for (int i = 0; i < data.length; i++) {
+			result[i] = (byte) (data[i] ^ maskingKey[i % 4]);
+		}
+		return result;
+	}
+
+	private static void testLength(int length) {
+		byte[] data = getRandomBytes(length);
+		byte[] expected = unmaskBytewise(data, MASKING_KEY);
+
+		FrameMasking.applyMask(data, 0, data.length, MASKING_KEY, 0);
+
+		assertArrayEquals(expected, data);
+	}
+
+	@Test
+	public void testEmpty() {
+		testLength(0);
+	}
+
+	@Test
+	public void testUnaligned() {
+		for (int i = 1; i < 20; i++) {
+			testLength(i);
+		}
+	}
+
+	@Test
+	public void testSmall() {
+		testLength(32);
+	}
+
+	@Test
+	public void testMaxShort() {
+		testLength(Short.MAX_VALUE);
+	}
+
+	@Test
+	public void testLongerThanShort() {
+		testLength(Short.MAX_VALUE + 1);
+	}
+
+	@Test
+	public void testDoubleShort() {
+		testLength(Short.MAX_VALUE * 2);
+	}
+
+	@Test
+	public void testBiggerThanDoubleShort() {
+		testLength(Short.MAX_VALUE * 2 + 1);
+	}
+
+	@Test
+	public void testMaxUnsignedShort() {
+		testLength(65535);
+	}
+
+	@Test
+	public void testBiggerThanUnsignedShort() {
+		testLength(65535 + 1);
+	}
+
+	@Test
+	public void testChunked() {
+		byte[] data = getRandomBytes(1000);
+		byte[] expected = unmaskBytewise(data, MASKING_KEY);
+
+		int[] chunkLengths = new int[] { 3, 1, 7, 13, 100, 255, 621 };
+		int offset = 0;
+		for (int chunkLength : chunkLengths) {
+			FrameMasking.applyMask(data, offset, chunkLength, MASKING_KEY, offset);
+			offset += chunkLength;
+		}
+
+		assertArrayEquals(expected, data);
+	}
+
+	@Test
+	public void testSymmetric() {
+		byte[] original = getRandomBytes(4711);
+		byte[] data = original.clone();
+
+		FrameMasking.applyMask(data, 0, data.length, MASKING_KEY, 0);
+		FrameMasking.applyMask(data, 0, data.length, MASKING_KEY, 0);
+
+		assertArrayEquals(original, data);
+	}
+
+}
@@ -0,0 +1,135 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import de.persosim.websocket.Frame.Opcode;
+
+public class FrameTest {
+
+	private static Frame createFrame(Opcode opcode, boolean fin, byte[] payload) {
+		Frame frame = new Frame();
+		frame.setFin(fin);
+		frame.setOpcode(opcode);
+		frame.setPayload(payload);
+		return frame;
+	}
+
+	@Test
+	public void testPayloadRange() throws IOException {
+		byte[] data = "xxpayloadxx".getBytes(StandardCharsets.UTF_8);
+		Frame frame = new Frame();
+		frame.setOpcode(Opcode.TEXT);
+		frame.setPayload(data, 2, 7);
+
+		assertEquals(7, frame.getPayloadLength());
+		assertArrayEquals("payload".getBytes(StandardCharsets.UTF_8), frame.getPayload());
+		assertEquals("payload", frame.getPayloadAsString(StandardCharsets.UTF_8));
+
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		frame.writePayload(written);
+		assertArrayEquals("payload".getBytes(StandardCharsets.UTF_8), written.toByteArray());
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testPayloadRangeOutOfBounds() {
+		new Frame().setPayload(new byte[4], 2, 3);
+	}
+
+	@Test
+	public void testPayloadBufferView() {
+		byte[] data = new byte[] { 0, 1, 2, 3, 4 };
+		Frame frame = new Frame();
+		frame.setPayload(data, 1, 3);
+
+		ByteBuffer view = frame.getPayloadBuffer();
+		assertTrue(view.isReadOnly());
+		assertEquals(0, view.position());
+		assertEquals(3, view.remaining());
+		assertEquals(1, view.get(0));
+		assertEquals(3, view.get(2));
+	}
+
+	@Test(expected = ReadOnlyBufferException.class)
+	public void testPayloadBufferNotWritable() {
+		Frame frame = createFrame(Opcode.BINARY, true, new byte[] { 1, 2, 3 });
+		frame.getPayloadBuffer().put(0, (byte) 0);
+	}
+
+	@Test
+	public void testGetPayloadReturnsCopy() {
+		Frame frame = createFrame(Opcode.BINARY, true, new byte[] { 1, 2, 3 });
+
+		frame.getPayload()[0] = 42;
+
+		assertArrayEquals(new byte[] { 1, 2, 3 }, frame.getPayload());
+	}
+
+	@Test
+	public void testAppendFrame() {
+		Frame frame = createFrame(Opcode.TEXT, false, "first".getBytes(StandardCharsets.UTF_8));
+		frame.appendFrame(createFrame(Opcode.CONTINUATION, true, "second".getBytes(StandardCharsets.UTF_8)));
+
+		assertTrue(frame.getFin());
+		assertEquals("firstsecond", frame.getPayloadAsString(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testAppendManyFragments() {
+		int fragments = 500;
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		
+		byte[] first = new byte[] { 0 };
+		expected.write(first, 0, first.length);
+		Frame frame = createFrame(Opcode.BINARY, false, first);
+		for (int i = 1; i <= fragments; i++) {
+			byte[] fragment = new byte[i % 17];
+			Arrays.fill(fragment, (byte) i);
+			expected.write(fragment, 0, fragment.length);
+			frame.appendFrame(createFrame(Opcode.CONTINUATION, i == fragments, fragment));
+		}
+		
+		assertTrue(frame.getFin());
+		assertEquals(expected.size(), frame.getPayloadLength());
+		assertArrayEquals(expected.toByteArray(), frame.getPayload());
+		assertArrayEquals(expected.toByteArray(), frame.getPayload());
+	}
+
+	@Test
+	public void testAppendAfterAccess() {
+		Frame frame = createFrame(Opcode.TEXT, false, "a".getBytes(StandardCharsets.UTF_8));
+		for (int i = 0; i < 300; i++) {
+			frame.appendFrame(createFrame(Opcode.CONTINUATION, false, "b".getBytes(StandardCharsets.UTF_8)));
+			assertEquals(i + 2, frame.getPayloadAsString(StandardCharsets.UTF_8).length());
+		}
+		frame.appendFrame(createFrame(Opcode.CONTINUATION, true, new byte[0]));
+		
+		assertTrue(frame.getFin());
+		assertEquals(301, frame.getPayloadLength());
+	}
+
+	@Test
+	public void testHeaderOfJoinedFrame() {
+		Frame frame = createFrame(Opcode.TEXT, false, new byte[100]);
+		frame.appendFrame(createFrame(Opcode.CONTINUATION, true, new byte[100]));
+		
+		assertArrayEquals(new byte[] { (byte) 0x81, 126, 0, (byte) 200 }, frame.getHeaderBytes());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testAppendNonContinuationFrame() {
+		Frame frame = createFrame(Opcode.TEXT, false, new byte[] { 1 });
+		frame.appendFrame(createFrame(Opcode.TEXT, true, new byte[] { 2 }));
+	}
+
+}
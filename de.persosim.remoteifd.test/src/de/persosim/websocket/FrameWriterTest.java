@@ -0,0 +1,129 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.persosim.simulator.utils.Utils;
+import de.persosim.websocket.Frame.Opcode;
+
+public class FrameWriterTest {
+
+	/**
+	 * Records the number of write and flush calls
+	 */
+	private static class RecordingOutputStream extends ByteArrayOutputStream {
+		int writes = 0;
+		int flushes = 0;
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			writes++;
+			super.write(b, off, len);
+		}
+
+		@Override
+		public synchronized void write(int b) {
+			writes++;
+			super.write(b);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			flushes++;
+		}
+	}
+
+	private static Frame createFrame(Opcode opcode, int payloadLength) {
+		byte[] payload = new byte[payloadLength];
+		new Random(payloadLength).nextBytes(payload);
+		Frame frame = new Frame();
+		frame.setFin(true);
+		frame.setOpcode(opcode);
+		frame.setPayload(payload);
+		return frame;
+	}
+
+	private static byte[] getExpectedBytes(Frame... frames) {
+		byte[] expected = new byte[0];
+		for (Frame frame : frames) {
+			expected = Utils.concatByteArrays(expected, frame.getHeaderBytes(), frame.getPayload());
+		}
+		return expected;
+	}
+
+	@Test
+	public void testSmallFrameSingleWrite() throws IOException {
+		RecordingOutputStream out = new RecordingOutputStream();
+		Frame frame = createFrame(Opcode.TEXT, 200);
+
+		new FrameWriter(out).write(frame);
+
+		assertEquals(1, out.writes);
+		assertEquals(1, out.flushes);
+		assertArrayEquals(getExpectedBytes(frame), out.toByteArray());
+	}
+
+	@Test
+	public void testEmptyFrame() throws IOException {
+		RecordingOutputStream out = new RecordingOutputStream();
+		Frame frame = createFrame(Opcode.CLOSE, 0);
+
+		new FrameWriter(out).write(frame);
+
+		assertEquals(1, out.writes);
+		assertArrayEquals(getExpectedBytes(frame), out.toByteArray());
+	}
+
+	@Test
+	public void testSeveralFramesSingleWrite() throws IOException {
+		RecordingOutputStream out = new RecordingOutputStream();
+		Frame first = createFrame(Opcode.PONG, 10);
+		Frame second = createFrame(Opcode.TEXT, 1000);
+		Frame third = createFrame(Opcode.TEXT, 300);
+
+		FrameWriter writer = new FrameWriter(out);
+		writer.append(first);
+		writer.append(second);
+		writer.append(third);
+		assertEquals(0, out.writes);
+		writer.flush();
+
+		assertEquals(1, out.writes);
+		assertEquals(1, out.flushes);
+		assertArrayEquals(getExpectedBytes(first, second, third), out.toByteArray());
+	}
+
+	@Test
+	public void testFrameLargerThanBuffer() throws IOException {
+		RecordingOutputStream out = new RecordingOutputStream();
+		Frame frame = createFrame(Opcode.BINARY, 100000);
+
+		new FrameWriter(out).write(frame);
+
+		assertEquals(2, out.writes);
+		assertArrayEquals(getExpectedBytes(frame), out.toByteArray());
+	}
+
+	@Test
+	public void testFramesExceedingRemainingBuffer() throws IOException {
+		RecordingOutputStream out = new RecordingOutputStream();
+		Frame first = createFrame(Opcode.TEXT, 60);
+		Frame second = createFrame(Opcode.TEXT, 60);
+		Frame third = createFrame(Opcode.TEXT, 500);
+
+		FrameWriter writer = new FrameWriter(out, 100);
+		writer.append(first);
+		writer.append(second);
+		writer.append(third);
+		writer.flush();
+
+		assertArrayEquals(getExpectedBytes(first, second, third), out.toByteArray());
+	}
+
+}
@@ -0,0 +1,59 @@
+package de.persosim.websocket;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures the number of WebSocket upgrades per second handled by the
+ * {@link DefaultHandshakeHandler}, without network and TLS.
+ * <p>
+ * The request resembles the one sent by the AusweisApp, including an
+ * extension offer.
+ * <p>
+ * Usage: HandshakeBenchmark [iterations]
+ */
+public class HandshakeBenchmark {
+
+	private static final byte[] REQUEST = ("GET / HTTP/1.1\r\n"
+			+ "Host: 192.168.178.20:24727\r\n"
+			+ "Upgrade: websocket\r\n"
+			+ "Connection: Upgrade\r\n"
+			+ "Sec-WebSocket-Key: x3JJHMbDL1EzLkh9GBhXDw==\r\n"
+			+ "Sec-WebSocket-Version: 13\r\n"
+			+ "Sec-WebSocket-Extensions: permessage-deflate; client_max_window_bits\r\n"
+			+ "User-Agent: AusweisApp2/1.26.4 (Android)\r\n"
+			+ "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+	/**
+	 * @return the number of successful upgrades
+	 */
+	static int upgrade(PerMessageDeflate preferences, int iterations) {
+		int upgraded = 0;
+		ByteArrayOutputStream output = new ByteArrayOutputStream(256);
+		for (int i = 0; i < iterations; i++) {
+			output.reset();
+			DefaultHandshakeHandler handler = new DefaultHandshakeHandler(output, new ByteArrayInputStream(REQUEST));
+			handler.setPerMessageDeflatePreferences(preferences);
+			if (handler.handle()) {
+				upgraded++;
+				handler.getPerMessageDeflate().close();
+			}
+		}
+		return upgraded;
+	}
+
+	public static void main(String[] args) {
+		int iterations = BenchmarkSupport.intArgument(args, 0, 200000);
+		PerMessageDeflate preferences = new PerMessageDeflate(false, false, PerMessageDeflate.MAX_WINDOW_BITS);
+
+		for (int round = 0; round < 5; round++) {
+			long start = System.nanoTime();
+			int upgraded = upgrade(preferences, iterations);
+			long duration = System.nanoTime() - start;
+
+			System.out.println(String.format("Round %d: %.0f upgrades/s, %.2f us/upgrade (%d upgraded)", round, iterations / (duration / 1e9), duration / 1e3 / iterations, upgraded));
+		}
+	}
+
+}
@@ -0,0 +1,118 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bouncycastle.tls.CipherSuite;
+import org.bouncycastle.tls.ProtocolVersion;
+import org.bouncycastle.tls.TlsClientProtocol;
+import org.junit.Test;
+
+public class HandshakeExecutorTest {
+
+	@Test
+	public void testStalledHandshakeTimesOut() throws Exception {
+		RemoteIfdConfigManager config = BenchmarkSupport.createConfig(HostKeyType.RSA);
+		HandshakeExecutor executor = new HandshakeExecutor("Test", 1, 200);
+
+		try (ServerSocket serverSocket = new ServerSocket(0); Socket clientSocket = new Socket("localhost", serverSocket.getLocalPort()); Socket serverSide = serverSocket.accept()) {
+			// the client connects but never sends its hello
+			assertTrue(clientSocket.isConnected());
+			long start = System.nanoTime();
+			assertFalse(executor.performHandshake(serverSide, new DefaultHandshaker(config, new HostCredentials(config), serverSide, null)));
+
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+			assertTrue(serverSide.isClosed());
+			assertEquals(1, executor.getTimeouts());
+			assertEquals(0, executor.getFailures());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testHandshakeAfterShutdownRejected() throws Exception {
+		RemoteIfdConfigManager config = BenchmarkSupport.createConfig(HostKeyType.RSA);
+		HandshakeExecutor executor = new HandshakeExecutor("Test", 1, HandshakeExecutor.DEFAULT_DEADLINE_MILLIS);
+		executor.shutdown();
+
+		try (ServerSocket serverSocket = new ServerSocket(0); Socket clientSocket = new Socket("localhost", serverSocket.getLocalPort()); Socket serverSide = serverSocket.accept()) {
+			assertTrue(clientSocket.isConnected());
+			assertFalse(executor.performHandshake(serverSide, new DefaultHandshaker(config, new HostCredentials(config), serverSide, null)));
+
+			assertEquals(1, executor.getRejections());
+			assertEquals(0, executor.getActiveHandshakes());
+		}
+	}
+
+	@Test
+	public void testRejectedIfAllWorkersBusy() throws Exception {
+		HandshakeExecutor executor = new HandshakeExecutor("Test", 1, HandshakeExecutor.DEFAULT_DEADLINE_MILLIS);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicBoolean secondRun = new AtomicBoolean();
+
+		try {
+			assertTrue(executor.execute(() -> {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}));
+			assertFalse(executor.execute(() -> secondRun.set(true)));
+			assertEquals(1, executor.getRejections());
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		assertFalse(secondRun.get());
+	}
+
+	@Test
+	public void testStalledClientDoesNotBlockOthers() throws Exception {
+		RemoteIfdConfigManager config = BenchmarkSupport.createConfig(HostKeyType.RSA);
+		HostCredentials credentials = new HostCredentials(config);
+		HandshakeExecutor executor = new HandshakeExecutor("Test", 2, HandshakeExecutor.DEFAULT_DEADLINE_MILLIS);
+		CountDownLatch stalledStarted = new CountDownLatch(1);
+		boolean[] result = new boolean[1];
+		CountDownLatch done = new CountDownLatch(1);
+
+		try (ServerSocket serverSocket = new ServerSocket(0); Socket stalledClient = new Socket("localhost", serverSocket.getLocalPort()); Socket stalledServerSide = serverSocket.accept()) {
+			assertTrue(stalledClient.isConnected());
+			assertTrue(executor.execute(() -> {
+				stalledStarted.countDown();
+				executor.performHandshake(stalledServerSide, new DefaultHandshaker(config, credentials, stalledServerSide, null));
+			}));
+			assertTrue(stalledStarted.await(5, TimeUnit.SECONDS));
+
+			try (Socket clientSocket = new Socket("localhost", serverSocket.getLocalPort()); Socket serverSide = serverSocket.accept()) {
+				assertTrue(executor.execute(() -> {
+					result[0] = executor.performHandshake(serverSide, new DefaultHandshaker(config, credentials, serverSide, null));
+					done.countDown();
+				}));
+
+				TlsClientProtocol protocol = new TlsClientProtocol(clientSocket.getInputStream(), clientSocket.getOutputStream());
+				protocol.connect(new BenchmarkSupport.SuiteClient(config, ProtocolVersion.TLSv12, CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256));
+				assertTrue(done.await(5, TimeUnit.SECONDS));
+				protocol.close();
+			}
+
+			assertTrue(result[0]);
+			assertEquals(1, executor.getHandshakes());
+			assertEquals(1, executor.getActiveHandshakes());
+		} finally {
+			executor.shutdown();
+		}
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		assertEquals(0, executor.getTimeouts());
+	}
+
+}
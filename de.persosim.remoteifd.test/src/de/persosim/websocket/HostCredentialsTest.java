@@ -0,0 +1,79 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+
+import org.junit.Test;
+
+import de.persosim.simulator.utils.HexString;
+
+public class HostCredentialsTest {
+
+	/**
+	 * Counts the accesses to the host private key
+	 */
+	private static class CountingConfigManager extends KeystoreRemoteIfdConfigManager {
+		int keyReads = 0;
+		Certificate hostCertificate;
+
+		CountingConfigManager() {
+			super(new ByteArrayInputStream(HexString.toByteArray(Application.KEYSTORE)), Application.STOREPASSWORD.toCharArray(),
+					Application.KEYPASSWORD.toCharArray());
+			hostCertificate = super.getHostCertificate();
+		}
+
+		@Override
+		public Certificate getHostCertificate() {
+			return hostCertificate;
+		}
+
+		@Override
+		public PrivateKey getHostKey() {
+			keyReads++;
+			return super.getHostKey();
+		}
+	}
+
+	@Test
+	public void testConvertedOnce() throws Exception {
+		CountingConfigManager config = new CountingConfigManager();
+		HostCredentials credentials = new HostCredentials(config);
+		org.bouncycastle.tls.Certificate certificate = credentials.getCertificate();
+
+		assertSame(certificate, credentials.getCertificate());
+		assertSame(credentials.getPrivateKey(), credentials.getPrivateKey());
+		assertSame(credentials.getDecryptor(), credentials.getDecryptor());
+		assertEquals(1, config.keyReads);
+		assertArrayEquals(config.getHostCertificate().getEncoded(), certificate.getCertificateAt(0).getEncoded());
+	}
+
+	@Test
+	public void testInvalidate() {
+		CountingConfigManager config = new CountingConfigManager();
+		HostCredentials credentials = new HostCredentials(config);
+		org.bouncycastle.tls.Certificate certificate = credentials.getCertificate();
+		credentials.invalidate();
+
+		assertNotSame(certificate, credentials.getCertificate());
+		assertEquals(2, config.keyReads);
+	}
+
+	@Test
+	public void testEqualHostCertificateKept() {
+		CountingConfigManager config = new CountingConfigManager();
+		HostCredentials credentials = new HostCredentials(config);
+		org.bouncycastle.tls.Certificate certificate = credentials.getCertificate();
+
+		// a reloaded but unchanged host certificate does not require a new conversion
+		config.hostCertificate = CertificateConverter.fromBcTlsCertificateToJavaCertificate(certificate);
+		assertSame(certificate, credentials.getCertificate());
+		assertEquals(1, config.keyReads);
+	}
+
+}
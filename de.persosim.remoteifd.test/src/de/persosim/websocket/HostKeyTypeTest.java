@@ -0,0 +1,47 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertEquals;
+
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class HostKeyTypeTest {
+
+	@Test
+	public void testEcCertificate() throws Exception {
+		KeyPair keyPair = HostKeyType.EC.generateKeyPair();
+
+		Certificate certificate = HostKeyType.EC.generateCertificate(keyPair);
+
+		assertEquals(keyPair.getPublic(), certificate.getPublicKey());
+		certificate.verify(keyPair.getPublic());
+		assertEquals(HostKeyType.EC, HostKeyType.of(keyPair.getPrivate()));
+	}
+
+	@Test
+	public void testEcIdentityAsync() throws Exception {
+		KeyStore.PrivateKeyEntry identity = HostKeyType.EC.generateIdentityAsync().get(10, TimeUnit.SECONDS);
+
+		identity.getCertificate().verify(identity.getCertificate().getPublicKey());
+		assertEquals(HostKeyType.EC, HostKeyType.of(identity.getPrivateKey()));
+	}
+
+	@Test
+	public void testRsaKey() throws Exception {
+		assertEquals(HostKeyType.RSA, HostKeyType.of(BenchmarkSupport.createConfig(HostKeyType.RSA).getHostKey()));
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test(expected = IllegalStateException.class)
+	public void testRsaAccessorRejectsEcKey() throws Exception {
+		RemoteIfdConfigManager config = BenchmarkSupport.createConfig(HostKeyType.EC);
+		assertEquals(HostKeyType.EC, HostKeyType.of(config.getHostKey()));
+
+		config.getHostPrivateKey();
+	}
+
+}
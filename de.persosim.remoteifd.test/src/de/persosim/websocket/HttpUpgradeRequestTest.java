@@ -0,0 +1,92 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class HttpUpgradeRequestTest {
+
+	static final String REQUEST = "GET /chat HTTP/1.1\r\n"
+			+ "Host: server.example.com\r\n"
+			+ "Upgrade: websocket\r\n"
+			+ "Connection: Upgrade\r\n"
+			+ "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+			+ "Sec-WebSocket-Version: 13\r\n"
+			+ "\r\n";
+
+	private static ByteArrayInputStream stream(String data) {
+		return new ByteArrayInputStream(data.getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	@Test
+	public void testParse() throws IOException {
+		HttpUpgradeRequest request = HttpUpgradeRequest.read(stream(REQUEST), HttpUpgradeRequest.DEFAULT_MAX_HEADER_LENGTH);
+
+		assertEquals("GET", request.getMethod());
+		assertEquals("/chat", request.getTarget());
+		assertEquals("HTTP/1.1", request.getVersion());
+		assertEquals("dGhlIHNhbXBsZSBub25jZQ==", request.getHeader("sec-websocket-key"));
+		assertEquals("websocket", request.getHeader("UPGRADE"));
+		assertNull(request.getHeader("Sec-WebSocket-Extensions"));
+		assertEquals(5, request.getHeaders().size());
+	}
+
+	@Test
+	public void testNothingReadAfterHeader() throws IOException {
+		ByteArrayInputStream input = stream(REQUEST + "\u0081\u0000");
+		HttpUpgradeRequest.read(input, HttpUpgradeRequest.DEFAULT_MAX_HEADER_LENGTH);
+
+		assertEquals(2, input.available());
+		assertEquals(0x81, input.read());
+	}
+
+	@Test
+	public void testRepeatedAndFoldedFields() throws IOException {
+		HttpUpgradeRequest request = HttpUpgradeRequest.read(stream("GET / HTTP/1.1\n"
+				+ "Sec-WebSocket-Extensions: permessage-deflate\n"
+				+ "Sec-WebSocket-Extensions: x-test\n"
+				+ "X-Folded: first\n"
+				+ "\tsecond\n"
+				+ "\n"), HttpUpgradeRequest.DEFAULT_MAX_HEADER_LENGTH);
+
+		assertEquals("permessage-deflate,x-test", request.getHeader("Sec-WebSocket-Extensions"));
+		assertEquals("first second", request.getHeader("X-Folded"));
+	}
+
+	@Test
+	public void testCarriageReturnsWithinHeader() throws IOException {
+		// a CR not followed by LF must not be mistaken for the end of the header
+		ByteArrayInputStream input = stream("GET / HTTP/1.1\r\nX-Test: a\r\r\nX-Other: b\r\n\r\n");
+		HttpUpgradeRequest request = HttpUpgradeRequest.read(input, HttpUpgradeRequest.DEFAULT_MAX_HEADER_LENGTH);
+
+		assertEquals("b", request.getHeader("X-Other"));
+		assertEquals(0, input.available());
+	}
+
+	@Test(expected = IOException.class)
+	public void testHeaderTooLong() throws IOException {
+		HttpUpgradeRequest.read(stream(REQUEST), REQUEST.length() - 1);
+	}
+
+	@Test
+	public void testHeaderOfMaximumLength() throws IOException {
+		HttpUpgradeRequest.read(stream(REQUEST), REQUEST.length());
+	}
+
+	@Test(expected = EOFException.class)
+	public void testTruncated() throws IOException {
+		HttpUpgradeRequest.read(stream(REQUEST.substring(0, REQUEST.length() - 2)), HttpUpgradeRequest.DEFAULT_MAX_HEADER_LENGTH);
+	}
+
+	@Test(expected = IOException.class)
+	public void testInvalidField() throws IOException {
+		HttpUpgradeRequest.read(stream("GET / HTTP/1.1\r\nno separator\r\n\r\n"), HttpUpgradeRequest.DEFAULT_MAX_HEADER_LENGTH);
+	}
+
+}
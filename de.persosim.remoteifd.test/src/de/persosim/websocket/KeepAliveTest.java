@@ -0,0 +1,92 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import de.persosim.websocket.Frame.Opcode;
+
+public class KeepAliveTest {
+
+	private BlockingQueue<Frame> sent = new LinkedBlockingQueue<>();
+	private CountDownLatch closed = new CountDownLatch(1);
+
+	private KeepAlive createKeepAlive(int pingInterval, int pongTimeout, int idleTimeout) {
+		long created = System.nanoTime();
+		return new KeepAlive(pingInterval, pongTimeout, idleTimeout, sent::add, () -> created, closed::countDown);
+	}
+
+	@Test
+	public void testRoundTripTime() throws Exception {
+		KeepAlive keepAlive = createKeepAlive(10, 5000, 0);
+		keepAlive.start();
+
+		for (int i = 0; i < 3; i++) {
+			Frame ping = sent.poll(5, TimeUnit.SECONDS);
+			assertNotNull(ping);
+			assertEquals(Opcode.PING, ping.getOpcode());
+			Thread.sleep(20);
+			keepAlive.pongReceived(ping.getPayloadBuffer());
+		}
+		keepAlive.stop();
+
+		assertEquals(3, keepAlive.getRoundTrips());
+		assertTrue(keepAlive.getMinRoundTripNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+		assertTrue(keepAlive.getAverageRoundTripNanos() >= keepAlive.getMinRoundTripNanos());
+		assertTrue(keepAlive.getLastRoundTripNanos() >= keepAlive.getMinRoundTripNanos());
+		assertFalse(keepAlive.isTimedOut());
+		assertEquals(1, closed.getCount());
+	}
+
+	@Test
+	public void testUnmatchedPongIgnored() throws Exception {
+		KeepAlive keepAlive = createKeepAlive(10, 5000, 0);
+		keepAlive.start();
+
+		assertNotNull(sent.poll(5, TimeUnit.SECONDS));
+		keepAlive.pongReceived(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+		keepAlive.stop();
+
+		assertEquals(0, keepAlive.getRoundTrips());
+		assertEquals(-1, keepAlive.getLastRoundTripNanos());
+	}
+
+	@Test
+	public void testPongTimeout() throws Exception {
+		KeepAlive keepAlive = createKeepAlive(10, 50, 0);
+		keepAlive.start();
+
+		assertTrue(closed.await(5, TimeUnit.SECONDS));
+		assertTrue(keepAlive.isTimedOut());
+		assertEquals(1, sent.size());
+	}
+
+	@Test
+	public void testIdleTimeout() throws Exception {
+		KeepAlive keepAlive = createKeepAlive(0, 50, 50);
+		keepAlive.start();
+
+		assertTrue(closed.await(5, TimeUnit.SECONDS));
+		assertTrue(keepAlive.isTimedOut());
+		assertTrue(sent.isEmpty());
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		KeepAlive keepAlive = createKeepAlive(0, 50, 0);
+		keepAlive.start();
+
+		assertFalse(closed.await(200, TimeUnit.MILLISECONDS));
+		assertTrue(sent.isEmpty());
+	}
+
+}
@@ -5,6 +5,7 @@ import java.io.InputStream;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
@@ -43,9 +44,19 @@ public class KeystoreRemoteIfdConfigManager implements RemoteIfdConfigManager {
 	}
 
 	@Override
+	@Deprecated
 	public RSAPrivateKey getHostPrivateKey() {
+		PrivateKey key = getHostKey();
+		if (!(key instanceof RSAPrivateKey)) {
+			throw new IllegalStateException("The host key is not an RSA key");
+		}
+		return (RSAPrivateKey) key;
+	}
+
+	@Override
+	public PrivateKey getHostKey() {
 		try {
-			return (RSAPrivateKey) keyStore.getKey("default", privateKeyPassword);
+			return (PrivateKey) keyStore.getKey("default", privateKeyPassword);
 		} catch (UnrecoverableKeyException | KeyStoreException | NoSuchAlgorithmException e) {
 			throw new IllegalStateException("Could not get private key", e);
 		}
@@ -0,0 +1,142 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.persosim.websocket.Frame.Opcode;
+
+public class MessageOutputStreamTest {
+
+	/**
+	 * Decodes all frames contained in the given unmasked data
+	 */
+	private static List<Frame> decodeFrames(byte[] data) {
+		List<Frame> frames = new ArrayList<>();
+		FrameHeader header = new FrameHeader();
+		int offset = 0;
+		while (offset < data.length) {
+			offset += header.decode(data, offset, data.length - offset);
+			Frame frame = new Frame();
+			header.applyTo(frame);
+			frame.setPayload(data, offset, (int) header.getPayloadLength());
+			offset += (int) header.getPayloadLength();
+			frames.add(frame);
+		}
+		return frames;
+	}
+
+	private static List<Frame> streamMessage(byte[] message, int maxFrameSize, int writeChunkSize) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (MessageOutputStream messageStream = new MessageOutputStream(new FrameWriter(out), Opcode.TEXT, maxFrameSize)) {
+			for (int offset = 0; offset < message.length; offset += writeChunkSize) {
+				messageStream.write(message, offset, Math.min(writeChunkSize, message.length - offset));
+			}
+		}
+		return decodeFrames(out.toByteArray());
+	}
+
+	private static void checkFragments(byte[] message, List<Frame> frames, int maxFrameSize) {
+		ByteArrayOutputStream joined = new ByteArrayOutputStream();
+		for (int i = 0; i < frames.size(); i++) {
+			Frame frame = frames.get(i);
+			assertEquals(i == 0 ? Opcode.TEXT : Opcode.CONTINUATION, frame.getOpcode());
+			assertEquals(i == frames.size() - 1, frame.getFin());
+			assertTrue(frame.getPayloadLength() <= maxFrameSize);
+			joined.writeBytes(frame.getPayload());
+		}
+		assertArrayEquals(message, joined.toByteArray());
+	}
+
+	private static byte[] getRandomBytes(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+
+	@Test
+	public void testSingleFrame() throws IOException {
+		byte[] message = getRandomBytes(500);
+		List<Frame> frames = streamMessage(message, 1000, 100);
+
+		assertEquals(1, frames.size());
+		checkFragments(message, frames, 1000);
+	}
+
+	@Test
+	public void testExactlyMaxFrameSize() throws IOException {
+		byte[] message = getRandomBytes(1000);
+		List<Frame> frames = streamMessage(message, 1000, 1000);
+
+		assertEquals(1, frames.size());
+		checkFragments(message, frames, 1000);
+	}
+
+	@Test
+	public void testFragmented() throws IOException {
+		byte[] message = getRandomBytes(10001);
+		List<Frame> frames = streamMessage(message, 1000, 333);
+
+		assertEquals(11, frames.size());
+		checkFragments(message, frames, 1000);
+	}
+
+	@Test
+	public void testLargeWrites() throws IOException {
+		byte[] message = getRandomBytes(200000);
+		List<Frame> frames = streamMessage(message, 16384, message.length);
+
+		checkFragments(message, frames, 16384);
+	}
+
+	@Test
+	public void testEmptyMessage() throws IOException {
+		List<Frame> frames = streamMessage(new byte[0], 1000, 1);
+
+		assertEquals(1, frames.size());
+		checkFragments(new byte[0], frames, 1000);
+	}
+
+	@Test
+	public void testFramesWrittenBeforeClose() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MessageOutputStream messageStream = new MessageOutputStream(new FrameWriter(out, 100), Opcode.TEXT, 50);
+		messageStream.write(getRandomBytes(1000));
+
+		assertTrue("Data expected on stream before message is completed", out.size() > 0);
+		messageStream.close();
+	}
+
+	@Test
+	public void testRsv1OnFirstFrameOnly() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		FrameWriter frameWriter = new FrameWriter(out);
+		MessageOutputStream messageStream = new MessageOutputStream(frameWriter, Opcode.TEXT, 100);
+		messageStream.setRsv1(true);
+		messageStream.write(getRandomBytes(250));
+		messageStream.finish();
+		assertEquals("finish() must not flush", 0, out.size());
+		frameWriter.flush();
+
+		List<Frame> frames = decodeFrames(out.toByteArray());
+		assertEquals(3, frames.size());
+		assertTrue(frames.get(0).getRSV1());
+		assertFalse(frames.get(1).getRSV1());
+		assertFalse(frames.get(2).getRSV1());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testControlOpcode() {
+		new MessageOutputStream(new FrameWriter(new ByteArrayOutputStream()), Opcode.PING, 100);
+	}
+
+}
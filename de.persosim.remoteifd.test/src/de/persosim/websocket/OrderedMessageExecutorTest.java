@@ -0,0 +1,109 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class OrderedMessageExecutorTest {
+
+	@Test
+	public void testOrder() throws InterruptedException {
+		OrderedMessageExecutor executor = new OrderedMessageExecutor("test", 4, false);
+		List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+		List<Integer> expected = new ArrayList<>();
+
+		for (int i = 0; i < 1000; i++) {
+			final int current = i;
+			expected.add(i);
+			executor.execute(() -> executed.add(current));
+		}
+		executor.shutdown();
+
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(expected, executed);
+		assertEquals(1000, executor.getCompletedTaskCount());
+		assertEquals(1, executor.getThreadsCreated());
+		assertTrue(executor.getMaxQueueDepth() <= 4);
+	}
+
+	@Test
+	public void testBlocksWhenFull() throws InterruptedException {
+		OrderedMessageExecutor executor = new OrderedMessageExecutor("test", 2, false);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(1);
+
+		executor.execute(() -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		started.await();
+		executor.execute(() -> {});
+		executor.execute(() -> {});
+		assertEquals(2, executor.getQueueDepth());
+
+		CountDownLatch submitted = new CountDownLatch(1);
+		Thread producer = new Thread(() -> {
+			try {
+				executor.execute(() -> {});
+				submitted.countDown();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		producer.start();
+
+		assertFalse("Producer must block while the queue is full", submitted.await(200, TimeUnit.MILLISECONDS));
+		release.countDown();
+		assertTrue(submitted.await(10, TimeUnit.SECONDS));
+
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(4, executor.getCompletedTaskCount());
+	}
+
+	@Test
+	public void testFailingTaskKeepsExecuting() throws InterruptedException {
+		OrderedMessageExecutor executor = new OrderedMessageExecutor("test", 4, false);
+		CountDownLatch done = new CountDownLatch(1);
+
+		executor.execute(() -> {
+			throw new IllegalStateException("expected by test");
+		});
+		executor.execute(done::countDown);
+
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		executor.shutdown();
+	}
+
+	@Test
+	public void testVirtualThreadFallback() throws InterruptedException {
+		OrderedMessageExecutor executor = new OrderedMessageExecutor("test", 1, true);
+		CountDownLatch done = new CountDownLatch(1);
+
+		executor.execute(done::countDown);
+
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		executor.shutdown();
+	}
+
+	@Test(expected = RejectedExecutionException.class)
+	public void testRejectedAfterShutdown() throws InterruptedException {
+		OrderedMessageExecutor executor = new OrderedMessageExecutor("test", 1, false);
+		executor.shutdown();
+		executor.execute(() -> {});
+	}
+
+}
@@ -0,0 +1,231 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.persosim.websocket.Frame.Opcode;
+
+public class OutboundQueueTest {
+
+	/**
+	 * Records the number of write and flush calls
+	 */
+	private static class RecordingOutputStream extends ByteArrayOutputStream {
+		int writes = 0;
+		int flushes = 0;
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			writes++;
+			super.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			flushes++;
+		}
+	}
+
+	static List<Frame> decodeFrames(byte[] data) {
+		List<Frame> frames = new ArrayList<>();
+		FrameHeader header = new FrameHeader();
+		int offset = 0;
+		while (offset < data.length) {
+			offset += header.decode(data, offset, data.length - offset);
+			Frame frame = new Frame();
+			header.applyTo(frame);
+			frame.setPayload(data, offset, (int) header.getPayloadLength());
+			offset += (int) header.getPayloadLength();
+			frames.add(frame);
+		}
+		return frames;
+	}
+
+	private static Frame createControlFrame(Opcode opcode) {
+		Frame frame = new Frame();
+		frame.setFin(true);
+		frame.setOpcode(opcode);
+		return frame;
+	}
+
+	@Test
+	public void testPendingFramesWrittenAtOnce() {
+		RecordingOutputStream out = new RecordingOutputStream();
+		OutboundQueue queue = new OutboundQueue(new FrameWriter(out), 1000);
+
+		queue.sendMessage("first");
+		queue.sendMessage("second");
+		queue.sendControl(createControlFrame(Opcode.PONG));
+		queue.start();
+		queue.close();
+
+		assertTrue(queue.isTerminated());
+		assertEquals(1, out.writes);
+		assertEquals(1, out.flushes);
+
+		List<Frame> frames = decodeFrames(out.toByteArray());
+		assertEquals(3, frames.size());
+		assertEquals(Opcode.PONG, frames.get(0).getOpcode());
+		assertEquals("first", frames.get(1).getPayloadAsString(StandardCharsets.UTF_8));
+		assertEquals("second", frames.get(2).getPayloadAsString(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testFragmentation() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutboundQueue queue = new OutboundQueue(new FrameWriter(out), 10);
+
+		queue.sendMessage("0123456789abcdefghijKLMNO");
+		queue.start();
+		queue.close();
+
+		List<Frame> frames = decodeFrames(out.toByteArray());
+		assertEquals(3, frames.size());
+		assertEquals(Opcode.TEXT, frames.get(0).getOpcode());
+		assertEquals(Opcode.CONTINUATION, frames.get(1).getOpcode());
+		assertEquals(Opcode.CONTINUATION, frames.get(2).getOpcode());
+		assertFalse(frames.get(1).getFin());
+		assertTrue(frames.get(2).getFin());
+		assertEquals("KLMNO", frames.get(2).getPayloadAsString(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testLongMessageStreamed() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			builder.append("\u00e4\u20ac").append(i);
+		}
+		String message = builder.toString();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutboundQueue queue = new OutboundQueue(new FrameWriter(out), 1000);
+
+		queue.sendMessage(message);
+		queue.start();
+		queue.close();
+
+		ByteArrayOutputStream joined = new ByteArrayOutputStream();
+		List<Frame> frames = decodeFrames(out.toByteArray());
+		for (int i = 0; i < frames.size(); i++) {
+			assertEquals(i == 0 ? Opcode.TEXT : Opcode.CONTINUATION, frames.get(i).getOpcode());
+			assertEquals(i == frames.size() - 1, frames.get(i).getFin());
+			assertTrue(frames.get(i).getPayloadLength() <= 1000);
+			joined.writeBytes(frames.get(i).getPayload());
+		}
+		assertEquals(message, new String(joined.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testStatusMerged() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutboundQueue queue = new OutboundQueue(new FrameWriter(out), 1000);
+
+		queue.sendStatus("status1");
+		queue.sendMessage("response");
+		queue.sendStatus("status2");
+		queue.sendStatus("status3");
+		queue.start();
+		queue.close();
+
+		List<Frame> frames = decodeFrames(out.toByteArray());
+		assertEquals(2, frames.size());
+		assertEquals("status3", frames.get(0).getPayloadAsString(StandardCharsets.UTF_8));
+		assertEquals("response", frames.get(1).getPayloadAsString(StandardCharsets.UTF_8));
+		assertEquals(2, queue.getMergedStatusMessages());
+	}
+
+	@Test
+	public void testNothingAfterClose() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutboundQueue queue = new OutboundQueue(new FrameWriter(out), 1000);
+
+		queue.sendMessage("discarded");
+		queue.sendControl(createControlFrame(Opcode.CLOSE));
+		queue.start();
+		queue.close();
+
+		List<Frame> frames = decodeFrames(out.toByteArray());
+		assertEquals(1, frames.size());
+		assertEquals(Opcode.CLOSE, frames.get(0).getOpcode());
+	}
+
+	@Test
+	public void testCloseAfterMessages() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutboundQueue queue = new OutboundQueue(new FrameWriter(out), 1000);
+
+		queue.sendMessage("response");
+		queue.sendCloseAfterMessages(createControlFrame(Opcode.CLOSE));
+		queue.sendControl(createControlFrame(Opcode.PING));
+		queue.sendMessage("discarded");
+		queue.start();
+		queue.close();
+
+		List<Frame> frames = decodeFrames(out.toByteArray());
+		assertEquals(3, frames.size());
+		assertEquals(Opcode.PING, frames.get(0).getOpcode());
+		assertEquals("response", frames.get(1).getPayloadAsString(StandardCharsets.UTF_8));
+		assertEquals(Opcode.CLOSE, frames.get(2).getOpcode());
+	}
+
+	@Test
+	public void testConcurrentProducers() throws InterruptedException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutboundQueue queue = new OutboundQueue(new FrameWriter(out), 7);
+		queue.start();
+
+		int producers = 4;
+		int messagesPerProducer = 500;
+		Thread[] threads = new Thread[producers];
+		for (int i = 0; i < producers; i++) {
+			final String prefix = "producer" + i + "-";
+			threads[i] = new Thread(() -> {
+				for (int j = 0; j < messagesPerProducer; j++) {
+					queue.sendMessage(prefix + j);
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		queue.close();
+
+		// reassemble fragments, they must not be interleaved with other messages
+		List<String> received = new ArrayList<>();
+		StringBuilder current = new StringBuilder();
+		for (Frame frame : decodeFrames(out.toByteArray())) {
+			assertEquals(current.length() == 0 ? Opcode.TEXT : Opcode.CONTINUATION, frame.getOpcode());
+			current.append(frame.getPayloadAsString(StandardCharsets.UTF_8));
+			if (frame.getFin()) {
+				received.add(current.toString());
+				current.setLength(0);
+			}
+		}
+
+		assertEquals(producers * messagesPerProducer, received.size());
+		for (int i = 0; i < producers; i++) {
+			int expected = 0;
+			for (String message : received) {
+				if (message.startsWith("producer" + i + "-")) {
+					assertEquals("producer" + i + "-" + expected++, message);
+				}
+			}
+			assertEquals(messagesPerProducer, expected);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDataFrameAsControl() {
+		new OutboundQueue(new FrameWriter(new ByteArrayOutputStream()), 1000).sendControl(createControlFrame(Opcode.TEXT));
+	}
+
+}
@@ -0,0 +1,50 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.security.cert.Certificate;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import de.persosim.simulator.utils.HexString;
+
+public class PairedCertificateIndexTest {
+
+	private static Certificate getCertificate() {
+		return new KeystoreRemoteIfdConfigManager(new ByteArrayInputStream(HexString.toByteArray(Application.KEYSTORE)), Application.STOREPASSWORD.toCharArray(),
+				Application.KEYPASSWORD.toCharArray()).getHostCertificate();
+	}
+
+	@Test
+	public void testContains() {
+		Certificate certificate = getCertificate();
+		PairedCertificateIndex index = new PairedCertificateIndex(Collections.singleton(certificate));
+
+		assertTrue(index.contains(certificate));
+		// a separately parsed copy has the same fingerprint
+		assertTrue(index.contains(getCertificate()));
+		assertTrue(index.containsFingerprint(PairedCertificateIndex.getFingerprint(certificate)));
+		assertEquals(32, PairedCertificateIndex.getFingerprint(certificate).length);
+	}
+
+	@Test
+	public void testAddRemove() {
+		Certificate certificate = getCertificate();
+		PairedCertificateIndex index = new PairedCertificateIndex(Collections.emptyList());
+		assertFalse(index.contains(certificate));
+
+		index.add(certificate);
+		index.add(certificate);
+		assertTrue(index.contains(certificate));
+		assertEquals(1, index.size());
+
+		index.remove(certificate);
+		assertFalse(index.contains(certificate));
+		assertEquals(0, index.size());
+	}
+
+}
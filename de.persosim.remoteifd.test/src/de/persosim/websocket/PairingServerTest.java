@@ -0,0 +1,62 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.bouncycastle.tls.CipherSuite;
+import org.bouncycastle.tls.TlsClientProtocol;
+import org.junit.Test;
+
+public class PairingServerTest {
+
+	/**
+	 * Pairs over loopback with a client offering the given cipher suites
+	 *
+	 * @return the negotiated cipher suite
+	 */
+	private static int pair(int... offeredCipherSuites) throws Exception {
+		RemoteIfdConfigManager config = BenchmarkSupport.createConfig(HostKeyType.RSA);
+		try (ServerSocket serverSocket = new ServerSocket(0); Socket clientSocket = new Socket("localhost", serverSocket.getLocalPort()); Socket serverSide = serverSocket.accept()) {
+			PairingServer pairingServer = new PairingServer(BenchmarkSupport.PAIRING_CODE, config, new HostCredentials(config), serverSide);
+			boolean[] result = new boolean[1];
+			Thread serverThread = new Thread(() -> result[0] = pairingServer.performHandshake());
+			serverThread.start();
+
+			BenchmarkSupport.PairingClient client = new BenchmarkSupport.PairingClient(new HostCredentials(config), offeredCipherSuites);
+			TlsClientProtocol protocol = new TlsClientProtocol(clientSocket.getInputStream(), clientSocket.getOutputStream());
+			protocol.connect(client);
+			serverThread.join();
+			assertTrue(result[0]);
+			protocol.close();
+			return client.negotiatedCipherSuite;
+		}
+	}
+
+	@Test
+	public void testGcmPreferred() throws Exception {
+		assertEquals(CipherSuite.TLS_RSA_PSK_WITH_AES_256_GCM_SHA384,
+				pair(CipherSuite.TLS_RSA_PSK_WITH_AES_256_CBC_SHA, CipherSuite.TLS_RSA_PSK_WITH_AES_128_GCM_SHA256, CipherSuite.TLS_RSA_PSK_WITH_AES_256_GCM_SHA384));
+	}
+
+	@Test
+	public void testCbcFallback() throws Exception {
+		assertEquals(CipherSuite.TLS_RSA_PSK_WITH_AES_256_CBC_SHA, pair(CipherSuite.TLS_RSA_PSK_WITH_AES_256_CBC_SHA));
+	}
+
+	@Test
+	public void testEcHostKeyRefused() throws Exception {
+		RemoteIfdConfigManager config = BenchmarkSupport.createConfig(HostKeyType.EC);
+		try (ServerSocket serverSocket = new ServerSocket(0); Socket clientSocket = new Socket("localhost", serverSocket.getLocalPort()); Socket serverSide = serverSocket.accept()) {
+			PairingServer pairingServer = new PairingServer(BenchmarkSupport.PAIRING_CODE, config, new HostCredentials(config), serverSide);
+
+			// fails without waiting for the client hello
+			assertFalse(pairingServer.performHandshake());
+			assertEquals(0, clientSocket.getInputStream().available());
+		}
+	}
+
+}
@@ -0,0 +1,214 @@
+package de.persosim.websocket;
+
+import java.io.DataInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import de.persosim.simulator.utils.HexString;
+import de.persosim.websocket.Frame.Opcode;
+
+/**
+ * Replays the messages of an eID session over a throttled loopback link with
+ * and without permessage-deflate. Reports the bytes on the wire and the round
+ * trip time per request.
+ * <p>
+ * The session is modeled after a recorded AusweisApp session: context
+ * establishment, status, PACE and a series of secure messaging APDUs. The
+ * secure messaging data is random as it is encrypted on the real link.
+ * <p>
+ * Usage: PerMessageDeflateBenchmark [bytes per second]
+ */
+public class PerMessageDeflateBenchmark {
+
+	private static final int DEFAULT_BYTES_PER_SECOND = 32 * 1024;
+
+	private static final String RESULT_OK = "\"ResultMajor\":\"http://www.bsi.bund.de/ecard/api/1.1/resultmajor#ok\",\"ResultMinor\":null";
+	private static final String HANDLES = "\"ContextHandle\":\"PersoSimContextHandle\",\"SlotHandle\":\"PersoSim\"";
+
+	/**
+	 * Limits the data rate of the wrapped stream and counts the written bytes
+	 */
+	private static class ThrottledOutputStream extends FilterOutputStream {
+		private int bytesPerSecond;
+		private long nextFree = System.nanoTime();
+		long written = 0;
+
+		ThrottledOutputStream(OutputStream out, int bytesPerSecond) {
+			super(out);
+			this.bytesPerSecond = bytesPerSecond;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			nextFree = Math.max(System.nanoTime(), nextFree) + TimeUnit.SECONDS.toNanos(len) / bytesPerSecond;
+			long delay = nextFree - System.nanoTime();
+			if (delay > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(delay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			out.write(b, off, len);
+			out.flush();
+			written += len;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+	}
+
+	/**
+	 * One side of the connection sending and receiving complete messages
+	 */
+	private static class Endpoint {
+		private DataInputStream in;
+		private ThrottledOutputStream out;
+		private FrameWriter frameWriter;
+		private PerMessageDeflate deflate;
+		private byte[] headerBuffer = new byte[FrameHeader.MAX_LENGTH];
+		private FrameHeader header = new FrameHeader();
+
+		Endpoint(Socket socket, int bytesPerSecond, PerMessageDeflate deflate) throws IOException {
+			this.in = new DataInputStream(socket.getInputStream());
+			this.out = new ThrottledOutputStream(socket.getOutputStream(), bytesPerSecond);
+			this.frameWriter = new FrameWriter(out);
+			this.deflate = deflate;
+		}
+
+		void send(String message) throws IOException {
+			byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+			boolean compressed = deflate != null && deflate.shouldCompress(payload.length);
+			Frame frame = new Frame();
+			frame.setFin(true);
+			frame.setOpcode(Opcode.TEXT);
+			frame.setRSV1(compressed);
+			frame.setPayload(compressed ? deflate.compress(payload) : payload);
+			frameWriter.write(frame);
+		}
+
+		String receive() throws IOException {
+			in.readFully(headerBuffer, 0, FrameHeader.MIN_LENGTH);
+			int headerLength = FrameHeader.getEncodedLength(headerBuffer[1]);
+			in.readFully(headerBuffer, FrameHeader.MIN_LENGTH, headerLength - FrameHeader.MIN_LENGTH);
+			header.decode(headerBuffer, 0, headerLength);
+			byte[] payload = new byte[(int) header.getPayloadLength()];
+			in.readFully(payload);
+			if (header.getRSV1()) {
+				payload = deflate.decompress(ByteBuffer.wrap(payload));
+			}
+			return new String(payload, StandardCharsets.UTF_8);
+		}
+	}
+
+	private static String transmit(String apdu) {
+		return "{\"msg\":\"IFDTransmit\"," + HANDLES + ",\"CommandAPDUs\":[{\"InputAPDU\":\"" + apdu + "\",\"AcceptableStatusCodes\":null}]}";
+	}
+
+	private static String transmitResponse(String apdu) {
+		return "{\"msg\":\"IFDTransmitResponse\"," + HANDLES + "," + RESULT_OK + ",\"ResponseAPDUs\":[\"" + apdu + "\"]}";
+	}
+
+	private static String randomHex(Random random, int length) {
+		byte[] data = new byte[length];
+		random.nextBytes(data);
+		return HexString.encode(data);
+	}
+
+	/**
+	 * @return pairs of request and response messages
+	 */
+	static List<String[]> createSession() {
+		Random random = new Random(42);
+		List<String[]> session = new ArrayList<>();
+
+		session.add(new String[] { "{\"msg\":\"IFDEstablishContext\",\"Protocol\":\"IFDInterface_WebSocket_v2\",\"UDName\":\"AusweisApp\"}",
+				"{\"msg\":\"IFDEstablishContextResponse\",\"ContextHandle\":\"PersoSimContextHandle\",\"IFDName\":\"PersoSim\"," + RESULT_OK + "}" });
+		session.add(new String[] { "{\"msg\":\"IFDGetStatus\",\"ContextHandle\":\"PersoSimContextHandle\",\"SlotName\":\"PersoSim\"}",
+				"{\"msg\":\"IFDStatus\",\"ContextHandle\":\"PersoSimContextHandle\",\"SlotName\":\"PersoSim\",\"PINCapabilities\":{\"Destroy\":false,\"PACE\":true,\"eID\":false,\"eSign\":false},"
+						+ "\"MaxAPDULength\":32767,\"ConnectedReader\":true,\"CardAvailable\":true,\"EFATR\":null,\"EFDIR\":null}" });
+		session.add(new String[] { "{\"msg\":\"IFDConnect\",\"ContextHandle\":\"PersoSimContextHandle\",\"SlotName\":\"PersoSim\",\"exclusive\":false}",
+				"{\"msg\":\"IFDConnectResponse\"," + HANDLES + "," + RESULT_OK + "}" });
+		session.add(new String[] { transmit("00A4020C02011C"), transmitResponse("9000") });
+		session.add(new String[] { transmit("00B0000000"), transmitResponse(randomHex(random, 200) + "9000") });
+		session.add(new String[] {
+				"{\"msg\":\"IFDEstablishPACEChannel\"," + HANDLES + ",\"InputData\":\"" + randomHex(random, 700) + "\",\"PreferredPinLength\":6}",
+				"{\"msg\":\"IFDEstablishPACEChannelResponse\"," + HANDLES + "," + RESULT_OK + ",\"OutputData\":\"" + randomHex(random, 400) + "\"}" });
+
+		// terminal and chip authentication, reading of data groups with secure messaging
+		for (int i = 0; i < 40; i++) {
+			session.add(new String[] { transmit("0CB0000" + (i % 10) + "0E" + randomHex(random, 16 + random.nextInt(200)) + "00"),
+					transmitResponse(randomHex(random, 32 + random.nextInt(300)) + "9000") });
+		}
+
+		session.add(new String[] { "{\"msg\":\"IFDDisconnect\"," + HANDLES + "}", "{\"msg\":\"IFDDisconnectResponse\"," + HANDLES + "," + RESULT_OK + "}" });
+		return session;
+	}
+
+	private static void run(List<String[]> session, boolean compress, int bytesPerSecond) throws Exception {
+		PerMessageDeflate preferences = new PerMessageDeflate(false, false, PerMessageDeflate.MAX_WINDOW_BITS);
+
+		try (ServerSocket serverSocket = new ServerSocket(0); Socket clientSocket = new Socket("localhost", serverSocket.getLocalPort()); Socket serverSide = serverSocket.accept()) {
+			clientSocket.setTcpNoDelay(true);
+			serverSide.setTcpNoDelay(true);
+
+			Endpoint client = new Endpoint(clientSocket, bytesPerSecond, compress ? preferences.negotiate(PerMessageDeflate.EXTENSION_NAME) : null);
+			Endpoint server = new Endpoint(serverSide, bytesPerSecond, compress ? preferences.negotiate(PerMessageDeflate.EXTENSION_NAME) : null);
+
+			Thread serverThread = new Thread(() -> {
+				try {
+					for (String[] exchange : session) {
+						server.receive();
+						server.send(exchange[1]);
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			});
+			serverThread.start();
+
+			long[] roundTrips = new long[session.size()];
+			int uncompressed = 0;
+			for (int i = 0; i < session.size(); i++) {
+				String[] exchange = session.get(i);
+				long start = System.nanoTime();
+				client.send(exchange[0]);
+				String response = client.receive();
+				roundTrips[i] = System.nanoTime() - start;
+
+				if (!response.equals(exchange[1])) {
+					throw new IllegalStateException("Response does not match");
+				}
+				uncompressed += exchange[0].length() + exchange[1].length();
+			}
+			serverThread.join();
+
+			System.out.println(String.format("%-12s %7d bytes payload, %7d bytes on wire (%5d up, %6d down), round trip %s", compress ? "compressed" : "plain",
+					uncompressed, client.out.written + server.out.written, client.out.written, server.out.written, BenchmarkSupport.summarizeMillis(roundTrips)));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int bytesPerSecond = BenchmarkSupport.intArgument(args, 0, DEFAULT_BYTES_PER_SECOND);
+		List<String[]> session = createSession();
+
+		System.out.println("Replaying " + session.size() + " exchanges at " + bytesPerSecond + " bytes/s per direction");
+		for (int round = 0; round < 3; round++) {
+			run(session, false, bytesPerSecond);
+			run(session, true, bytesPerSecond);
+		}
+	}
+
+}
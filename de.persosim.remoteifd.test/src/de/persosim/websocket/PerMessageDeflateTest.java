@@ -0,0 +1,165 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.persosim.websocket.Frame.Opcode;
+
+public class PerMessageDeflateTest {
+
+	private static final String TRANSMIT = "{\"msg\":\"IFDTransmitResponse\",\"ContextHandle\":\"PersoSimContextHandle\",\"SlotHandle\":\"PersoSim\","
+			+ "\"ResultMajor\":\"http://www.bsi.bund.de/ecard/api/1.1/resultmajor#ok\",\"ResultMinor\":null,\"ResponseAPDUs\":[\"%s9000\"]}";
+
+	private static PerMessageDeflate getDefaultPreferences() {
+		return new PerMessageDeflate(false, false, PerMessageDeflate.MAX_WINDOW_BITS);
+	}
+
+	@Test
+	public void testNoOffer() {
+		assertNull(getDefaultPreferences().negotiate(null));
+		assertNull(getDefaultPreferences().negotiate("x-webkit-deflate-frame"));
+	}
+
+	@Test
+	public void testPlainOffer() {
+		PerMessageDeflate negotiated = getDefaultPreferences().negotiate("permessage-deflate");
+		assertNotNull(negotiated);
+		assertEquals("permessage-deflate", negotiated.getResponseHeaderValue());
+	}
+
+	@Test
+	public void testBrowserOffer() {
+		PerMessageDeflate negotiated = new PerMessageDeflate(true, false, 10).negotiate("permessage-deflate; client_max_window_bits");
+		assertNotNull(negotiated);
+		assertTrue(negotiated.isServerNoContextTakeover());
+		assertEquals(10, negotiated.getClientMaxWindowBits());
+		assertEquals("permessage-deflate; server_no_context_takeover; client_max_window_bits=10", negotiated.getResponseHeaderValue());
+	}
+
+	@Test
+	public void testClientWindowNotLimitedWithoutOffer() {
+		PerMessageDeflate negotiated = new PerMessageDeflate(false, true, 9).negotiate("permessage-deflate");
+		assertEquals(PerMessageDeflate.MAX_WINDOW_BITS, negotiated.getClientMaxWindowBits());
+		assertEquals("permessage-deflate; client_no_context_takeover", negotiated.getResponseHeaderValue());
+	}
+
+	@Test
+	public void testSmallServerWindowDeclined() {
+		assertNull(getDefaultPreferences().negotiate("permessage-deflate; server_max_window_bits=10"));
+
+		PerMessageDeflate negotiated = getDefaultPreferences().negotiate("permessage-deflate; server_max_window_bits=10, permessage-deflate");
+		assertEquals("permessage-deflate", negotiated.getResponseHeaderValue());
+	}
+
+	@Test
+	public void testInvalidOffers() {
+		assertNull(getDefaultPreferences().negotiate("permessage-deflate; unknown"));
+		assertNull(getDefaultPreferences().negotiate("permessage-deflate; server_no_context_takeover; server_no_context_takeover"));
+		assertNull(getDefaultPreferences().negotiate("permessage-deflate; client_max_window_bits=16"));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCompressWithoutNegotiation() {
+		getDefaultPreferences().compress(new byte[10]);
+	}
+
+	/**
+	 * @return the ratio of uncompressed to compressed length
+	 */
+	@Test
+	public void testDecompressionLimit() throws IOException {
+		PerMessageDeflate sender = getDefaultPreferences().negotiate("permessage-deflate");
+		PerMessageDeflate receiver = getDefaultPreferences().negotiate("permessage-deflate");
+		byte[] compressed = sender.compress(new byte[100000]);
+
+		try {
+			receiver.decompress(ByteBuffer.wrap(compressed), 99999);
+			fail("Decompression limit not enforced");
+		} catch (WebSocketProtocolException e) {
+			assertEquals(WebSocketProtocol.CLOSE_MESSAGE_TOO_BIG, e.getCloseCode());
+		}
+	}
+
+	private static double testRoundTrip(PerMessageDeflate sender, PerMessageDeflate receiver) throws IOException {
+		int compressedLength = 0;
+		int uncompressedLength = 0;
+		for (int i = 0; i < 20; i++) {
+			byte[] message = String.format(TRANSMIT, "0102030405060708090A0B0C0D0E0F".substring(0, i % 30)).getBytes(StandardCharsets.UTF_8);
+			byte[] compressed = sender.compress(message);
+			assertArrayEquals(message, receiver.decompress(ByteBuffer.wrap(compressed)));
+			compressedLength += compressed.length;
+			uncompressedLength += message.length;
+		}
+		return (double) uncompressedLength / compressedLength;
+	}
+
+	@Test
+	public void testContextTakeover() throws IOException {
+		double ratio = testRoundTrip(getDefaultPreferences().negotiate("permessage-deflate"), getDefaultPreferences().negotiate("permessage-deflate"));
+		assertTrue("Repetitive messages must compress well, ratio " + ratio, ratio > 3);
+	}
+
+	@Test
+	public void testNoContextTakeover() throws IOException {
+		PerMessageDeflate preferences = new PerMessageDeflate(true, true, PerMessageDeflate.MAX_WINDOW_BITS);
+		double ratio = testRoundTrip(preferences.negotiate("permessage-deflate"), preferences.negotiate("permessage-deflate"));
+		assertTrue("Messages must compress without shared context, ratio " + ratio, ratio > 1);
+	}
+
+	@Test
+	public void testRfcExample() throws IOException {
+		// "Hello" compressed, see RFC7692 7.2.3.1
+		byte[] compressed = new byte[] { (byte) 0xf2, 0x48, (byte) 0xcd, (byte) 0xc9, (byte) 0xc9, 0x07, 0x00 };
+		PerMessageDeflate negotiated = getDefaultPreferences().negotiate("permessage-deflate");
+		assertEquals("Hello", new String(negotiated.decompress(ByteBuffer.wrap(compressed)), StandardCharsets.US_ASCII));
+	}
+
+	@Test(expected = IOException.class)
+	public void testInvalidData() throws IOException {
+		getDefaultPreferences().negotiate("permessage-deflate").decompress(ByteBuffer.wrap(new byte[] { (byte) 0xff, (byte) 0xff, 0x12 }));
+	}
+
+	@Test
+	public void testOutboundQueueCompresses() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutboundQueue queue = new OutboundQueue(new FrameWriter(out), 16);
+		queue.setPerMessageDeflate(getDefaultPreferences().negotiate("permessage-deflate"));
+
+		String message = String.format(TRANSMIT, "00A4040C");
+		queue.sendMessage(message);
+		queue.sendMessage("short");
+		queue.start();
+		queue.close();
+
+		List<Frame> frames = OutboundQueueTest.decodeFrames(out.toByteArray());
+		assertTrue(frames.get(0).getRSV1());
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		int i = 0;
+		for (; !frames.get(i).getFin(); i++) {
+			assertFalse(i > 0 && frames.get(i).getRSV1());
+			compressed.writeBytes(frames.get(i).getPayload());
+		}
+		compressed.writeBytes(frames.get(i).getPayload());
+
+		PerMessageDeflate receiver = getDefaultPreferences().negotiate("permessage-deflate");
+		assertArrayEquals(message.getBytes(StandardCharsets.UTF_8), receiver.decompress(ByteBuffer.wrap(compressed.toByteArray())));
+
+		Frame shortMessage = frames.get(i + 1);
+		assertEquals(Opcode.TEXT, shortMessage.getOpcode());
+		assertFalse("Short messages are sent uncompressed", shortMessage.getRSV1());
+	}
+
+}
@@ -0,0 +1,115 @@
+package de.persosim.websocket;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.security.interfaces.RSAPrivateKey;
+
+import org.bouncycastle.crypto.engines.RSABlindedEngine;
+import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithRandom;
+import org.bouncycastle.tls.CipherSuite;
+import org.bouncycastle.tls.ProtocolVersion;
+
+import de.persosim.simulator.utils.HexString;
+
+/**
+ * Compares the host key converted to plain RSA key parameters with the CRT
+ * key parameters, both for the raw blinded private key operation and for
+ * complete handshakes of a {@link DefaultHandshaker} over loopback.
+ * <p>
+ * Usage: RsaCrtBenchmark [operations]
+ */
+public class RsaCrtBenchmark {
+
+	private static final int DEFAULT_OPERATIONS = 200;
+
+	/**
+	 * Hides the CRT factors of the host key, as the converter previously did
+	 */
+	private static class PlainKeyConfigManager extends KeystoreRemoteIfdConfigManager {
+
+		PlainKeyConfigManager() {
+			super(new ByteArrayInputStream(HexString.toByteArray(Application.KEYSTORE)), Application.STOREPASSWORD.toCharArray(),
+					Application.KEYPASSWORD.toCharArray());
+		}
+
+		@Override
+		public RSAPrivateKey getHostKey() {
+			RSAPrivateKey key = (RSAPrivateKey) super.getHostKey();
+			return new RSAPrivateKey() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public BigInteger getModulus() {
+					return key.getModulus();
+				}
+
+				@Override
+				public BigInteger getPrivateExponent() {
+					return key.getPrivateExponent();
+				}
+
+				@Override
+				public String getAlgorithm() {
+					return key.getAlgorithm();
+				}
+
+				@Override
+				public String getFormat() {
+					return null;
+				}
+
+				@Override
+				public byte[] getEncoded() {
+					return null;
+				}
+			};
+		}
+	}
+
+	private static void privateKeyOperations(String name, RemoteIfdConfigManager config, int operations) {
+		AsymmetricKeyParameter key = CertificateConverter.fromJavaKeyToBcAsymetricKeyParameter(config.getHostKey());
+		RSABlindedEngine engine = new RSABlindedEngine();
+		engine.init(true, new ParametersWithRandom(key, new SecureRandom()));
+		byte[] input = new byte[engine.getInputBlockSize()];
+		new SecureRandom().nextBytes(input);
+
+		long[] durations = new long[operations];
+		for (int i = 0; i < operations; i++) {
+			long start = System.nanoTime();
+			engine.processBlock(input, 0, input.length);
+			durations[i] = System.nanoTime() - start;
+		}
+		System.out.println(String.format("%-6s %-22s median %6.2f ms", name, "private key operation", BenchmarkSupport.medianMillis(durations)));
+	}
+
+	/**
+	 * @param clientConfig
+	 *            provides the client credentials, the same for both runs so
+	 *            that only the server side differs
+	 */
+	private static void handshakes(String name, RemoteIfdConfigManager config, RemoteIfdConfigManager clientConfig, int connections) throws Exception {
+		HostCredentials credentials = new HostCredentials(config);
+		HostCredentials clientCredentials = new HostCredentials(clientConfig);
+
+		long[] durations = BenchmarkSupport.handshakes(connections, serverSide -> new DefaultHandshaker(config, credentials, serverSide, null),
+				() -> new BenchmarkSupport.SuiteClient(clientCredentials, ProtocolVersion.TLSv12, CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256), null);
+		System.out.println(String.format("%-6s %-22s median %6.2f ms", name, "full handshake", BenchmarkSupport.medianMillis(durations)));
+	}
+
+	public static void main(String[] args) throws Exception {
+		int operations = BenchmarkSupport.intArgument(args, 0, DEFAULT_OPERATIONS);
+		RemoteIfdConfigManager crtConfig = BenchmarkSupport.createConfig(HostKeyType.RSA);
+		RemoteIfdConfigManager plainConfig = new PlainKeyConfigManager();
+
+		System.out.println(operations + " operations per run");
+		for (int round = 0; round < 3; round++) {
+			privateKeyOperations("plain", plainConfig, operations);
+			privateKeyOperations("CRT", crtConfig, operations);
+			handshakes("plain", plainConfig, crtConfig, operations);
+			handshakes("CRT", crtConfig, crtConfig, operations);
+		}
+	}
+
+}
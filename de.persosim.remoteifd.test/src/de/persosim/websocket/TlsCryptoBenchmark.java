@@ -0,0 +1,62 @@
+package de.persosim.websocket;
+
+import java.security.SecureRandom;
+import java.util.Collections;
+
+import org.bouncycastle.tls.CipherSuite;
+import org.bouncycastle.tls.ProtocolVersion;
+
+/**
+ * Measures the throughput through the TLS stream of a
+ * {@link DefaultHandshaker} and of a {@link PairingServer} for both
+ * {@link TlsCryptoBackend}s. The {@link DefaultHandshaker} is measured with a
+ * selection of the cipher suites the AusweisApp offers, the
+ * {@link PairingServer} with each {@link PairingCipherSuite}. Client and
+ * server use the same backend.
+ * <p>
+ * Usage: TlsCryptoBenchmark [megabytes]
+ */
+public class TlsCryptoBenchmark {
+
+	private static final int DEFAULT_MEGABYTES = 64;
+
+	private static final int[] CIPHER_SUITES = { CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256, CipherSuite.TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384,
+			CipherSuite.TLS_ECDHE_RSA_WITH_AES_256_CBC_SHA384, CipherSuite.TLS_ECDHE_RSA_WITH_AES_256_CBC_SHA };
+	private static final String[] CIPHER_SUITE_NAMES = { "ECDHE_RSA_WITH_AES_128_GCM_SHA256", "ECDHE_RSA_WITH_AES_256_GCM_SHA384", "ECDHE_RSA_WITH_AES_256_CBC_SHA384",
+			"ECDHE_RSA_WITH_AES_256_CBC_SHA" };
+
+	private static void print(TlsCryptoBackend backend, Object cipherSuite, double throughput) {
+		System.out.println(String.format("%-4s %-34s %8.1f MB/s", backend, cipherSuite, throughput));
+	}
+
+	public static void main(String[] args) throws Exception {
+		int megabytes = BenchmarkSupport.intArgument(args, 0, DEFAULT_MEGABYTES);
+		RemoteIfdConfigManager config = BenchmarkSupport.createConfig(HostKeyType.RSA);
+
+		System.out.println(megabytes + " MB per run");
+		for (int round = 0; round < 2; round++) {
+			for (int i = 0; i < CIPHER_SUITES.length; i++) {
+				for (TlsCryptoBackend backend : TlsCryptoBackend.values()) {
+					HostCredentials serverCredentials = new HostCredentials(config, backend.create(new SecureRandom()));
+					HostCredentials clientCredentials = new HostCredentials(config, backend.create(new SecureRandom()));
+					double throughput = BenchmarkSupport.throughput(serverSide -> new DefaultHandshaker(config, serverCredentials, serverSide, null),
+							new BenchmarkSupport.SuiteClient(clientCredentials, ProtocolVersion.TLSv12, CIPHER_SUITES[i]), megabytes);
+					print(backend, CIPHER_SUITE_NAMES[i], throughput);
+				}
+			}
+			for (PairingCipherSuite cipherSuite : PairingCipherSuite.values()) {
+				for (TlsCryptoBackend backend : TlsCryptoBackend.values()) {
+					HostCredentials serverCredentials = new HostCredentials(config, backend.create(new SecureRandom()));
+					HostCredentials clientCredentials = new HostCredentials(config, backend.create(new SecureRandom()));
+					double throughput = BenchmarkSupport.throughput(serverSide -> {
+						PairingServer pairingServer = new PairingServer(BenchmarkSupport.PAIRING_CODE, config, serverCredentials, serverSide);
+						pairingServer.setCipherSuites(Collections.singletonList(cipherSuite));
+						return pairingServer;
+					}, new BenchmarkSupport.PairingClient(clientCredentials, cipherSuite.getCipherSuite()), megabytes);
+					print(backend, "pairing " + cipherSuite, throughput);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,53 @@
+package de.persosim.websocket;
+
+import java.lang.management.ManagementFactory;
+
+import org.bouncycastle.tls.CipherSuite;
+import org.bouncycastle.tls.ProtocolVersion;
+
+/**
+ * Measures the CPU time a {@link DefaultHandshaker} spends on full
+ * handshakes over loopback, for RSA and EC host keys and a selection of TLS
+ * 1.2 and TLS 1.3 cipher suites. The client uses the same key type as the
+ * host.
+ * <p>
+ * Usage: TlsHandshakeBenchmark [connections]
+ */
+public class TlsHandshakeBenchmark {
+
+	private static final int DEFAULT_CONNECTIONS = 200;
+
+	private static void run(RemoteIfdConfigManager config, String keyName, ProtocolVersion version, int cipherSuite, String suiteName, int connections) throws Exception {
+		HostCredentials credentials = new HostCredentials(config);
+		HostCredentials clientCredentials = new HostCredentials(config);
+		long[] cpuTimes = new long[connections];
+
+		long[] durations = BenchmarkSupport.handshakes(connections, serverSide -> {
+			DefaultHandshaker handshaker = new DefaultHandshaker(config, credentials, serverSide, null);
+			handshaker.setTls13Enabled(true);
+			return handshaker;
+		}, () -> new BenchmarkSupport.SuiteClient(clientCredentials, version, cipherSuite), cpuTimes);
+		System.out.println(String.format("%-4s %-7s %-38s server CPU median %6.2f ms, handshake median %6.2f ms", keyName, version, suiteName,
+				BenchmarkSupport.medianMillis(cpuTimes), BenchmarkSupport.medianMillis(durations)));
+	}
+
+	public static void main(String[] args) throws Exception {
+		int connections = BenchmarkSupport.intArgument(args, 0, DEFAULT_CONNECTIONS);
+		if (!ManagementFactory.getThreadMXBean().isCurrentThreadCpuTimeSupported()) {
+			throw new IllegalStateException("Thread CPU time is not supported by this JVM");
+		}
+		RemoteIfdConfigManager rsa = BenchmarkSupport.createConfig(HostKeyType.RSA);
+		RemoteIfdConfigManager ec = BenchmarkSupport.createConfig(HostKeyType.EC);
+
+		System.out.println(connections + " connections per run");
+		for (int round = 0; round < 2; round++) {
+			run(rsa, "RSA", ProtocolVersion.TLSv12, CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256, "ECDHE_RSA_WITH_AES_128_GCM_SHA256", connections);
+			run(rsa, "RSA", ProtocolVersion.TLSv12, CipherSuite.TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384, "ECDHE_RSA_WITH_AES_256_GCM_SHA384", connections);
+			run(rsa, "RSA", ProtocolVersion.TLSv13, CipherSuite.TLS_AES_128_GCM_SHA256, "AES_128_GCM_SHA256", connections);
+			run(ec, "EC", ProtocolVersion.TLSv12, CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256, "ECDHE_ECDSA_WITH_AES_128_GCM_SHA256", connections);
+			run(ec, "EC", ProtocolVersion.TLSv12, CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384, "ECDHE_ECDSA_WITH_AES_256_GCM_SHA384", connections);
+			run(ec, "EC", ProtocolVersion.TLSv13, CipherSuite.TLS_AES_128_GCM_SHA256, "AES_128_GCM_SHA256", connections);
+		}
+	}
+
+}
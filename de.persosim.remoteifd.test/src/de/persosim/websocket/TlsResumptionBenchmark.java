@@ -0,0 +1,41 @@
+package de.persosim.websocket;
+
+import org.bouncycastle.tls.CipherSuite;
+import org.bouncycastle.tls.ProtocolVersion;
+
+/**
+ * Connects repeatedly to a {@link DefaultHandshaker} over loopback, once
+ * without and once with a {@link TlsSessionCache}. The client offers the
+ * session of its previous connection like the AusweisApp does when it
+ * reconnects. Reports the handshake latency and the resumption hit rate.
+ * <p>
+ * Usage: TlsResumptionBenchmark [connections]
+ */
+public class TlsResumptionBenchmark {
+
+	private static final int DEFAULT_CONNECTIONS = 200;
+
+	private static void run(RemoteIfdConfigManager config, TlsSessionCache cache, int connections) throws Exception {
+		// uses the paired test certificate
+		BenchmarkSupport.ResumingClient client = new BenchmarkSupport.ResumingClient(config, ProtocolVersion.TLSv12, CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256);
+		HostCredentials credentials = new HostCredentials(config);
+
+		long[] durations = BenchmarkSupport.handshakes(connections, serverSide -> new DefaultHandshaker(config, credentials, serverSide, cache), () -> client, null);
+		System.out.println(String.format("%-16s handshake %s", cache != null ? "with resumption" : "full handshakes", BenchmarkSupport.summarizeMillis(durations)));
+		if (cache != null) {
+			System.out.println("                 " + cache.getStatistics());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int connections = BenchmarkSupport.intArgument(args, 0, DEFAULT_CONNECTIONS);
+		RemoteIfdConfigManager config = BenchmarkSupport.createConfig(HostKeyType.RSA);
+
+		System.out.println(connections + " connections per run");
+		for (int round = 0; round < 3; round++) {
+			run(config, null, connections);
+			run(config, new TlsSessionCache(TlsSessionCache.DEFAULT_MAX_SIZE, TlsSessionCache.DEFAULT_LIFETIME_MILLIS), connections);
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.bouncycastle.tls.SessionParameters;
+import org.bouncycastle.tls.TlsSession;
+import org.junit.Test;
+
+public class TlsSessionCacheTest {
+
+	/**
+	 * Minimal session only providing ID and resumable state
+	 */
+	private static class TestSession implements TlsSession {
+		private byte[] sessionId;
+		private boolean resumable = true;
+
+		TestSession(byte[] sessionId) {
+			this.sessionId = sessionId;
+		}
+
+		@Override
+		public SessionParameters exportSessionParameters() {
+			return null;
+		}
+
+		@Override
+		public byte[] getSessionID() {
+			return sessionId;
+		}
+
+		@Override
+		public void invalidate() {
+			resumable = false;
+		}
+
+		@Override
+		public boolean isResumable() {
+			return resumable;
+		}
+	}
+
+	private static TestSession put(TlsSessionCache cache) {
+		TestSession session = new TestSession(cache.createSessionID());
+		cache.put(session, null, null, null);
+		return session;
+	}
+
+	@Test
+	public void testResume() {
+		TlsSessionCache cache = new TlsSessionCache(4, 60000);
+		TestSession session = put(cache);
+
+		TlsSessionCache.Entry entry = cache.get(session.getSessionID().clone(), e -> true);
+		assertNotNull(entry);
+		assertSame(session, entry.getSession());
+		assertNull(cache.get(cache.createSessionID(), e -> true));
+		assertEquals(0.5, cache.getHitRate(), 0);
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEvicted() {
+		TlsSessionCache cache = new TlsSessionCache(2, 60000);
+		TestSession first = put(cache);
+		TestSession second = put(cache);
+
+		// use the first session so that the second one is evicted
+		assertNotNull(cache.get(first.getSessionID(), e -> true));
+		put(cache);
+
+		assertEquals(2, cache.size());
+		assertFalse(second.isResumable());
+		assertNull(cache.get(second.getSessionID(), e -> true));
+		assertNotNull(cache.get(first.getSessionID(), e -> true));
+	}
+
+	@Test
+	public void testExpired() throws InterruptedException {
+		TlsSessionCache cache = new TlsSessionCache(4, 1);
+		TestSession session = put(cache);
+		Thread.sleep(5);
+
+		assertNull(cache.get(session.getSessionID(), e -> true));
+		assertFalse(session.isResumable());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testRejectedSessionRemoved() {
+		TlsSessionCache cache = new TlsSessionCache(4, 60000);
+		TestSession session = put(cache);
+
+		assertNull(cache.get(session.getSessionID(), e -> false));
+		assertFalse(session.isResumable());
+		assertEquals(0, cache.size());
+		assertEquals(0.0, cache.getHitRate(), 0);
+	}
+
+	@Test
+	public void testNonResumableIgnored() {
+		TlsSessionCache cache = new TlsSessionCache(4, 60000);
+		TestSession session = new TestSession(cache.createSessionID());
+		session.invalidate();
+		cache.put(session, null, null, null);
+		cache.put(new TestSession(new byte[0]), null, null, null);
+
+		assertEquals(0, cache.size());
+		assertTrue(cache.createSessionID().length > 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidSize() {
+		new TlsSessionCache(0, 60000);
+	}
+
+}
@@ -0,0 +1,107 @@
+package de.persosim.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.bouncycastle.tls.TlsClientProtocol;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class WebsocketCommTest {
+
+	private static final int TIMEOUT_MILLIS = 10000;
+
+	/**
+	 * Receives announcements until one of the given remote IFD arrives
+	 *
+	 * @return the announced port
+	 */
+	private static int receiveAnnouncedPort(DatagramSocket receiver, String name) throws IOException {
+		DatagramPacket packet = new DatagramPacket(new byte[4096], 4096);
+		while (true) {
+			receiver.receive(packet);
+			JSONObject announcement = new JSONObject(new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8));
+			if (name.equals(announcement.optString("IFDName"))) {
+				return announcement.getInt("port");
+			}
+		}
+	}
+
+	/**
+	 * Pairs with the identity on an already connected socket
+	 *
+	 * @return whether the handshake succeeded
+	 */
+	private static boolean pair(Socket socket, KeyStore.PrivateKeyEntry identity) {
+		try (Socket clientSocket = socket) {
+			clientSocket.setSoTimeout(TIMEOUT_MILLIS);
+			HostCredentials credentials = new HostCredentials(new BenchmarkSupport.IdentityConfig(identity, "client"));
+			int[] cipherSuites = Arrays.stream(PairingCipherSuite.values()).mapToInt(PairingCipherSuite::getCipherSuite).toArray();
+			TlsClientProtocol protocol = new TlsClientProtocol(clientSocket.getInputStream(), clientSocket.getOutputStream());
+			protocol.connect(new BenchmarkSupport.PairingClient(credentials, cipherSuites));
+			protocol.close();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static Socket connect(int port) {
+		try {
+			return new Socket("localhost", port);
+		} catch (IOException e) {
+			// the server socket may already be closed
+			return null;
+		}
+	}
+
+	@Test
+	public void testConcurrentPairingSingleUse() throws Exception {
+		String name = "WebsocketCommTest-" + System.nanoTime();
+		BenchmarkSupport.IdentityConfig config = new BenchmarkSupport.IdentityConfig(HostKeyType.RSA.generateIdentity(), name);
+		KeyStore.PrivateKeyEntry[] clients = { HostKeyType.RSA.generateIdentity(), HostKeyType.RSA.generateIdentity() };
+
+		boolean[] paired = new boolean[clients.length];
+		try (DatagramSocket receiver = new DatagramSocket(null)) {
+			receiver.setReuseAddress(true);
+			receiver.bind(new InetSocketAddress(Announcer.ANNOUNCE_PORT));
+			receiver.setSoTimeout(TIMEOUT_MILLIS);
+
+			WebsocketComm comm = new WebsocketComm(BenchmarkSupport.PAIRING_CODE, config);
+			comm.start();
+			try {
+				int port = receiveAnnouncedPort(receiver, name);
+				Socket[] sockets = { connect(port), connect(port) };
+				List<CompletableFuture<Boolean>> results = new ArrayList<>();
+				for (int i = 0; i < clients.length; i++) {
+					Socket socket = sockets[i];
+					KeyStore.PrivateKeyEntry identity = clients[i];
+					results.add(CompletableFuture.supplyAsync(() -> socket != null && pair(socket, identity)));
+				}
+				for (int i = 0; i < clients.length; i++) {
+					paired[i] = results.get(i).get();
+				}
+			} finally {
+				// waits for the server side of the pairing to complete
+				comm.stop();
+			}
+		}
+
+		assertTrue(paired[0] != paired[1]);
+		assertEquals(1, config.getPairedCertificates().size());
+		assertTrue(config.getPairedCertificates().containsKey(clients[paired[0] ? 0 : 1].getCertificate()));
+	}
+
+}
@@ -1,13 +1,22 @@
 package de.persosim.websocket;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
@@ -24,6 +33,24 @@ public class WebsocketProtocolTest {
 		}
 	};
 	
+	MessageHandler nullMessageHandler = new MessageHandler() {
+		
+		@Override
+		public String message(String incomingMessage) {
+			return null;
+		}
+		
+		@Override
+		public boolean isIccAvailable() {
+			return false;
+		}
+		
+		@Override
+		public String getStatusMessage() {
+			return null;
+		}
+	};
+	
 	private static String getStringOfLength(int length) {
 		char[] value = new char[length];
 		Arrays.fill(value, ' ');
@@ -65,6 +92,328 @@ public class WebsocketProtocolTest {
 		testMessage(getStringOfLength(32));
 	}
 	
+	@Test
+	public void testMaskedSmall() {
+		testMaskedMessage(getStringOfLength(32));
+	}
+	
+	@Test
+	public void testMaskedMaxUnsignedShort() {
+		testMaskedMessage(getStringOfLength(65535));
+	}
+	
+	@Test
+	public void testMaskedBiggerThanUnsignedShort() {
+		testMaskedMessage(getStringOfLength(65535+1));
+	}
+	
+	@Test
+	public void testManyFragments() {
+		String message = getStringOfLength(100000);
+		byte [] payload = message.getBytes(StandardCharsets.UTF_8);
+		int fragmentLength = 331;
+		
+		ByteArrayOutputStream input = new ByteArrayOutputStream();
+		for (int offset = 0; offset < payload.length; offset += fragmentLength) {
+			Frame fragment = new Frame();
+			fragment.setFin(offset + fragmentLength >= payload.length);
+			fragment.setOpcode(offset == 0 ? Opcode.TEXT : Opcode.CONTINUATION);
+			fragment.setPayload(payload, offset, Math.min(fragmentLength, payload.length - offset));
+			input.writeBytes(fragment.getHeaderBytes());
+			input.writeBytes(fragment.getPayload());
+		}
+		
+		testInput(message, input.toByteArray());
+	}
+	
+	@Test
+	public void testIccPresencePushed() throws Exception {
+		PipedOutputStream clientOutput = new PipedOutputStream();
+		PipedInputStream inputStream = new PipedInputStream(clientOutput);
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		IccPresenceListener[] registeredListener = new IccPresenceListener[1];
+		CountDownLatch registered = new CountDownLatch(1);
+		
+		MessageHandler messageHandler = new MessageHandler() {
+			@Override
+			public String message(String incomingMessage) {
+				return null;
+			}
+			
+			@Override
+			public boolean isIccAvailable() {
+				return false;
+			}
+			
+			@Override
+			public String getStatusMessage() {
+				return "status";
+			}
+			
+			@Override
+			public boolean addIccPresenceListener(IccPresenceListener listener) {
+				registeredListener[0] = listener;
+				registered.countDown();
+				return true;
+			}
+		};
+		
+		WebSocketProtocol protocol = new WebSocketProtocol(inputStream, outputStream, messageHandler, handshakeNullHandler);
+		Thread connection = new Thread(protocol::handleConnection);
+		connection.start();
+		
+		assertTrue(registered.await(5, TimeUnit.SECONDS));
+		assertNotNull(registeredListener[0]);
+		registeredListener[0].iccPresenceChanged(true);
+		
+		long deadline = System.currentTimeMillis() + 5000;
+		while (outputStream.size() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		
+		Frame close = new Frame();
+		close.setFin(true);
+		close.setOpcode(Opcode.CLOSE);
+		clientOutput.write(close.getHeaderBytes());
+		clientOutput.flush();
+		connection.join(5000);
+		
+		byte [] output = outputStream.toByteArray();
+		FrameHeader header = new FrameHeader();
+		int headerLength = header.decode(output, 0, output.length);
+		assertEquals(Opcode.TEXT, header.getOpcode());
+		assertEquals("status", new String(output, headerLength, (int) header.getPayloadLength(), StandardCharsets.UTF_8));
+	}
+	
+	@Test
+	public void testCompressedMessage() throws Exception {
+		String message = "{\"msg\":\"IFDTransmit\",\"ContextHandle\":\"PersoSimContextHandle\",\"SlotHandle\":\"PersoSim\",\"CommandAPDUs\":[{\"InputAPDU\":\"00A4040C\"}]}";
+		PerMessageDeflate preferences = new PerMessageDeflate(false, false, PerMessageDeflate.MAX_WINDOW_BITS);
+		
+		Frame frame = new Frame();
+		frame.setFin(true);
+		frame.setRSV1(true);
+		frame.setOpcode(Opcode.TEXT);
+		frame.setPayload(preferences.negotiate("permessage-deflate").compress(message.getBytes(StandardCharsets.UTF_8)));
+		
+		HandshakeHandler compressingHandshakeHandler = new HandshakeHandler(null, null) {
+			@Override
+			public boolean handle() {
+				perMessageDeflate = preferences.negotiate("permessage-deflate");
+				return true;
+			}
+		};
+		
+		String [] received = new String[1];
+		CountDownLatch handled = new CountDownLatch(1);
+		MessageHandler messageHandler = new MessageHandler() {
+			@Override
+			public String message(String incomingMessage) {
+				received[0] = incomingMessage;
+				handled.countDown();
+				return null;
+			}
+			
+			@Override
+			public boolean isIccAvailable() {
+				return false;
+			}
+			
+			@Override
+			public String getStatusMessage() {
+				return null;
+			}
+		};
+		
+		InputStream inputStream = new ByteArrayInputStream(Utils.concatByteArrays(frame.getHeaderBytes(), frame.getPayload()));
+		new WebSocketProtocol(inputStream, new ByteArrayOutputStream(), messageHandler, compressingHandshakeHandler).handleConnection();
+		
+		assertTrue(handled.await(5, TimeUnit.SECONDS));
+		assertEquals(message, received[0]);
+	}
+	
+	@Test
+	public void testSubprotocolPreselected() {
+		HandshakeHandler subprotocolHandshakeHandler = new HandshakeHandler(null, null) {
+			@Override
+			public boolean handle() {
+				subprotocol = "IFDInterface_WebSocket_v2";
+				return true;
+			}
+		};
+		
+		String [] selected = new String[1];
+		MessageHandler messageHandler = new MessageHandler() {
+			@Override
+			public String message(String incomingMessage) {
+				return null;
+			}
+			
+			@Override
+			public boolean isIccAvailable() {
+				return false;
+			}
+			
+			@Override
+			public String getStatusMessage() {
+				return null;
+			}
+			
+			@Override
+			public boolean selectProtocol(String protocol) {
+				selected[0] = protocol;
+				return true;
+			}
+		};
+		
+		new WebSocketProtocol(new ByteArrayInputStream(new byte [0]), new ByteArrayOutputStream(), messageHandler, subprotocolHandshakeHandler).handleConnection();
+		assertEquals("IFDInterface_WebSocket_v2", selected[0]);
+	}
+	
+	@Test
+	public void testResponseSentBeforeClose() {
+		MessageHandler slowMessageHandler = new MessageHandler() {
+			
+			@Override
+			public String message(String incomingMessage) {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return "response";
+			}
+			
+			@Override
+			public boolean isIccAvailable() {
+				return false;
+			}
+			
+			@Override
+			public String getStatusMessage() {
+				return null;
+			}
+		};
+		
+		Frame text = new Frame();
+		text.setFin(true);
+		text.setOpcode(Opcode.TEXT);
+		text.setPayload("request".getBytes(StandardCharsets.UTF_8));
+		Frame close = new Frame();
+		close.setFin(true);
+		close.setOpcode(Opcode.CLOSE);
+		
+		InputStream inputStream = new ByteArrayInputStream(Utils.concatByteArrays(text.getHeaderBytes(), text.getPayload(), close.getHeaderBytes()));
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		new WebSocketProtocol(inputStream, outputStream, slowMessageHandler, handshakeNullHandler).handleConnection();
+		
+		byte [] output = outputStream.toByteArray();
+		FrameHeader header = new FrameHeader();
+		int headerLength = header.decode(output, 0, output.length);
+		assertEquals(Opcode.TEXT, header.getOpcode());
+		assertEquals("response", new String(output, headerLength, (int) header.getPayloadLength(), StandardCharsets.UTF_8));
+		
+		int offset = headerLength + (int) header.getPayloadLength();
+		header = new FrameHeader();
+		header.decode(output, offset, output.length - offset);
+		assertEquals(Opcode.CLOSE, header.getOpcode());
+	}
+	
+	@Test(timeout = 5000)
+	public void testFailedHandshakeCloses() {
+		int[] attempts = new int[1];
+		HandshakeHandler failingHandshakeHandler = new HandshakeHandler(null, null) {
+			@Override
+			public boolean handle() {
+				attempts[0]++;
+				return false;
+			}
+		};
+		
+		new WebSocketProtocol(new ByteArrayInputStream(new byte [0]), new ByteArrayOutputStream(), nullMessageHandler, failingHandshakeHandler).handleConnection();
+		assertEquals(1, attempts[0]);
+	}
+	
+	@Test
+	public void testUnexpectedRsvBitCloses() {
+		Frame frame = new Frame();
+		frame.setFin(true);
+		frame.setRSV1(true);
+		frame.setOpcode(Opcode.TEXT);
+		frame.setPayload(new byte [] {1, 2, 3});
+		
+		InputStream inputStream = new ByteArrayInputStream(Utils.concatByteArrays(frame.getHeaderBytes(), frame.getPayload()));
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		new WebSocketProtocol(inputStream, outputStream, nullMessageHandler, handshakeNullHandler).handleConnection();
+		
+		byte [] output = outputStream.toByteArray();
+		FrameHeader header = new FrameHeader();
+		int headerLength = header.decode(output, 0, output.length);
+		assertEquals(Opcode.CLOSE, header.getOpcode());
+		assertEquals(WebSocketProtocol.CLOSE_PROTOCOL_ERROR, ((output[headerLength] & 0xFF) << 8) | (output[headerLength + 1] & 0xFF));
+	}
+	
+	@Test
+	public void testOversizedMessageCloses() {
+		Frame frame = new Frame();
+		frame.setFin(true);
+		frame.setOpcode(Opcode.TEXT);
+		frame.setPayload(new byte [2000]);
+		
+		InputStream inputStream = new ByteArrayInputStream(Utils.concatByteArrays(frame.getHeaderBytes(), frame.getPayload()));
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		WebSocketProtocol protocol = new WebSocketProtocol(inputStream, outputStream, nullMessageHandler, handshakeNullHandler);
+		protocol.setMaxInboundMessageSize(1000);
+		protocol.handleConnection();
+		
+		byte [] output = outputStream.toByteArray();
+		FrameHeader header = new FrameHeader();
+		int headerLength = header.decode(output, 0, output.length);
+		assertEquals(Opcode.CLOSE, header.getOpcode());
+		assertEquals(WebSocketProtocol.CLOSE_MESSAGE_TOO_BIG, ((output[headerLength] & 0xFF) << 8) | (output[headerLength + 1] & 0xFF));
+	}
+	
+	@Test
+	public void testPongIgnored() {
+		Frame pong = new Frame();
+		pong.setFin(true);
+		pong.setOpcode(Opcode.PONG);
+		pong.setPayload(new byte [] {1, 2});
+		
+		Frame close = new Frame();
+		close.setFin(true);
+		close.setOpcode(Opcode.CLOSE);
+		
+		InputStream inputStream = new ByteArrayInputStream(Utils.concatByteArrays(pong.getHeaderBytes(), pong.getPayload(), close.getHeaderBytes()));
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		new WebSocketProtocol(inputStream, outputStream, nullMessageHandler, handshakeNullHandler).handleConnection();
+		
+		byte [] output = outputStream.toByteArray();
+		FrameHeader header = new FrameHeader();
+		int headerLength = header.decode(output, 0, output.length);
+		assertEquals(Opcode.CLOSE, header.getOpcode());
+		assertEquals(output.length, headerLength + header.getPayloadLength());
+	}
+	
+	@Test
+	public void testDeadPeerReleased() throws Exception {
+		try (ServerSocket serverSocket = new ServerSocket(0); Socket client = new Socket("localhost", serverSocket.getLocalPort()); Socket server = serverSocket.accept()) {
+			WebSocketProtocol protocol = new WebSocketProtocol(server.getInputStream(), server.getOutputStream(), nullMessageHandler, handshakeNullHandler);
+			protocol.setPingInterval(10);
+			protocol.setPongTimeout(100);
+			protocol.setConnection(server);
+			
+			Thread connection = new Thread(protocol::handleConnection);
+			connection.start();
+			connection.join(5000);
+			
+			// the peer is still connected, but does not answer the pings
+			assertTrue(client.isConnected());
+			assertFalse(connection.isAlive());
+			assertTrue(protocol.getKeepAlive().isTimedOut());
+		}
+	}
+	
 	public void testMessage(String message) {
 		Frame frame = new Frame();
 		frame.setFin(true);
@@ -73,6 +422,27 @@ public class WebsocketProtocolTest {
 		
 		byte [] inputMessage = Utils.concatByteArrays(frame.getHeaderBytes(), frame.getPayload());		
 		
+		testInput(message, inputMessage);
+	}
+	
+	public void testMaskedMessage(String message) {
+		Frame frame = new Frame();
+		frame.setFin(true);
+		frame.setOpcode(Opcode.TEXT);
+		frame.setPayload(message.getBytes(StandardCharsets.UTF_8));
+		
+		byte [] header = frame.getHeaderBytes();
+		header[1] |= (byte) 0x80;
+		byte [] maskingKey = new byte [] {1, 2, 3, 4};
+		byte [] maskedPayload = frame.getPayload();
+		for (int i = 0; i < maskedPayload.length; i++) {
+			maskedPayload[i] ^= maskingKey[i % 4];
+		}
+		
+		testInput(message, Utils.concatByteArrays(header, maskingKey, maskedPayload));
+	}
+	
+	private void testInput(String message, byte [] inputMessage) {
 		InputStream inputStream = new ByteArrayInputStream(inputMessage);
 		OutputStream outputStream = new ByteArrayOutputStream();
 		MessageHandler messageHandler = new MessageHandler() {
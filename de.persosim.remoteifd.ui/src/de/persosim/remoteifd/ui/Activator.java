@@ -33,7 +33,7 @@ public class Activator implements BundleActivator {
 
 		provider = type -> {
 		    if ("WEBSOCKET".equals(type) || type == null) {
-		        return new WebsocketComm(null, new EclipseRemoteIfdConfigManager(PLUGIN_ID));
+		        return new WebsocketComm(null, getRemoteIfdConfig());
 		    }
 		    return null;
 		};
@@ -41,6 +41,13 @@ public class Activator implements BundleActivator {
 		CommManager.addCommProvider(provider);
 
 		PersoSimPreferenceManager.setPreferenceAccessorIfNotAvailable(new EclipsePreferenceAccessor());
+
+		// starts the generation of the host identity on a new profile
+		try {
+			getRemoteIfdConfig();
+		} catch (IllegalStateException e) {
+			BasicLogger.logException("Could not load the remote IFD configuration", e, LogLevel.ERROR, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.SYSTEM_TAG_ID));
+		}
 		BasicLogger.log("END Activator Remote IFD UI", LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.SYSTEM_TAG_ID));
 	}
 
@@ -54,7 +61,7 @@ public class Activator implements BundleActivator {
 	/**
 	 * @return the application wide remote ifd configuration
 	 */
-	public static RemoteIfdConfigManager getRemoteIfdConfig() {
+	public static synchronized RemoteIfdConfigManager getRemoteIfdConfig() {
 		if (remoteIfdConfigManager == null) {
 			remoteIfdConfigManager = new EclipseRemoteIfdConfigManager(PLUGIN_ID);
 		}
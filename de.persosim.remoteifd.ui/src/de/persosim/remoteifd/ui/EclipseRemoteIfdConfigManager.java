@@ -5,10 +5,10 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.security.KeyPair;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
@@ -18,15 +18,19 @@ import java.security.interfaces.RSAPrivateKey;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.globaltester.base.PreferenceHelper;
-import org.globaltester.cryptoprovider.bc.TlsCertificateGenerator;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import de.persosim.simulator.preferences.PersoSimPreferenceManager;
 import de.persosim.simulator.utils.HexString;
+import de.persosim.websocket.PairedCertificateIndex;
 import de.persosim.websocket.RemoteIfdConfigManager;
+import de.persosim.websocket.WebsocketComm;
 
 /**
  * Stores remote interface device configuration in eclipse preferences.
@@ -45,9 +49,20 @@ public class EclipseRemoteIfdConfigManager implements RemoteIfdConfigManager
 
 	private static final String STORETYPE = "JKS";
 
-	private KeyStore keyStore;
+	/**
+	 * Counts the changes of the stored pairings done by all instances
+	 */
+	private static final AtomicLong pairingModifications = new AtomicLong();
+
+	/**
+	 * Completes when the host identity is loaded or, for a new profile, when
+	 * its generation in the background is finished
+	 */
+	private final CompletableFuture<KeyStore> keyStore;
 	private char[] privateKeyPassword = new char[0];
 	private String bundleId;
+	private PairedCertificateIndex pairedIndex;
+	private long pairedIndexModification;
 
 	public EclipseRemoteIfdConfigManager(String bundleId)
 	{
@@ -63,41 +78,60 @@ public class EclipseRemoteIfdConfigManager implements RemoteIfdConfigManager
 			privateKeyPassword = privateKeyPreferenceValue.toCharArray();
 		}
 
-		try {
-			keyStore = KeyStore.getInstance(STORETYPE);
-			if (keystoreHexData != null) {
-				keyStore.load(new ByteArrayInputStream(HexString.toByteArray(keystoreHexData)), keystorePassword);
+		if (keystoreHexData != null) {
+			try {
+				KeyStore storedKeyStore = KeyStore.getInstance(STORETYPE);
+				storedKeyStore.load(new ByteArrayInputStream(HexString.toByteArray(keystoreHexData)), keystorePassword);
+				keyStore = CompletableFuture.completedFuture(storedKeyStore);
 			}
-			else {
-				keyStore.load(null, null);
-
-				createSelfSignedCertificate();
-
-				ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-				keyStore.store(byteArrayOutputStream, keystorePassword);
-				PreferenceHelper.setPreferenceValue(bundleId, PREFERENCE_KEY_KEYSTORE_HEX, HexString.encode(byteArrayOutputStream.toByteArray()));
+			catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException e) {
+				throw new IllegalStateException("Could not instantiate config manager", e);
 			}
 		}
-		catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException | IllegalStateException e) {
-			throw new IllegalStateException("Could not instantiate config manager", e);
+		else {
+			// RSA key generation takes long, only the users of the host key
+			// wait for it
+			char[] storePassword = keystorePassword;
+			keyStore = WebsocketComm.getHostKeyType().generateIdentityAsync().thenApply(identity -> storeHostIdentity(identity, storePassword));
 		}
+	}
 
+	private KeyStore storeHostIdentity(KeyStore.PrivateKeyEntry identity, char[] keystorePassword)
+	{
+		try {
+			KeyStore newKeyStore = KeyStore.getInstance(STORETYPE);
+			newKeyStore.load(null, null);
+			newKeyStore.setKeyEntry(PREFERENCE_KEY_HOST_CERT_ALIAS, identity.getPrivateKey(), privateKeyPassword, identity.getCertificateChain());
+
+			ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+			newKeyStore.store(byteArrayOutputStream, keystorePassword);
+			PreferenceHelper.setPreferenceValue(bundleId, PREFERENCE_KEY_KEYSTORE_HEX, HexString.encode(byteArrayOutputStream.toByteArray()));
+			return newKeyStore;
+		}
+		catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException e) {
+			throw new IllegalStateException("Could not store host identity", e);
+		}
 	}
 
-	private void createSelfSignedCertificate() throws KeyStoreException, NoSuchAlgorithmException, IllegalStateException
+	/**
+	 * @return the key store with the host identity, waits for its generation
+	 *         if necessary
+	 */
+	private KeyStore getKeyStore()
 	{
-		KeyPair keyPair = TlsCertificateGenerator.generateKeyPair();
-		Certificate certificate = TlsCertificateGenerator.generateTlsCertificate(keyPair);
-		Certificate[] certChain = new Certificate[1];
-		certChain[0] = certificate;
-		keyStore.setKeyEntry(PREFERENCE_KEY_HOST_CERT_ALIAS, keyPair.getPrivate(), privateKeyPassword, certChain);
+		try {
+			return keyStore.join();
+		}
+		catch (CompletionException e) {
+			throw new IllegalStateException("Could not create host identity", e.getCause());
+		}
 	}
 
 	@Override
 	public Certificate getHostCertificate()
 	{
 		try {
-			return keyStore.getCertificate(PREFERENCE_KEY_HOST_CERT_ALIAS);
+			return getKeyStore().getCertificate(PREFERENCE_KEY_HOST_CERT_ALIAS);
 		}
 		catch (KeyStoreException e) {
 			throw new IllegalStateException("Could not get own certificate", e);
@@ -105,10 +139,21 @@ public class EclipseRemoteIfdConfigManager implements RemoteIfdConfigManager
 	}
 
 	@Override
+	@Deprecated
 	public RSAPrivateKey getHostPrivateKey()
+	{
+		PrivateKey key = getHostKey();
+		if (!(key instanceof RSAPrivateKey)) {
+			throw new IllegalStateException("The host key is not an RSA key");
+		}
+		return (RSAPrivateKey) key;
+	}
+
+	@Override
+	public PrivateKey getHostKey()
 	{
 		try {
-			return (RSAPrivateKey) keyStore.getKey(PREFERENCE_KEY_HOST_CERT_ALIAS, privateKeyPassword);
+			return (PrivateKey) getKeyStore().getKey(PREFERENCE_KEY_HOST_CERT_ALIAS, privateKeyPassword);
 		}
 		catch (UnrecoverableKeyException | KeyStoreException | NoSuchAlgorithmException e) {
 			throw new IllegalStateException("Could not get private key", e);
@@ -117,11 +162,15 @@ public class EclipseRemoteIfdConfigManager implements RemoteIfdConfigManager
 
 	@Override
 	public Map<Certificate, String> getPairedCertificates()
+	{
+		return parsePairedCertificates(PreferenceHelper.getPreferenceValue(bundleId, PREFERENCE_KEY_PAIRED_CERTS));
+	}
+
+	private static Map<Certificate, String> parsePairedCertificates(String data)
 	{
 		HashMap<Certificate, String> retVal = new HashMap<>();
 
 		JSONObject jsonData = new JSONObject();
-		String data = PreferenceHelper.getPreferenceValue(bundleId, PREFERENCE_KEY_PAIRED_CERTS);
 		if (data != null) {
 			jsonData = new JSONObject(data);
 		}
@@ -145,37 +194,68 @@ public class EclipseRemoteIfdConfigManager implements RemoteIfdConfigManager
 		return retVal;
 	}
 
+	/**
+	 * Uses an index of the paired certificates instead of parsing them. The
+	 * index is rebuilt only if the stored pairings were changed by another
+	 * instance, which is detected by the modification counter. Changes done by
+	 * this instance update it incrementally.
+	 */
+	@Override
+	public synchronized boolean isPairedCertificate(Certificate certificate)
+	{
+		return getPairedIndex().contains(certificate);
+	}
+
+	private synchronized PairedCertificateIndex getPairedIndex()
+	{
+		long modification = pairingModifications.get();
+		if (pairedIndex == null || modification != pairedIndexModification) {
+			pairedIndex = new PairedCertificateIndex(getPairedCertificates().keySet());
+			pairedIndexModification = modification;
+		}
+		return pairedIndex;
+	}
+
 	@Override
-	public void addPairedCertificate(Certificate newCert)
+	public synchronized void addPairedCertificate(Certificate newCert)
 	{
+		PairedCertificateIndex index = getPairedIndex();
 		Map<Certificate, String> certificates = getPairedCertificates();
 
 		certificates.put(newCert, "unknown (until first use)");
 
-		storeToPrefs(certificates);
+		pairedIndexModification = storeToPrefs(certificates);
+		index.add(newCert);
 	}
 
 	@Override
-	public void deletePairedCertificate(Certificate delCert)
+	public synchronized void deletePairedCertificate(Certificate delCert)
 	{
+		PairedCertificateIndex index = getPairedIndex();
 		Map<Certificate, String> certificates = getPairedCertificates();
 
 		certificates.remove(delCert);
 
-		storeToPrefs(certificates);
+		pairedIndexModification = storeToPrefs(certificates);
+		index.remove(delCert);
 	}
 
 	@Override
-	public void updateUdNameForCertificate(Certificate cert, String udName)
+	public synchronized void updateUdNameForCertificate(Certificate cert, String udName)
 	{
+		PairedCertificateIndex index = getPairedIndex();
 		Map<Certificate, String> certificates = getPairedCertificates();
 
 		certificates.put(cert, udName);
 
-		storeToPrefs(certificates);
+		pairedIndexModification = storeToPrefs(certificates);
+		index.add(cert);
 	}
 
-	private void storeToPrefs(Map<Certificate, String> data)
+	/**
+	 * @return the value of the modification counter after storing
+	 */
+	private long storeToPrefs(Map<Certificate, String> data)
 	{
 		JSONObject jsonData = new JSONObject();
 
@@ -190,6 +270,7 @@ public class EclipseRemoteIfdConfigManager implements RemoteIfdConfigManager
 
 		PreferenceHelper.setPreferenceValue(bundleId, PREFERENCE_KEY_PAIRED_CERTS, jsonData.toString());
 		PreferenceHelper.flush(bundleId);
+		return pairingModifications.incrementAndGet();
 
 	}
 
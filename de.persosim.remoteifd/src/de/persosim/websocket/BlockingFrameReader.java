@@ -0,0 +1,82 @@
+package de.persosim.websocket;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads frames from a blocking {@link InputStream} using a
+ * {@link FrameDecoder}.
+ */
+public class BlockingFrameReader
+{
+
+	/**
+	 * Maximum plaintext length of one TLS record
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 16384;
+
+	private InputStream inputStream;
+	private FrameDecoder decoder;
+	private ByteBuffer buffer;
+	private volatile long lastReadNanos = System.nanoTime();
+
+	public BlockingFrameReader(InputStream inputStream, FrameDecoder decoder)
+	{
+		this(inputStream, decoder, DEFAULT_BUFFER_SIZE);
+	}
+
+	public BlockingFrameReader(InputStream inputStream, FrameDecoder decoder, int bufferSize)
+	{
+		this.inputStream = inputStream;
+		this.decoder = decoder;
+		this.buffer = ByteBuffer.allocate(bufferSize);
+		this.buffer.limit(0);
+	}
+
+	/**
+	 * Blocks until the next control frame or complete data message is
+	 * received.
+	 *
+	 * @return the next control frame or data message or null if the stream
+	 *         ended between frames
+	 * @throws EOFException
+	 *             if the stream ended within a frame
+	 * @throws WebSocketProtocolException
+	 *             if the received data violates the protocol
+	 * @throws IOException
+	 */
+	public Frame read() throws IOException
+	{
+		while (true) {
+			Frame frame = decoder.decode(buffer);
+			if (frame != null) {
+				return frame;
+			}
+
+			// the decoder consumed all buffered data
+			int read = inputStream.read(buffer.array(), 0, buffer.capacity());
+			if (read < 0) {
+				if (decoder.isPartial()) {
+					throw new EOFException("Stream ended within a frame");
+				}
+				return null;
+			}
+			lastReadNanos = System.nanoTime();
+			buffer.position(0);
+			buffer.limit(read);
+		}
+	}
+
+	/**
+	 * @return the {@link System#nanoTime()} of the last successful read from
+	 *         the stream, the creation time of this reader if nothing has been
+	 *         read yet
+	 */
+	public long getLastReadNanos()
+	{
+		return lastReadNanos;
+	}
+
+}
@@ -0,0 +1,57 @@
+package de.persosim.websocket;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the remaining bytes of a {@link ByteBuffer} without copying them in
+ * advance. Reading advances the position of the buffer.
+ */
+public class ByteBufferInputStream extends InputStream
+{
+
+	private ByteBuffer buffer;
+
+	public ByteBufferInputStream(ByteBuffer buffer)
+	{
+		this.buffer = buffer;
+	}
+
+	@Override
+	public int read()
+	{
+		return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len)
+	{
+		if (off < 0 || len < 0 || off > b.length - len) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if (!buffer.hasRemaining()) {
+			return -1;
+		}
+		int length = Math.min(len, buffer.remaining());
+		buffer.get(b, off, length);
+		return length;
+	}
+
+	@Override
+	public long skip(long n)
+	{
+		int length = (int) Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + length);
+		return length;
+	}
+
+	@Override
+	public int available()
+	{
+		return buffer.remaining();
+	}
+
+}
@@ -2,17 +2,22 @@ package de.persosim.websocket;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.security.PrivateKey;
 import java.security.SecureRandom;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.RSAPrivateCrtKey;
 import java.security.interfaces.RSAPrivateKey;
 
 import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
 import org.bouncycastle.crypto.params.RSAKeyParameters;
+import org.bouncycastle.crypto.params.RSAPrivateCrtKeyParameters;
+import org.bouncycastle.crypto.util.PrivateKeyFactory;
 import org.bouncycastle.tls.crypto.TlsCertificate;
-import org.bouncycastle.tls.crypto.impl.bc.BcTlsCertificate;
+import org.bouncycastle.tls.crypto.TlsCrypto;
 import org.bouncycastle.tls.crypto.impl.bc.BcTlsCrypto;
 
 /**
@@ -22,27 +27,73 @@ import org.bouncycastle.tls.crypto.impl.bc.BcTlsCrypto;
  */
 public class CertificateConverter {
 
+	/** Shared by all conversions that do not provide their own crypto */
+	private static final BcTlsCrypto CRYPTO = new BcTlsCrypto(new SecureRandom());
+
+	private static final ThreadLocal<CertificateFactory> CERTIFICATE_FACTORY = ThreadLocal.withInitial(() -> {
+		try {
+			return CertificateFactory.getInstance("X.509");
+		} catch (CertificateException e) {
+			throw new IllegalStateException("X.509 certificate factory not available", e);
+		}
+	});
+
 	public static Certificate fromBcTlsCertificateToJavaCertificate(org.bouncycastle.tls.Certificate cert) {
 		byte[] encoded;
 		try {
 			encoded = cert.getCertificateList()[0].getEncoded();
-			java.security.cert.Certificate jCert = CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(encoded));
+			java.security.cert.Certificate jCert = CERTIFICATE_FACTORY.get().generateCertificate(new ByteArrayInputStream(encoded));
 			return jCert;
 		} catch (IOException | CertificateException e) {
 			throw new IllegalStateException("Could not convert certificate " + cert, e);
 		}
 	}
 
-	public static AsymmetricKeyParameter fromJavaKeyToBcAsymetricKeyParameter(RSAPrivateKey hostPrivateKey) {
+	/**
+	 * Keys providing the CRT factors are converted to
+	 * {@link RSAPrivateCrtKeyParameters}, which allows Bouncycastle to use the
+	 * Chinese Remainder Theorem for private key operations. This also enables
+	 * blinding, the RSA engine only blinds private keys given as CRT parameters
+	 * with a public exponent. Keys without CRT factors fall back to
+	 * {@link RSAKeyParameters}, which are used without blinding.
+	 * <p>
+	 * EC keys are converted from their PKCS#8 encoding.
+	 */
+	public static AsymmetricKeyParameter fromJavaKeyToBcAsymetricKeyParameter(PrivateKey privateKey) {
+		if (privateKey instanceof ECPrivateKey) {
+			try {
+				return PrivateKeyFactory.createKey(privateKey.getEncoded());
+			} catch (IOException e) {
+				throw new IllegalArgumentException("Could not convert EC key", e);
+			}
+		}
+		if (!(privateKey instanceof RSAPrivateKey)) {
+			throw new IllegalArgumentException("Unsupported key algorithm " + privateKey.getAlgorithm());
+		}
+		RSAPrivateKey hostPrivateKey = (RSAPrivateKey) privateKey;
+		if (hostPrivateKey instanceof RSAPrivateCrtKey && hasCrtFactors((RSAPrivateCrtKey) hostPrivateKey)) {
+			RSAPrivateCrtKey crtKey = (RSAPrivateCrtKey) hostPrivateKey;
+			return new RSAPrivateCrtKeyParameters(crtKey.getModulus(), crtKey.getPublicExponent(), crtKey.getPrivateExponent(), crtKey.getPrimeP(),
+					crtKey.getPrimeQ(), crtKey.getPrimeExponentP(), crtKey.getPrimeExponentQ(), crtKey.getCrtCoefficient());
+		}
 		return new RSAKeyParameters(true, hostPrivateKey.getModulus(),
 				hostPrivateKey.getPrivateExponent());
 	}
 
+	private static boolean hasCrtFactors(RSAPrivateCrtKey key) {
+		// some providers return CRT keys with missing factors
+		return key.getPublicExponent() != null && key.getPublicExponent().signum() > 0 && key.getPrimeP() != null && key.getPrimeP().signum() > 0;
+	}
+
 	public static org.bouncycastle.tls.Certificate fromJavaCertificateToBcTlsCertificate(Certificate cert) {
+		return fromJavaCertificateToBcTlsCertificate(CRYPTO, cert);
+	}
+
+	public static org.bouncycastle.tls.Certificate fromJavaCertificateToBcTlsCertificate(TlsCrypto crypto, Certificate cert) {
 		TlsCertificate[] certs = new TlsCertificate[1];
 		
 		try {
-			certs[0] = new BcTlsCertificate(new BcTlsCrypto(new SecureRandom()), cert.getEncoded());
+			certs[0] = crypto.createCertificate(cert.getEncoded());
 			return new org.bouncycastle.tls.Certificate(certs);
 		} catch (CertificateEncodingException | IOException e) {
 			throw new IllegalStateException("Could not convert certificate " + cert, e);
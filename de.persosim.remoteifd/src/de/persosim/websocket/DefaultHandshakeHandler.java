@@ -1,13 +1,13 @@
 package de.persosim.websocket;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Collections;
+import java.util.List;
 
 import org.globaltester.logging.BasicLogger;
 import org.globaltester.logging.tags.LogLevel;
@@ -19,43 +19,94 @@ import de.persosim.simulator.utils.Base64;
 public class DefaultHandshakeHandler extends HandshakeHandler
 {
 
-	public DefaultHandshakeHandler(OutputStream outputStream, InputStreamReader reader)
-	{
-		super(outputStream, reader);
-	}
+	private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
 
-	private String readToDelimiter(char[] cs)
-	{
+	/**
+	 * SHA-1 instances reused for all handshakes handled on the same thread
+	 */
+	private static final ThreadLocal<MessageDigest> SHA1 = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is required for the websocket handshake", e);
+		}
+	});
 
-		int indexToDelimiter = 0;
-		StringBuilder data = new StringBuilder();
+	private PerMessageDeflate perMessageDeflatePreferences;
+	private int maxHeaderLength = HttpUpgradeRequest.DEFAULT_MAX_HEADER_LENGTH;
+	private List<String> supportedSubprotocols = Collections.emptyList();
 
-		do {
-			try {
-				int read = reader.read();
-				char readChar = (char) read;
+	public DefaultHandshakeHandler(OutputStream outputStream, InputStream inputStream)
+	{
+		super(outputStream, inputStream);
+	}
 
-				data.append(readChar);
+	/**
+	 * @param perMessageDeflatePreferences
+	 *            the server preferences for negotiating permessage-deflate,
+	 *            null to decline compression
+	 */
+	public void setPerMessageDeflatePreferences(PerMessageDeflate perMessageDeflatePreferences)
+	{
+		this.perMessageDeflatePreferences = perMessageDeflatePreferences;
+	}
 
-				if (read == -1) {
-					throw new IllegalStateException("Reading reached EOF unexpectedly");
-				}
+	/**
+	 * @param maxHeaderLength
+	 *            the maximum length of the handshake request in bytes
+	 */
+	public void setMaxHeaderLength(int maxHeaderLength)
+	{
+		if (maxHeaderLength < 1) {
+			throw new IllegalArgumentException("Maximum header length must be positive");
+		}
+		this.maxHeaderLength = maxHeaderLength;
+	}
 
-				if (readChar == cs[indexToDelimiter]) {
-					indexToDelimiter++;
-				}
-				else {
-					indexToDelimiter = 0;
-				}
+	/**
+	 * @param supportedSubprotocols
+	 *            the subprotocols that can be selected by the client through
+	 *            the Sec-WebSocket-Protocol header
+	 */
+	public void setSupportedSubprotocols(List<String> supportedSubprotocols)
+	{
+		this.supportedSubprotocols = supportedSubprotocols;
+	}
 
+	/**
+	 * Selects the first subprotocol requested by the client that is
+	 * supported, see RFC6455 4.2.2.
+	 *
+	 * @param requested
+	 *            the value of the Sec-WebSocket-Protocol headers, multiple
+	 *            headers joined by commas
+	 * @return the selected subprotocol or null if none of the requested is
+	 *         supported
+	 */
+	private String selectSubprotocol(String requested)
+	{
+		if (requested == null) {
+			return null;
+		}
+		for (String candidate : requested.split(",")) {
+			String trimmed = candidate.trim();
+			if (supportedSubprotocols.contains(trimmed)) {
+				return trimmed;
 			}
-			catch (IOException e) {
-				throw new IllegalStateException("Reading of handshake message failed with exception", e);
-			}
-
-		} while (indexToDelimiter != cs.length);
+		}
+		BasicLogger.log("None of the requested subprotocols is supported: " + requested, LogLevel.WARN, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+		return null;
+	}
 
-		return data.toString();
+	/**
+	 * @param key
+	 *            the value of the Sec-WebSocket-Key header
+	 * @return the value of the Sec-WebSocket-Accept header, see RFC6455 4.2.2
+	 */
+	static String getAcceptValue(String key)
+	{
+		return Base64.encode(SHA1.get().digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.UTF_8)));
 	}
 
 	@Override
@@ -65,36 +116,50 @@ public class DefaultHandshakeHandler extends HandshakeHandler
 		try {
 			BasicLogger.log("Begin handling websocket handshake", LogLevel.DEBUG, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
 
-			String data = readToDelimiter(new char[] { '\r', '\n', '\r', '\n' });
-
-			BasicLogger.log("Received message for websocket handshake: " + System.lineSeparator() + data, LogLevel.DEBUG, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+			HttpUpgradeRequest request = HttpUpgradeRequest.read(inputStream, maxHeaderLength);
 
-			Matcher get = Pattern.compile("^GET").matcher(data);
+			BasicLogger.log("Received message for websocket handshake: " + System.lineSeparator() + request, LogLevel.DEBUG, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
 
-			if (!get.find()) {
+			if (!"GET".equals(request.getMethod())) {
 				BasicLogger.log("No GET found in handshake message", LogLevel.WARN, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
 				return false;
 			}
 
-			Matcher match = Pattern.compile("Sec-WebSocket-Key: (.*)").matcher(data);
+			String key = request.getHeader("Sec-WebSocket-Key");
 
-			if (!match.find()) {
+			if (key == null) {
 
 				BasicLogger.log("No Sec-WebSocket-Key found in handshake message", LogLevel.WARN, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
 				return false;
 			}
 
-			String challengeResponse = Base64.encode(MessageDigest.getInstance("SHA-1").digest((match.group(1) + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(StandardCharsets.UTF_8)));
-			String response = ("HTTP/1.1 101 Switching Protocols\r\n" + "Connection: Upgrade\r\n" + "Upgrade: websocket\r\n" + "Sec-WebSocket-Accept: " + challengeResponse + "\r\n\r\n");
+			StringBuilder response = new StringBuilder(256);
+			response.append("HTTP/1.1 101 Switching Protocols\r\n").append("Connection: Upgrade\r\n").append("Upgrade: websocket\r\n");
+			response.append("Sec-WebSocket-Accept: ").append(getAcceptValue(key)).append("\r\n");
+
+			subprotocol = selectSubprotocol(request.getHeader("Sec-WebSocket-Protocol"));
+			if (subprotocol != null) {
+				BasicLogger.log("Selected subprotocol: " + subprotocol, LogLevel.DEBUG, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+				response.append("Sec-WebSocket-Protocol: ").append(subprotocol).append("\r\n");
+			}
+
+			if (perMessageDeflatePreferences != null) {
+				perMessageDeflate = perMessageDeflatePreferences.negotiate(request.getHeader("Sec-WebSocket-Extensions"));
+			}
+			if (perMessageDeflate != null) {
+				BasicLogger.log("Negotiated extension: " + perMessageDeflate.getResponseHeaderValue(), LogLevel.DEBUG, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+				response.append("Sec-WebSocket-Extensions: ").append(perMessageDeflate.getResponseHeaderValue()).append("\r\n");
+			}
+			response.append("\r\n");
 
 			BasicLogger.log("Sending response message for websocket handshake: " + System.lineSeparator() + response, LogLevel.DEBUG,
 					new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
-			byte[] responseBytes = response.getBytes(StandardCharsets.UTF_8);
+			byte[] responseBytes = response.toString().getBytes(StandardCharsets.UTF_8);
 			outputStream.write(responseBytes, 0, responseBytes.length);
 			outputStream.flush();
 			return true;
 		}
-		catch (NoSuchAlgorithmException | IOException e) {
+		catch (IOException e) {
 			BasicLogger.logException(e.getMessage(), e, LogLevel.ERROR, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
 			return false;
 		}
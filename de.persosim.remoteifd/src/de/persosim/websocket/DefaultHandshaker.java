@@ -4,22 +4,24 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
-import java.security.SecureRandom;
 import java.util.Vector;
 
 import org.bouncycastle.tls.Certificate;
 import org.bouncycastle.tls.CertificateRequest;
+import org.bouncycastle.tls.CipherSuite;
 import org.bouncycastle.tls.ClientCertificateType;
 import org.bouncycastle.tls.DefaultTlsServer;
 import org.bouncycastle.tls.HashAlgorithm;
+import org.bouncycastle.tls.ProtocolVersion;
 import org.bouncycastle.tls.SignatureAlgorithm;
 import org.bouncycastle.tls.SignatureAndHashAlgorithm;
 import org.bouncycastle.tls.TlsCredentialedSigner;
+import org.bouncycastle.tls.TlsCredentials;
 import org.bouncycastle.tls.TlsServerProtocol;
+import org.bouncycastle.tls.TlsSession;
+import org.bouncycastle.tls.TlsUtils;
 import org.bouncycastle.tls.crypto.TlsCrypto;
 import org.bouncycastle.tls.crypto.TlsCryptoParameters;
-import org.bouncycastle.tls.crypto.impl.bc.BcDefaultTlsCredentialedSigner;
-import org.bouncycastle.tls.crypto.impl.bc.BcTlsCrypto;
 import org.globaltester.logging.BasicLogger;
 import org.globaltester.logging.tags.LogLevel;
 import org.globaltester.logging.tags.LogTag;
@@ -30,21 +32,70 @@ import de.persosim.simulator.utils.HexString;
 public class DefaultHandshaker implements TlsHandshaker
 {
 
+	/**
+	 * Cipher suites offered with an EC host key, AES-GCM preferred. The TLS
+	 * 1.3 suites are only selectable if TLS 1.3 is enabled.
+	 */
+	static final int[] ECDSA_CIPHER_SUITES = { CipherSuite.TLS_AES_128_GCM_SHA256, CipherSuite.TLS_AES_256_GCM_SHA384, CipherSuite.TLS_CHACHA20_POLY1305_SHA256,
+			CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256, CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384, CipherSuite.TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256,
+			CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CBC_SHA256, CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_256_CBC_SHA384, CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CBC_SHA,
+			CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_256_CBC_SHA };
+
 	private Socket clientSocket;
 	private TlsServerProtocol protocol;
 	private RemoteIfdConfigManager remoteIfdConfig;
+	private HostCredentials hostCredentials;
+	private TlsSessionCache sessionCache;
 	protected Certificate clientCert;
+	private java.security.cert.Certificate javaClientCert;
+	private TlsSessionCache.Entry resumeCandidate;
+	private boolean resumed = false;
+	private boolean tls13Enabled = false;
 
 	public DefaultHandshaker(RemoteIfdConfigManager remoteIfdConfig, Socket client)
+	{
+		this(remoteIfdConfig, new HostCredentials(remoteIfdConfig), client, null);
+	}
+
+	/**
+	 * @param hostCredentials
+	 *            the converted host credentials of remoteIfdConfig, shared
+	 *            between handshakes
+	 * @param sessionCache
+	 *            the cache used to resume sessions of paired clients, null
+	 *            disables resumption
+	 */
+	public DefaultHandshaker(RemoteIfdConfigManager remoteIfdConfig, HostCredentials hostCredentials, Socket client, TlsSessionCache sessionCache)
 	{
 		this.clientSocket = client;
 		this.remoteIfdConfig = remoteIfdConfig;
+		this.hostCredentials = hostCredentials;
+		this.sessionCache = sessionCache;
+	}
+
+	/**
+	 * @return true if the last handshake resumed a cached session
+	 */
+	public boolean isResumed()
+	{
+		return resumed;
+	}
+
+	/**
+	 * @param tls13Enabled
+	 *            true to negotiate TLS 1.3 with clients offering it, otherwise
+	 *            only TLS 1.2 is accepted
+	 */
+	public void setTls13Enabled(boolean tls13Enabled)
+	{
+		this.tls13Enabled = tls13Enabled;
 	}
 
 	@Override
 	public boolean performHandshake()
 	{
-		TlsCrypto crypto = new BcTlsCrypto(new SecureRandom());
+		TlsCrypto crypto = hostCredentials.getCrypto();
+		long start = System.nanoTime();
 
 		try {
 
@@ -52,45 +103,107 @@ public class DefaultHandshaker implements TlsHandshaker
 
 			protocol.accept(new DefaultTlsServer(crypto) {
 
+				@Override
+				protected ProtocolVersion[] getSupportedVersions()
+				{
+					return tls13Enabled ? ProtocolVersion.TLSv13.downTo(ProtocolVersion.TLSv12) : ProtocolVersion.TLSv12.only();
+				}
+
+				@Override
+				protected int[] getSupportedCipherSuites()
+				{
+					// the default suites all authenticate with RSA
+					return hostCredentials.getKeyType() == HostKeyType.EC ? ECDSA_CIPHER_SUITES : super.getSupportedCipherSuites();
+				}
+
+				@Override
+				public TlsCredentials getCredentials() throws IOException
+				{
+					if (TlsUtils.isTLSv13(context)) {
+						// TLS 1.3 cipher suites do not define the authentication, the host key signs in any case
+						return hostCredentials.createSigner(new TlsCryptoParameters(context));
+					}
+					return super.getCredentials();
+				}
+
 				@Override
 				protected TlsCredentialedSigner getRSASignerCredentials() throws IOException
 				{
-					return new BcDefaultTlsCredentialedSigner(new TlsCryptoParameters(context), (BcTlsCrypto) getCrypto(),
-							CertificateConverter.fromJavaKeyToBcAsymetricKeyParameter(remoteIfdConfig.getHostPrivateKey()),
-							CertificateConverter.fromJavaCertificateToBcTlsCertificate(remoteIfdConfig.getHostCertificate()),
-							new SignatureAndHashAlgorithm(HashAlgorithm.sha256, SignatureAlgorithm.rsa));
+					return hostCredentials.createSigner(new TlsCryptoParameters(context));
+				}
+
+				@Override
+				protected TlsCredentialedSigner getECDSASignerCredentials() throws IOException
+				{
+					return hostCredentials.createSigner(new TlsCryptoParameters(context));
 				}
 
 				@Override
 				public void notifyClientCertificate(Certificate arg0) throws IOException
 				{
-					validateCertificate(arg0);
+					javaClientCert = validateCertificate(arg0);
 					clientCert = arg0;
 				}
 
-				private void validateCertificate(Certificate cert)
+				private java.security.cert.Certificate validateCertificate(Certificate cert)
 				{
 					java.security.cert.Certificate javaCert = CertificateConverter.fromBcTlsCertificateToJavaCertificate(cert);
-					if (!remoteIfdConfig.getPairedCertificates().keySet().contains(javaCert)) {
+					if (!remoteIfdConfig.isPairedCertificate(javaCert)) {
 						BasicLogger.log("The certificate with serial 0x" + HexString.encode(cert.getCertificateAt(0).getSerialNumber()) + " is not paired", LogLevel.ERROR,
 								new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
 						throw new IllegalArgumentException("Unknown cert " + cert);
 					}
+					return javaCert;
+				}
+
+				@Override
+				public byte[] getNewSessionID()
+				{
+					return sessionCache != null ? sessionCache.createSessionID() : null;
+				}
+
+				@Override
+				public TlsSession getSessionToResume(byte[] sessionID)
+				{
+					if (sessionCache == null) {
+						return null;
+					}
+					// only resume sessions of clients that are still paired with the current host certificate
+					TlsSessionCache.Entry entry = sessionCache.get(sessionID,
+							cached -> cached.getHostCertificate().equals(hostCredentials.getHostCertificate())
+									&& remoteIfdConfig.isPairedCertificate(cached.getJavaClientCertificate()));
+					resumeCandidate = entry;
+					return entry != null ? entry.getSession() : null;
 				}
 
 				@Override
-				public CertificateRequest getCertificateRequest()
+				public CertificateRequest getCertificateRequest() throws IOException
 				{
 					Vector<Object> signatureAndHash = new Vector<>();
 					signatureAndHash.add(new SignatureAndHashAlgorithm(HashAlgorithm.sha256, SignatureAlgorithm.rsa));
-					return new CertificateRequest(new short[] { ClientCertificateType.rsa_sign }, signatureAndHash, null);
+					signatureAndHash.add(new SignatureAndHashAlgorithm(HashAlgorithm.sha256, SignatureAlgorithm.ecdsa));
+					if (TlsUtils.isTLSv13(context)) {
+						// RSA client certificates sign with RSASSA-PSS in TLS 1.3
+						signatureAndHash.add(SignatureAndHashAlgorithm.rsa_pss_rsae_sha256);
+						return new CertificateRequest(TlsUtils.EMPTY_BYTES, signatureAndHash, null, null);
+					}
+					return new CertificateRequest(new short[] { ClientCertificateType.rsa_sign, ClientCertificateType.ecdsa_sign }, signatureAndHash, null);
 				}
 
 				@Override
 				public void notifyHandshakeComplete() throws IOException
 				{
 					super.notifyHandshakeComplete();
-					BasicLogger.log("Handshake done", LogLevel.DEBUG, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+					resumed = context.getSecurityParametersConnection().isResumedSession();
+					if (resumed) {
+						// no certificate is exchanged during an abbreviated handshake
+						clientCert = resumeCandidate.getClientCertificate();
+					}
+					else if (sessionCache != null && !TlsUtils.isTLSv13(context)) {
+						// TLS 1.3 sessions are not resumed by session ID
+						sessionCache.put(context.getResumableSession(), clientCert, javaClientCert, hostCredentials.getHostCertificate());
+					}
+					BasicLogger.log("Handshake done" + (resumed ? ", session resumed" : ""), LogLevel.DEBUG, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
 				}
 
 				@Override
@@ -106,6 +219,13 @@ public class DefaultHandshaker implements TlsHandshaker
 				}
 
 			});
+
+			long duration = System.nanoTime() - start;
+			if (sessionCache != null) {
+				sessionCache.recordHandshake(resumed, duration);
+				BasicLogger.log(String.format("TLS handshake took %.2f ms, %s", duration / 1e6, sessionCache.getStatistics()), LogLevel.DEBUG,
+						new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+			}
 			return true;
 
 		}
@@ -10,6 +10,9 @@ import static de.persosim.websocket.IfdProtocolWebSocket.RESULT_MINOR;
 import static de.persosim.websocket.IfdProtocolWebSocket.SLOT_HANDLE;
 import static de.persosim.websocket.IfdProtocolWebSocket.UD_NAME;
 
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -17,12 +20,14 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.bouncycastle.tls.Certificate;
 import org.globaltester.logging.BasicLogger;
 import org.globaltester.logging.tags.LogLevel;
 import org.globaltester.logging.tags.LogTag;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 import de.persosim.driver.connector.IfdInterface;
 import de.persosim.driver.connector.UnsignedInteger;
@@ -45,7 +50,7 @@ import de.persosim.simulator.utils.HexString;
 import de.persosim.simulator.utils.Utils;
 import de.persosim.websocket.IfdProtocolWebSocket.ContextProvider;
 
-public class DefaultMessageHandler implements MessageHandler, ContextProvider
+public class DefaultMessageHandler implements MessageHandler, ContextProvider, IccPresenceListener
 {
 
 	protected static HashMap<String, IfdProtocolWebSocket> supportedProtocols = new HashMap<>();
@@ -72,6 +77,9 @@ public class DefaultMessageHandler implements MessageHandler, ContextProvider
 	private RemoteIfdConfigManager remoteIfdConfig;
 	private Certificate clientCertificate;
 	private IfdProtocolWebSocket currentProtocol;
+	private IfdProtocolWebSocket preselectedProtocol;
+	private boolean iccPresenceEventsAvailable = false;
+	private List<IccPresenceListener> iccPresenceListeners = new CopyOnWriteArrayList<>();
 
 	public DefaultMessageHandler(List<PcscListener> listeners, RemoteIfdConfigManager remoteIfdConfig, Certificate clientCertificate)
 	{
@@ -85,8 +93,23 @@ public class DefaultMessageHandler implements MessageHandler, ContextProvider
 	{
 		BasicLogger.log("Received JSON message: " + System.lineSeparator() + incomingMessage, LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
 
-		JSONObject jsonMessage = new JSONObject(incomingMessage);
+		return message(new JSONObject(incomingMessage));
+	}
+
+	/**
+	 * Parses the message directly from the payload bytes, without creating an
+	 * intermediate {@link String}.
+	 */
+	@Override
+	public String message(ByteBuffer incomingMessage)
+	{
+		BasicLogger.log("Received JSON message of " + incomingMessage.remaining() + " bytes", LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
 
+		return message(new JSONObject(new JSONTokener(new InputStreamReader(new ByteBufferInputStream(incomingMessage), StandardCharsets.UTF_8))));
+	}
+
+	private String message(JSONObject jsonMessage)
+	{
 		String messageType = jsonMessage.getString(MSG);
 
 		String incomingContextHandle = null;
@@ -115,7 +138,8 @@ public class DefaultMessageHandler implements MessageHandler, ContextProvider
 					currentProtocol = supportedProtocols.get(jsonMessage.getString(PROTOCOL));
 				}
 				else {
-					currentProtocol = null;
+					// the protocol selected during the websocket handshake stays valid
+					currentProtocol = preselectedProtocol;
 				}
 				// fallthrough: ESTABLISH_CONTEXT and all following message types are handled by selected protocol
 			default:
@@ -127,8 +151,26 @@ public class DefaultMessageHandler implements MessageHandler, ContextProvider
 				response = currentProtocol.message(jsonMessage, this);
 		}
 
-		BasicLogger.log("Send JSON message: " + System.lineSeparator() + response.toString(), LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
-		return response.toString();
+		String responseMessage = response.toString();
+		BasicLogger.log("Send JSON message: " + System.lineSeparator() + responseMessage, LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+		return responseMessage;
+	}
+
+	/**
+	 * Selects the protocol negotiated through the Sec-WebSocket-Protocol
+	 * header. It is used until an IFDEstablishContext message requests
+	 * another one.
+	 */
+	@Override
+	public boolean selectProtocol(String protocol)
+	{
+		IfdProtocolWebSocket selected = supportedProtocols.get(protocol);
+		if (selected == null) {
+			return false;
+		}
+		preselectedProtocol = selected;
+		currentProtocol = selected;
+		return true;
 	}
 
 	private void setErrorResult(JSONObject response, String resultMinor)
@@ -422,6 +464,40 @@ public class DefaultMessageHandler implements MessageHandler, ContextProvider
 		return result.getResponseCode().equals(PcscConstants.IFD_ICC_PRESENT);
 	}
 
+	/**
+	 * @param iccPresenceEventsAvailable
+	 *            true, if the simulator reports presence changes via
+	 *            {@link #iccPresenceChanged(boolean)}
+	 */
+	public void setIccPresenceEventsAvailable(boolean iccPresenceEventsAvailable)
+	{
+		this.iccPresenceEventsAvailable = iccPresenceEventsAvailable;
+	}
+
+	@Override
+	public boolean addIccPresenceListener(IccPresenceListener listener)
+	{
+		if (!iccPresenceEventsAvailable) {
+			return false;
+		}
+		iccPresenceListeners.add(listener);
+		return true;
+	}
+
+	@Override
+	public void removeIccPresenceListener(IccPresenceListener listener)
+	{
+		iccPresenceListeners.remove(listener);
+	}
+
+	@Override
+	public void iccPresenceChanged(boolean iccAvailable)
+	{
+		for (IccPresenceListener listener : iccPresenceListeners) {
+			listener.iccPresenceChanged(iccAvailable);
+		}
+	}
+
 	private String getStatusMessage(String slotName)
 	{
 		if (currentProtocol != null) {
@@ -1,9 +1,14 @@
 package de.persosim.websocket;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import de.persosim.simulator.utils.HexString;
-import de.persosim.simulator.utils.Utils;
 
 public class Frame {
 
@@ -15,6 +20,13 @@ public class Frame {
 		PING(9),
 		PONG(10);
 		
+		private static final Opcode[] BY_VALUE = new Opcode[16];
+		static {
+			for (Opcode opcode : values()) {
+				BY_VALUE[opcode.value] = opcode;
+			}
+		}
+		
 		private int value;
 
 		Opcode(int value){
@@ -30,41 +42,97 @@ public class Frame {
 		}
 		
 		static Opcode forValue(int value) {
-			for (Opcode opcode : Opcode.values()) {
-				if (opcode.value == value) {
-					return opcode;
-				}
+			Opcode opcode = (value >= 0 && value < BY_VALUE.length) ? BY_VALUE[value] : null;
+			if (opcode == null) {
+				throw new IllegalArgumentException("No opcode for this value");
 			}
-			throw new IllegalArgumentException("No opcode for this value");
+			return opcode;
 		}
 	}
 	
 	
+	/**
+	 * Maximum payload length of control frames, see RFC6455 5.5
+	 */
+	public static final int MAX_CONTROL_PAYLOAD_LENGTH = 125;
+	
+	/**
+	 * Maximum number of payload bytes dumped by {@link #toString()} and
+	 * {@link #dumpPayload(byte[], int, int)}
+	 */
+	private static final int TO_STRING_MAX_PAYLOAD_BYTES = 64;
+	
 	private boolean fin;
+	private boolean rsv1;
+	private boolean rsv2;
+	private boolean rsv3;
 	private byte[] payload = new byte [0];
+	private int payloadOffset = 0;
+	private int payloadLength = 0;
 	private Opcode opcode;
+	
+	/**
+	 * Payloads of appended continuation frames that are not yet joined into
+	 * the payload array. They are joined in one pass on first access.
+	 */
+	private List<ByteBuffer> pendingFragments = new ArrayList<>();
+	private int pendingLength = 0;
 
 	public void setFin(boolean fin) {
 		this.fin = fin;
 	}
 
 	public void setRSV1(boolean rsv1) {
-		// TODO Auto-generated method stub
-		
+		this.rsv1 = rsv1;
 	}
 
 	public void setRSV2(boolean rsv2) {
-		// TODO Auto-generated method stub
-		
+		this.rsv2 = rsv2;
 	}
 
 	public void setRSV3(boolean rsv3) {
-		// TODO Auto-generated method stub
-		
+		this.rsv3 = rsv3;
+	}
+
+	public boolean getRSV1() {
+		return rsv1;
+	}
+
+	public boolean getRSV2() {
+		return rsv2;
 	}
 
+	public boolean getRSV3() {
+		return rsv3;
+	}
+
+	/**
+	 * Sets the payload of this frame. The frame takes ownership of the given
+	 * array, the caller must not modify it afterwards.
+	 * 
+	 * @param payload
+	 */
 	public void setPayload(byte [] payload) {
-		this.payload = payload.clone();
+		setPayload(payload, 0, payload.length);
+	}
+
+	/**
+	 * Sets the given range of the array as payload of this frame. The frame
+	 * takes ownership of this range, the caller must not modify it afterwards.
+	 * 
+	 * @param payload
+	 * @param offset
+	 * @param length
+	 */
+	public void setPayload(byte [] payload, int offset, int length) {
+		if (offset < 0 || length < 0 || offset > payload.length - length) {
+			throw new IndexOutOfBoundsException("Payload range " + offset + "+" + length + " exceeds array of length " + payload.length);
+		}
+		this.payload = payload;
+		this.payloadOffset = offset;
+		this.payloadLength = length;
+		pendingFragments.clear();
+		pendingLength = 0;
 	}
 
 	public boolean getFin() {
@@ -76,58 +144,175 @@ public class Frame {
 	}
 	
 	
+	/**
+	 * Appends the payload of the given continuation frame. The payloads are
+	 * only collected here and joined once when the payload is accessed, so
+	 * reassembling a message from many fragments takes linear time.
+	 * 
+	 * @param frame
+	 *            the continuation frame, this frame takes ownership of its
+	 *            payload
+	 */
 	public void appendFrame(Frame frame) {
 		//TODO check frame types
 		if (frame.getOpcode() != Opcode.CONTINUATION) {
 			throw new IllegalArgumentException("Can not append frame that does not have continuation opcode");
 		}
 		
-		payload = Utils.concatByteArrays(payload, frame.getPayload());
+		int fragmentLength = frame.getPayloadLength();
+		if (fragmentLength > Integer.MAX_VALUE - getPayloadLength()) {
+			throw new IllegalArgumentException("Joined payload exceeds the maximum supported length");
+		}
+		
+		if (fragmentLength > 0) {
+			pendingFragments.add(frame.getPayloadBuffer());
+			pendingLength += fragmentLength;
+		}
 		fin = frame.getFin();
 	}
+	
+	private void joinPendingFragments() {
+		if (pendingFragments.isEmpty()) {
+			return;
+		}
+		
+		byte[] joined = new byte[payloadLength + pendingLength];
+		System.arraycopy(payload, payloadOffset, joined, 0, payloadLength);
+		int offset = payloadLength;
+		for (ByteBuffer fragment : pendingFragments) {
+			int fragmentLength = fragment.remaining();
+			fragment.get(joined, offset, fragmentLength);
+			offset += fragmentLength;
+		}
+		setPayload(joined);
+	}
 
 	public Opcode getOpcode() {
 		return opcode;
 	}
 
+	/**
+	 * @return a copy of the payload, use {@link #getPayloadBuffer()} to access
+	 *         the payload without copying
+	 */
 	public byte[] getPayload() {
-		return payload.clone();
+		joinPendingFragments();
+		return Arrays.copyOfRange(payload, payloadOffset, payloadOffset + payloadLength);
 	}
 
-	@Override
-	public String toString() {
-		return new StringBuilder().append("Opcode: " + getOpcode() + "(" + getOpcode().getValue() + ")," + System.lineSeparator() + "Payload:" + System.lineSeparator() + HexString.dump(payload)).toString();
+	/**
+	 * @return a read only view of the payload, positioned at the first payload
+	 *         byte
+	 */
+	public ByteBuffer getPayloadBuffer() {
+		joinPendingFragments();
+		return ByteBuffer.wrap(payload, payloadOffset, payloadLength).slice().asReadOnlyBuffer();
 	}
 
-	public byte[] getHeaderBytes() {
-		short header = 0;
-
-		header |= getFin() ? 0x8000 : 0;
-		// IMPL set RSV
-		header |= (getOpcode().getValue() << 8);
-
-		if (payload.length <= 125) {
-			header |= payload.length;
-		} else if (payload.length <= 65535) {
-			header |= 126;
-		} else {
-			header |= 127;
+	/**
+	 * Copies the given range of the payload into the destination array.
+	 * 
+	 * @param offset
+	 *            offset within the payload
+	 * @param destination
+	 * @param destinationOffset
+	 * @param length
+	 */
+	public void copyPayload(int offset, byte[] destination, int destinationOffset, int length) {
+		joinPendingFragments();
+		if (offset < 0 || length < 0 || offset > payloadLength - length) {
+			throw new IndexOutOfBoundsException("Range " + offset + "+" + length + " exceeds payload of length " + payloadLength);
 		}
-		ByteBuffer messageHeader = ByteBuffer.allocate(16);
-		messageHeader.putShort(header);
-
-		if (payload.length <= 65535 && payload.length > 125) {
-			messageHeader.putShort((short) (0xFFFF & payload.length));
-		} else if (payload.length > 65535) {
-			messageHeader.putLong(payload.length);
-		} else {
-			//No length field needed, already encoded in header
+		System.arraycopy(payload, payloadOffset + offset, destination, destinationOffset, length);
+	}
+
+	public int getPayloadLength() {
+		return payloadLength + pendingLength;
+	}
+
+	/**
+	 * Decodes the payload without creating an intermediate copy.
+	 * 
+	 * @param charset
+	 * @return the payload as {@link String}
+	 */
+	public String getPayloadAsString(Charset charset) {
+		joinPendingFragments();
+		return new String(payload, payloadOffset, payloadLength, charset);
+	}
+
+	/**
+	 * Writes the payload to the given stream without creating an intermediate
+	 * copy.
+	 * 
+	 * @param outputStream
+	 * @throws IOException
+	 */
+	public void writePayload(OutputStream outputStream) throws IOException {
+		writePayload(outputStream, 0, getPayloadLength());
+	}
+
+	/**
+	 * Writes the given range of the payload to the given stream without
+	 * creating an intermediate copy.
+	 * 
+	 * @param outputStream
+	 * @param offset
+	 *            offset within the payload
+	 * @param length
+	 * @throws IOException
+	 */
+	public void writePayload(OutputStream outputStream, int offset, int length) throws IOException {
+		joinPendingFragments();
+		if (offset < 0 || length < 0 || offset > payloadLength - length) {
+			throw new IndexOutOfBoundsException("Range " + offset + "+" + length + " exceeds payload of length " + payloadLength);
 		}
+		outputStream.write(payload, payloadOffset + offset, length);
+	}
+
+	@Override
+	public String toString() {
+		joinPendingFragments();
+		return "Opcode: " + getOpcode() + "(" + getOpcode().getValue() + ")," + System.lineSeparator() + "Payload (" + payloadLength + " bytes):" + System.lineSeparator()
+				+ dumpPayload(payload, payloadOffset, payloadLength);
+	}
+
+	/**
+	 * Dumps at most {@link #TO_STRING_MAX_PAYLOAD_BYTES} of the given payload
+	 * for logging, so that the cost of a log statement does not grow with the
+	 * size of the frame.
+	 *
+	 * @return the hex dump, followed by "..." if the payload was truncated
+	 */
+	static String dumpPayload(byte[] payload, int offset, int length) {
+		int dumpLength = Math.min(length, TO_STRING_MAX_PAYLOAD_BYTES);
+		String dump = HexString.dump(Arrays.copyOfRange(payload, offset, offset + dumpLength));
+		return dumpLength < length ? dump + System.lineSeparator() + "..." : dump;
+	}
+
+	/**
+	 * @return the length of the encoded header of this frame
+	 */
+	public int getHeaderLength() {
+		return FrameHeader.getEncodedLength(getPayloadLength());
+	}
 
-		messageHeader.flip();
-		byte [] toWrite = new byte [messageHeader.remaining()];
-		messageHeader.get(toWrite);
-		return toWrite;
+	/**
+	 * Encodes the header of this frame into the given buffer without
+	 * allocating.
+	 * 
+	 * @param buffer
+	 * @param offset
+	 * @return the number of bytes written
+	 */
+	public int writeHeader(byte[] buffer, int offset) {
+		return FrameHeader.encode(fin, rsv1, rsv2, rsv3, opcode, getPayloadLength(), buffer, offset);
+	}
+
+	public byte[] getHeaderBytes() {
+		byte[] header = new byte[getHeaderLength()];
+		writeHeader(header, 0);
+		return header;
 	}
 	
 }
@@ -0,0 +1,283 @@
+package de.persosim.websocket;
+
+import java.nio.ByteBuffer;
+
+import org.globaltester.logging.BasicLogger;
+import org.globaltester.logging.tags.LogLevel;
+import org.globaltester.logging.tags.LogTag;
+
+import de.persosim.simulator.log.PersoSimLogTags;
+import de.persosim.websocket.Frame.Opcode;
+
+/**
+ * Incremental decoder for WebSocket frames. Input is passed in arbitrary
+ * chunks, the decoder keeps the state of partially received headers and
+ * payloads between calls and never blocks.
+ * <p>
+ * {@link #decodeFrame(ByteBuffer)} returns single frames,
+ * {@link #decode(ByteBuffer)} additionally joins fragmented data messages and
+ * returns control frames as they arrive.
+ * <p>
+ * Frame and message sizes are checked against the configured limits as soon
+ * as the header is complete, before the payload is allocated. The payload of
+ * each frame is reserved in the {@link InboundBudget}. Returned frames and
+ * messages keep their reservation, the caller releases
+ * {@link Frame#getPayloadLength()} bytes when done with them.
+ */
+public class FrameDecoder
+{
+
+	/**
+	 * Largest payload that can be held in a single byte array
+	 */
+	static final long MAX_PAYLOAD_ARRAY_LENGTH = Integer.MAX_VALUE - 8L;
+
+	/**
+	 * Default maximum payload length of a single received frame
+	 */
+	public static final int DEFAULT_MAX_FRAME_SIZE = 1024 * 1024;
+
+	/**
+	 * Default maximum payload length of a received message, all fragments
+	 * joined. The largest remote IFD messages carry extended length APDUs as
+	 * hex strings and stay well below this.
+	 */
+	public static final int DEFAULT_MAX_MESSAGE_SIZE = 1024 * 1024;
+
+	private FrameHeader header = new FrameHeader();
+	private byte[] headerBuffer = new byte[FrameHeader.MAX_LENGTH];
+	private int headerFilled = 0;
+
+	/**
+	 * Payload of the current frame, null while the header is incomplete
+	 */
+	private byte[] payload = null;
+	private int payloadFilled = 0;
+
+	private Frame joinedFrame = null;
+	private boolean rsv1Allowed = false;
+
+	private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+	private int maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+	private InboundBudget inboundBudget = new InboundBudget(InboundBudget.DEFAULT_LIMIT);
+
+	/**
+	 * @param rsv1Allowed
+	 *            true, if an extension using the RSV1 bit (permessage-deflate)
+	 *            has been negotiated
+	 */
+	public void setRsv1Allowed(boolean rsv1Allowed)
+	{
+		this.rsv1Allowed = rsv1Allowed;
+	}
+
+	/**
+	 * @param maxFrameSize
+	 *            the maximum payload length of a single received frame
+	 */
+	public void setMaxFrameSize(int maxFrameSize)
+	{
+		if (maxFrameSize < Frame.MAX_CONTROL_PAYLOAD_LENGTH || maxFrameSize > MAX_PAYLOAD_ARRAY_LENGTH) {
+			throw new IllegalArgumentException("Maximum frame size must be between " + Frame.MAX_CONTROL_PAYLOAD_LENGTH + " and " + MAX_PAYLOAD_ARRAY_LENGTH);
+		}
+		this.maxFrameSize = maxFrameSize;
+	}
+
+	/**
+	 * @param maxMessageSize
+	 *            the maximum payload length of a received message, all
+	 *            fragments joined
+	 */
+	public void setMaxMessageSize(int maxMessageSize)
+	{
+		if (maxMessageSize < 1 || maxMessageSize > MAX_PAYLOAD_ARRAY_LENGTH) {
+			throw new IllegalArgumentException("Maximum message size must be between 1 and " + MAX_PAYLOAD_ARRAY_LENGTH);
+		}
+		this.maxMessageSize = maxMessageSize;
+	}
+
+	public int getMaxMessageSize()
+	{
+		return maxMessageSize;
+	}
+
+	/**
+	 * @param inboundBudget
+	 *            the budget to reserve the received payloads in
+	 */
+	public void setInboundBudget(InboundBudget inboundBudget)
+	{
+		this.inboundBudget = inboundBudget;
+	}
+
+	public InboundBudget getInboundBudget()
+	{
+		return inboundBudget;
+	}
+
+	/**
+	 * @return true, if a frame or a fragmented message has been started but
+	 *         not completed
+	 */
+	public boolean isPartial()
+	{
+		return headerFilled > 0 || joinedFrame != null;
+	}
+
+	/**
+	 * Consumes input until a control frame or a complete data message is
+	 * available.
+	 *
+	 * @param input
+	 *            the received data, its position is advanced
+	 * @return the next control frame or data message or null if all input is
+	 *         consumed without completing one
+	 * @throws WebSocketProtocolException
+	 *             if the input violates the protocol
+	 */
+	public Frame decode(ByteBuffer input) throws WebSocketProtocolException
+	{
+		Frame currentFrame;
+		while ((currentFrame = decodeFrame(input)) != null) {
+			if (currentFrame.getOpcode().isControl()) {
+				return currentFrame;
+			}
+
+			if (joinedFrame == null) {
+				if (!Opcode.CONTINUATION.equals(currentFrame.getOpcode())) {
+					BasicLogger.log("Starting new joined frame", LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+					joinedFrame = currentFrame;
+				}
+				else {
+					BasicLogger.log("Expected normal frame but got " + currentFrame.getOpcode().toString(), LogLevel.WARN, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+					inboundBudget.release(currentFrame.getPayloadLength());
+				}
+			}
+			else {
+				if (Opcode.CONTINUATION.equals(currentFrame.getOpcode())) {
+					BasicLogger.log("Appending to joined frame", LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+					joinedFrame.appendFrame(currentFrame);
+				}
+				else {
+					BasicLogger.log("Expected contination frame but got " + currentFrame.getOpcode().toString(), LogLevel.WARN, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+					inboundBudget.release(currentFrame.getPayloadLength());
+				}
+			}
+
+			if (joinedFrame != null && joinedFrame.getFin()) {
+				BasicLogger.log("Joined frame complete", LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+				Frame message = joinedFrame;
+				joinedFrame = null;
+				return message;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Consumes input until a single frame is complete.
+	 *
+	 * @param input
+	 *            the received data, its position is advanced
+	 * @return the next frame or null if all input is consumed without
+	 *         completing one
+	 * @throws WebSocketProtocolException
+	 *             if the input violates the protocol
+	 */
+	public Frame decodeFrame(ByteBuffer input) throws WebSocketProtocolException
+	{
+		if (payload == null && !decodeHeader(input)) {
+			return null;
+		}
+
+		int length = Math.min(input.remaining(), payload.length - payloadFilled);
+		input.get(payload, payloadFilled, length);
+		if (header.isMasked()) {
+			FrameMasking.applyMask(payload, payloadFilled, length, header.getMaskingKey(), payloadFilled);
+		}
+		payloadFilled += length;
+
+		if (payloadFilled < payload.length) {
+			return null;
+		}
+
+		BasicLogger.log("Received frame payload (" + payload.length + " bytes):" + System.lineSeparator() + Frame.dumpPayload(payload, 0, payload.length), LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+
+		Frame result = new Frame();
+		header.applyTo(result);
+		result.setPayload(payload);
+
+		payload = null;
+		headerFilled = 0;
+		return result;
+	}
+
+	/**
+	 * @return true, if the header is complete and the payload array is
+	 *         allocated
+	 */
+	private boolean decodeHeader(ByteBuffer input) throws WebSocketProtocolException
+	{
+		while (headerFilled < FrameHeader.MIN_LENGTH) {
+			if (!input.hasRemaining()) {
+				return false;
+			}
+			headerBuffer[headerFilled++] = input.get();
+		}
+
+		int headerLength = FrameHeader.getEncodedLength(headerBuffer[1]);
+		int length = Math.min(input.remaining(), headerLength - headerFilled);
+		input.get(headerBuffer, headerFilled, length);
+		headerFilled += length;
+
+		if (headerFilled < headerLength) {
+			return false;
+		}
+
+		try {
+			header.decode(headerBuffer, 0, headerLength);
+		}
+		catch (IllegalArgumentException e) {
+			throw new WebSocketProtocolException(WebSocketProtocol.CLOSE_PROTOCOL_ERROR, "Invalid frame header: " + e.getMessage());
+		}
+
+		BasicLogger.log("Received Frame Header:" + System.lineSeparator() + header, LogLevel.DEBUG, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+
+		checkHeader();
+
+		inboundBudget.reserve(header.getPayloadLength());
+		payload = new byte[(int) header.getPayloadLength()];
+		payloadFilled = 0;
+		return true;
+	}
+
+	private void checkHeader() throws WebSocketProtocolException
+	{
+		Opcode opcode = header.getOpcode();
+
+		if (header.getRSV2() || header.getRSV3()) {
+			throw new WebSocketProtocolException(WebSocketProtocol.CLOSE_PROTOCOL_ERROR, "Unexpected reserved bits RSV2/RSV3");
+		}
+		// RSV1 marks compressed messages and is only allowed on the first frame of a data message
+		if (header.getRSV1() && (!rsv1Allowed || opcode.isControl() || opcode == Opcode.CONTINUATION)) {
+			throw new WebSocketProtocolException(WebSocketProtocol.CLOSE_PROTOCOL_ERROR, "Unexpected reserved bit RSV1 on " + opcode + " frame");
+		}
+		if (opcode.isControl() && (!header.getFin() || header.getPayloadLength() > Frame.MAX_CONTROL_PAYLOAD_LENGTH)) {
+			throw new WebSocketProtocolException(WebSocketProtocol.CLOSE_PROTOCOL_ERROR, "Control frames must not be fragmented or exceed " + Frame.MAX_CONTROL_PAYLOAD_LENGTH + " bytes");
+		}
+		if (header.getPayloadLength() > maxFrameSize) {
+			throw new WebSocketProtocolException(WebSocketProtocol.CLOSE_MESSAGE_TOO_BIG, "Frame payload length " + header.getPayloadLength() + " exceeds the maximum of " + maxFrameSize);
+		}
+		if (!opcode.isControl()) {
+			// fragments not belonging to the current message are discarded later
+			long messageLength = header.getPayloadLength();
+			if (opcode == Opcode.CONTINUATION && joinedFrame != null) {
+				messageLength += joinedFrame.getPayloadLength();
+			}
+			if (messageLength > maxMessageSize) {
+				throw new WebSocketProtocolException(WebSocketProtocol.CLOSE_MESSAGE_TOO_BIG, "Message length " + messageLength + " exceeds the maximum of " + maxMessageSize);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,317 @@
+package de.persosim.websocket;
+
+import de.persosim.websocket.Frame.Opcode;
+
+/**
+ * Reusable representation of a WebSocket frame header (RFC 6455 5.2).
+ * <p>
+ * Encoding and decoding work on caller provided buffers and do not allocate,
+ * so one instance can be reused for all frames of a connection.
+ */
+public class FrameHeader
+{
+
+	/**
+	 * Minimum length of an encoded header
+	 */
+	public static final int MIN_LENGTH = 2;
+
+	/**
+	 * Maximum length of an encoded header, including extended payload length
+	 * and masking key
+	 */
+	public static final int MAX_LENGTH = 14;
+
+	private static final int FIN = 0x80;
+	private static final int RSV1 = 0x40;
+	private static final int RSV2 = 0x20;
+	private static final int RSV3 = 0x10;
+	private static final int OPCODE = 0x0F;
+	private static final int MASK = 0x80;
+	private static final int LENGTH = 0x7F;
+	private static final int LENGTH_16_BIT = 126;
+	private static final int LENGTH_64_BIT = 127;
+	private static final int MAX_7_BIT_LENGTH = 125;
+	private static final int MAX_16_BIT_LENGTH = 0xFFFF;
+
+	private boolean fin;
+	private boolean rsv1;
+	private boolean rsv2;
+	private boolean rsv3;
+	private Opcode opcode;
+	private boolean masked;
+	private long payloadLength;
+	private final byte[] maskingKey = new byte[4];
+
+	/**
+	 * Determines the complete header length from the first two header bytes.
+	 *
+	 * @param secondByte
+	 *            the second header byte, containing mask bit and 7 bit length
+	 * @return the length of the header in bytes
+	 */
+	public static int getEncodedLength(byte secondByte)
+	{
+		int length = MIN_LENGTH;
+		switch (secondByte & LENGTH) {
+			case LENGTH_16_BIT:
+				length += 2;
+				break;
+			case LENGTH_64_BIT:
+				length += 8;
+				break;
+			default:
+				break;
+		}
+		if ((secondByte & MASK) != 0) {
+			length += 4;
+		}
+		return length;
+	}
+
+	/**
+	 * @param payloadLength
+	 * @return the length of an unmasked header for the given payload length
+	 */
+	public static int getEncodedLength(long payloadLength)
+	{
+		if (payloadLength <= MAX_7_BIT_LENGTH) {
+			return MIN_LENGTH;
+		}
+		else if (payloadLength <= MAX_16_BIT_LENGTH) {
+			return MIN_LENGTH + 2;
+		}
+		return MIN_LENGTH + 8;
+	}
+
+	/**
+	 * Encodes an unmasked header into the given buffer.
+	 *
+	 * @return the number of bytes written
+	 */
+	public static int encode(boolean fin, boolean rsv1, boolean rsv2, boolean rsv3, Opcode opcode, long payloadLength, byte[] buffer, int offset)
+	{
+		if (payloadLength < 0) {
+			throw new IllegalArgumentException("Payload length must not be negative");
+		}
+		int length = getEncodedLength(payloadLength);
+		if (offset < 0 || offset > buffer.length - length) {
+			throw new IndexOutOfBoundsException("Buffer too small for header of length " + length);
+		}
+
+		int first = opcode.getValue();
+		first |= fin ? FIN : 0;
+		first |= rsv1 ? RSV1 : 0;
+		first |= rsv2 ? RSV2 : 0;
+		first |= rsv3 ? RSV3 : 0;
+		buffer[offset] = (byte) first;
+
+		if (length == MIN_LENGTH) {
+			buffer[offset + 1] = (byte) payloadLength;
+		}
+		else if (length == MIN_LENGTH + 2) {
+			buffer[offset + 1] = LENGTH_16_BIT;
+			buffer[offset + 2] = (byte) (payloadLength >>> 8);
+			buffer[offset + 3] = (byte) payloadLength;
+		}
+		else {
+			buffer[offset + 1] = LENGTH_64_BIT;
+			for (int i = 0; i < 8; i++) {
+				buffer[offset + 2 + i] = (byte) (payloadLength >>> (56 - 8 * i));
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Encodes this header into the given buffer. The masking key is only
+	 * written if this header is masked.
+	 *
+	 * @return the number of bytes written
+	 */
+	public int encode(byte[] buffer, int offset)
+	{
+		int length = encode(fin, rsv1, rsv2, rsv3, opcode, payloadLength, buffer, offset);
+		if (masked) {
+			if (offset + length > buffer.length - maskingKey.length) {
+				throw new IndexOutOfBoundsException("Buffer too small for masking key");
+			}
+			buffer[offset + 1] |= (byte) MASK;
+			System.arraycopy(maskingKey, 0, buffer, offset + length, maskingKey.length);
+			length += maskingKey.length;
+		}
+		return length;
+	}
+
+	/**
+	 * Decodes a header from the given buffer into this instance.
+	 *
+	 * @param buffer
+	 * @param offset
+	 * @param available
+	 *            number of bytes available in buffer starting at offset
+	 * @return the number of bytes consumed or 0 if the header is not yet
+	 *         complete, in this case this instance is not modified
+	 * @throws IllegalArgumentException
+	 *             if the header is invalid
+	 */
+	public int decode(byte[] buffer, int offset, int available)
+	{
+		if (available < MIN_LENGTH) {
+			return 0;
+		}
+		int length = getEncodedLength(buffer[offset + 1]);
+		if (available < length) {
+			return 0;
+		}
+
+		int first = buffer[offset] & 0xFF;
+		int second = buffer[offset + 1] & 0xFF;
+
+		Opcode decodedOpcode = Opcode.forValue(first & OPCODE);
+
+		long decodedLength = second & LENGTH;
+		int position = offset + MIN_LENGTH;
+		if (decodedLength == LENGTH_16_BIT) {
+			decodedLength = ((buffer[position] & 0xFF) << 8) | (buffer[position + 1] & 0xFF);
+			position += 2;
+		}
+		else if (decodedLength == LENGTH_64_BIT) {
+			decodedLength = 0;
+			for (int i = 0; i < 8; i++) {
+				decodedLength = (decodedLength << 8) | (buffer[position + i] & 0xFF);
+			}
+			position += 8;
+			if (decodedLength < 0) {
+				throw new IllegalArgumentException("Most significant bit of 64 bit payload length must be 0");
+			}
+		}
+
+		fin = (first & FIN) != 0;
+		rsv1 = (first & RSV1) != 0;
+		rsv2 = (first & RSV2) != 0;
+		rsv3 = (first & RSV3) != 0;
+		opcode = decodedOpcode;
+		masked = (second & MASK) != 0;
+		payloadLength = decodedLength;
+		if (masked) {
+			System.arraycopy(buffer, position, maskingKey, 0, maskingKey.length);
+		}
+		return length;
+	}
+
+	/**
+	 * Transfers the header fields, except for the payload length, to the given
+	 * frame.
+	 *
+	 * @param frame
+	 */
+	public void applyTo(Frame frame)
+	{
+		frame.setFin(fin);
+		frame.setRSV1(rsv1);
+		frame.setRSV2(rsv2);
+		frame.setRSV3(rsv3);
+		frame.setOpcode(opcode);
+	}
+
+	public boolean getFin()
+	{
+		return fin;
+	}
+
+	public void setFin(boolean fin)
+	{
+		this.fin = fin;
+	}
+
+	public boolean getRSV1()
+	{
+		return rsv1;
+	}
+
+	public void setRSV1(boolean rsv1)
+	{
+		this.rsv1 = rsv1;
+	}
+
+	public boolean getRSV2()
+	{
+		return rsv2;
+	}
+
+	public void setRSV2(boolean rsv2)
+	{
+		this.rsv2 = rsv2;
+	}
+
+	public boolean getRSV3()
+	{
+		return rsv3;
+	}
+
+	public void setRSV3(boolean rsv3)
+	{
+		this.rsv3 = rsv3;
+	}
+
+	public Opcode getOpcode()
+	{
+		return opcode;
+	}
+
+	public void setOpcode(Opcode opcode)
+	{
+		this.opcode = opcode;
+	}
+
+	public boolean isMasked()
+	{
+		return masked;
+	}
+
+	public long getPayloadLength()
+	{
+		return payloadLength;
+	}
+
+	public void setPayloadLength(long payloadLength)
+	{
+		this.payloadLength = payloadLength;
+	}
+
+	/**
+	 * @return the internal masking key array, only valid if
+	 *         {@link #isMasked()}
+	 */
+	public byte[] getMaskingKey()
+	{
+		return maskingKey;
+	}
+
+	/**
+	 * Sets the masking key, a null value removes the mask.
+	 *
+	 * @param maskingKey
+	 */
+	public void setMaskingKey(byte[] maskingKey)
+	{
+		if (maskingKey == null) {
+			masked = false;
+			return;
+		}
+		if (maskingKey.length != 4) {
+			throw new IllegalArgumentException("Masking key must have a length of 4 bytes");
+		}
+		System.arraycopy(maskingKey, 0, this.maskingKey, 0, 4);
+		masked = true;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "FIN: " + fin + System.lineSeparator() + "RSV: " + (rsv1 ? 1 : 0) + (rsv2 ? 1 : 0) + (rsv3 ? 1 : 0) + System.lineSeparator() + "Opcode: " + opcode + System.lineSeparator() + "Mask: " + masked
+				+ System.lineSeparator() + "Payload Length: " + payloadLength;
+	}
+
+}
@@ -0,0 +1,78 @@
+package de.persosim.websocket;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Applies the RFC 6455 payload masking. As masking is a plain XOR with the
+ * repeated 4 byte key, the same operation masks and unmasks the data.
+ * <p>
+ * The bulk of the data is processed in 8 byte words using the masking key
+ * expanded to a long, only the unaligned head and tail are handled bytewise.
+ */
+public final class FrameMasking
+{
+
+	private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+	private FrameMasking()
+	{
+		// static helper methods only
+	}
+
+	/**
+	 * Expands the 4 byte masking key into a long containing the key twice.
+	 *
+	 * @param maskingKey
+	 *            the 4 byte masking key
+	 * @return the expanded key as used for masking 8 byte words
+	 */
+	public static long expandKey(byte[] maskingKey)
+	{
+		long key = ((maskingKey[0] & 0xFFL) << 24) | ((maskingKey[1] & 0xFFL) << 16) | ((maskingKey[2] & 0xFFL) << 8) | (maskingKey[3] & 0xFFL);
+		return (key << 32) | key;
+	}
+
+	/**
+	 * Masks or unmasks the given range of data in place.
+	 *
+	 * @param data
+	 *            the buffer to work on
+	 * @param offset
+	 *            offset of the first byte to process in data
+	 * @param length
+	 *            number of bytes to process
+	 * @param maskingKey
+	 *            the 4 byte masking key
+	 * @param payloadPosition
+	 *            position of the first processed byte within the frame
+	 *            payload, this allows processing a payload in several chunks
+	 */
+	public static void applyMask(byte[] data, int offset, int length, byte[] maskingKey, long payloadPosition)
+	{
+		if (maskingKey.length != 4) {
+			throw new IllegalArgumentException("Masking key must have a length of 4 bytes");
+		}
+
+		int position = 0;
+
+		// process bytes up to the next key boundary
+		while (position < length && ((payloadPosition + position) & 3) != 0) {
+			data[offset + position] ^= maskingKey[(int) ((payloadPosition + position) & 3)];
+			position++;
+		}
+
+		long expandedKey = expandKey(maskingKey);
+		for (; position <= length - Long.BYTES; position += Long.BYTES) {
+			long word = (long) LONG_VIEW.get(data, offset + position);
+			LONG_VIEW.set(data, offset + position, word ^ expandedKey);
+		}
+
+		// remaining tail, key is aligned at this point
+		for (int keyIndex = 0; position < length; position++, keyIndex++) {
+			data[offset + position] ^= maskingKey[keyIndex & 3];
+		}
+	}
+
+}
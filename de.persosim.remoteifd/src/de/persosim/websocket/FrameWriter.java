@@ -0,0 +1,99 @@
+package de.persosim.websocket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Serializes frames into one buffer before handing them to the underlying
+ * stream. The TLS output stream creates at least one record per write call,
+ * so writing header and payload separately results in separate records. This
+ * writer passes a complete frame, or several frames appended before a
+ * {@link #flush()}, in one write call.
+ * <p>
+ * Payloads exceeding the buffer are written directly after the buffered part,
+ * they span several records anyway.
+ */
+public class FrameWriter
+{
+
+	/**
+	 * Maximum plaintext length of one TLS record
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 16384;
+
+	private OutputStream outputStream;
+	private byte[] buffer;
+	private int count = 0;
+
+	public FrameWriter(OutputStream outputStream)
+	{
+		this(outputStream, DEFAULT_BUFFER_SIZE);
+	}
+
+	public FrameWriter(OutputStream outputStream, int bufferSize)
+	{
+		if (bufferSize < FrameHeader.MAX_LENGTH) {
+			throw new IllegalArgumentException("Buffer must at least hold the largest frame header");
+		}
+		this.outputStream = outputStream;
+		this.buffer = new byte[bufferSize];
+	}
+
+	/**
+	 * Appends the frame to the buffer. Only the parts of the frame that do not
+	 * fit into the buffer are written to the underlying stream immediately.
+	 * 
+	 * @param frame
+	 * @throws IOException
+	 */
+	public synchronized void append(Frame frame) throws IOException
+	{
+		if (count + frame.getHeaderLength() > buffer.length) {
+			writeBuffer();
+		}
+
+		count += frame.writeHeader(buffer, count);
+
+		int payloadLength = frame.getPayloadLength();
+		int bufferedPayloadLength = Math.min(payloadLength, buffer.length - count);
+		frame.copyPayload(0, buffer, count, bufferedPayloadLength);
+		count += bufferedPayloadLength;
+
+		if (bufferedPayloadLength < payloadLength) {
+			writeBuffer();
+			frame.writePayload(outputStream, bufferedPayloadLength, payloadLength - bufferedPayloadLength);
+		}
+	}
+
+	/**
+	 * Writes all buffered data in one call and flushes the underlying stream.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException
+	{
+		writeBuffer();
+		outputStream.flush();
+	}
+
+	/**
+	 * Writes a single complete message frame and flushes the underlying stream.
+	 * 
+	 * @param frame
+	 * @throws IOException
+	 */
+	public synchronized void write(Frame frame) throws IOException
+	{
+		append(frame);
+		flush();
+	}
+
+	private void writeBuffer() throws IOException
+	{
+		if (count > 0) {
+			outputStream.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+
+}
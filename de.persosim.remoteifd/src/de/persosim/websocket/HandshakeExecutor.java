@@ -0,0 +1,267 @@
+package de.persosim.websocket;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.globaltester.logging.BasicLogger;
+import org.globaltester.logging.tags.LogLevel;
+import org.globaltester.logging.tags.LogTag;
+
+import de.persosim.simulator.log.PersoSimLogTags;
+
+/**
+ * Runs the connections accepted by the server on a bounded pool of workers,
+ * so that the accepting thread is never blocked by a client.
+ * <p>
+ * Each TLS handshake has a deadline, the socket of a handshake that is not
+ * finished in time is closed, which makes the blocked handshake fail. A
+ * connection is rejected if all workers are busy.
+ * <p>
+ * A worker serves its connection until it is closed, including the session
+ * after the handshake. The pool size therefore limits the concurrent
+ * connections, not only the concurrent handshakes: an established session
+ * occupies one worker for its whole lifetime, leaving one less for
+ * handshakes.
+ */
+public class HandshakeExecutor
+{
+
+	public static final int DEFAULT_POOL_SIZE = 4;
+	public static final int DEFAULT_DEADLINE_MILLIS = 10000;
+
+	private static final long IDLE_WORKER_KEEP_ALIVE_SECONDS = 60;
+
+	private final int deadlineMillis;
+	private final ThreadPoolExecutor workers;
+	private final ScheduledThreadPoolExecutor deadlines;
+	private final Set<Socket> handshakingSockets = Collections.synchronizedSet(new HashSet<>());
+	private final AtomicInteger threadsCreated = new AtomicInteger();
+	private final ThreadLocal<Boolean> worker = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+	private final AtomicLong handshakes = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong rejections = new AtomicLong();
+
+	/**
+	 * @param name
+	 *            prefix for the names of the worker threads
+	 * @param poolSize
+	 *            maximum number of connections handled at the same time, both
+	 *            established sessions and the ones still in the handshake
+	 * @param deadlineMillis
+	 *            time in which a TLS handshake must be completed
+	 */
+	public HandshakeExecutor(String name, int poolSize, int deadlineMillis)
+	{
+		if (poolSize < 1) {
+			throw new IllegalArgumentException("Pool size must be positive");
+		}
+		if (deadlineMillis < 1) {
+			throw new IllegalArgumentException("Handshake deadline must be positive");
+		}
+		this.deadlineMillis = deadlineMillis;
+
+		workers = new ThreadPoolExecutor(0, poolSize, IDLE_WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + threadsCreated.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		deadlines = new ScheduledThreadPoolExecutor(1, runnable -> {
+			Thread thread = new Thread(runnable, name + "-Deadline");
+			thread.setDaemon(true);
+			return thread;
+		});
+		deadlines.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Runs the connection task on a free worker. If no worker is free the
+	 * connection is rejected and the caller is responsible for closing it.
+	 *
+	 * @return true if the task was started, false if it was rejected
+	 */
+	public boolean execute(Runnable connection)
+	{
+		try {
+			workers.execute(() -> {
+				worker.set(Boolean.TRUE);
+				runLogged(connection);
+			});
+			return true;
+		}
+		catch (RejectedExecutionException e) {
+			rejections.incrementAndGet();
+			BasicLogger.log("Connection rejected, all workers are busy (" + getStatistics() + ")", LogLevel.WARN,
+					new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+			return false;
+		}
+	}
+
+	private static void runLogged(Runnable connection)
+	{
+		try {
+			connection.run();
+		}
+		catch (RuntimeException e) {
+			BasicLogger.logException("Handling of connection failed", e, LogLevel.ERROR, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+		}
+	}
+
+	/**
+	 * Performs the handshake, to be called by the connection task. The socket
+	 * is closed if the deadline expires before the handshake is done.
+	 *
+	 * @return the result of the handshake, false if the deadline expired or
+	 *         the executor is shut down
+	 */
+	public boolean performHandshake(Socket socket, TlsHandshaker handshaker)
+	{
+		AtomicBoolean expired = new AtomicBoolean();
+		ScheduledFuture<?> deadline;
+		// shutdown() either rejects the deadline or closes the socket
+		synchronized (handshakingSockets) {
+			try {
+				deadline = deadlines.schedule(() -> {
+					expired.set(true);
+					closeQuietly(socket);
+				}, deadlineMillis, TimeUnit.MILLISECONDS);
+			}
+			catch (RejectedExecutionException e) {
+				rejections.incrementAndGet();
+				BasicLogger.log("Handshake not started, the executor is shut down", LogLevel.DEBUG, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+				return false;
+			}
+			handshakingSockets.add(socket);
+		}
+
+		boolean result;
+		try {
+			result = handshaker.performHandshake();
+		}
+		finally {
+			deadline.cancel(false);
+			handshakingSockets.remove(socket);
+		}
+
+		if (expired.get()) {
+			timeouts.incrementAndGet();
+			BasicLogger.log("TLS handshake not completed within " + deadlineMillis + " ms, connection dropped (" + getStatistics() + ")", LogLevel.WARN,
+					new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+			return false;
+		}
+		if (result) {
+			handshakes.incrementAndGet();
+		}
+		else {
+			failures.incrementAndGet();
+		}
+		return result;
+	}
+
+	static void closeQuietly(Socket socket)
+	{
+		try {
+			socket.close();
+		}
+		catch (IOException e) {
+			// NOSONAR: the connection is dropped anyway
+		}
+	}
+
+	/**
+	 * Closes the sockets of all running handshakes and stops the workers. The
+	 * connections already past the handshake are not closed.
+	 */
+	public void shutdown()
+	{
+		if (workers.isShutdown()) {
+			return;
+		}
+		workers.shutdown();
+		synchronized (handshakingSockets) {
+			deadlines.shutdownNow();
+			handshakingSockets.forEach(HandshakeExecutor::closeQuietly);
+		}
+		BasicLogger.log("Handshake executor statistics: " + getStatistics(), LogLevel.DEBUG, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+	}
+
+	/**
+	 * Waits for the completion of the running connections after
+	 * {@link #shutdown()}.
+	 *
+	 * @return true, if all connections completed within the timeout
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		return workers.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * @return true, if the current thread is a worker of this executor
+	 */
+	public boolean isWorkerThread()
+	{
+		return worker.get();
+	}
+
+	/**
+	 * @return the number of successful handshakes
+	 */
+	public long getHandshakes()
+	{
+		return handshakes.get();
+	}
+
+	/**
+	 * @return the number of handshakes that failed before their deadline
+	 */
+	public long getFailures()
+	{
+		return failures.get();
+	}
+
+	/**
+	 * @return the number of handshakes dropped at their deadline
+	 */
+	public long getTimeouts()
+	{
+		return timeouts.get();
+	}
+
+	/**
+	 * @return the number of connections rejected because all workers were
+	 *         busy
+	 */
+	public long getRejections()
+	{
+		return rejections.get();
+	}
+
+	/**
+	 * @return the number of currently running handshakes
+	 */
+	public int getActiveHandshakes()
+	{
+		return handshakingSockets.size();
+	}
+
+	public String getStatistics()
+	{
+		return handshakes.get() + " handshakes, " + failures.get() + " failed, " + timeouts.get() + " timed out, " + rejections.get() + " rejected";
+	}
+
+}
@@ -1,19 +1,41 @@
 package de.persosim.websocket;
 
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStream;
 
 public abstract class HandshakeHandler {
 	
 	OutputStream outputStream;
-	InputStreamReader reader;
+	InputStream inputStream;
+	PerMessageDeflate perMessageDeflate;
+	String subprotocol;
 
-	public HandshakeHandler(OutputStream outputStream, InputStreamReader reader) {
+	/**
+	 * @param outputStream
+	 * @param inputStream
+	 *            the stream of the connection, implementations must not read
+	 *            beyond the handshake as the frames follow on the same stream
+	 */
+	public HandshakeHandler(OutputStream outputStream, InputStream inputStream) {
 		super();
 		this.outputStream = outputStream;
-		this.reader = reader;
+		this.inputStream = inputStream;
 	}
 	
 	abstract boolean handle();
+	
+	/**
+	 * @return the permessage-deflate extension negotiated by {@link #handle()} or null if not in use
+	 */
+	public PerMessageDeflate getPerMessageDeflate() {
+		return perMessageDeflate;
+	}
+	
+	/**
+	 * @return the subprotocol selected by {@link #handle()} from the Sec-WebSocket-Protocol header or null if none was agreed on
+	 */
+	public String getSubprotocol() {
+		return subprotocol;
+	}
 
 }
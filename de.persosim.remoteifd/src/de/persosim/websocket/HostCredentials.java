@@ -0,0 +1,200 @@
+package de.persosim.websocket;
+
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+
+import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
+import org.bouncycastle.tls.Certificate;
+import org.bouncycastle.tls.CertificateEntry;
+import org.bouncycastle.tls.HashAlgorithm;
+import org.bouncycastle.tls.SignatureAndHashAlgorithm;
+import org.bouncycastle.tls.TlsCredentialedDecryptor;
+import org.bouncycastle.tls.TlsCredentialedSigner;
+import org.bouncycastle.tls.TlsUtils;
+import org.bouncycastle.tls.crypto.TlsCrypto;
+import org.bouncycastle.tls.crypto.TlsCryptoParameters;
+import org.bouncycastle.tls.crypto.impl.bc.BcDefaultTlsCredentialedDecryptor;
+import org.bouncycastle.tls.crypto.impl.bc.BcDefaultTlsCredentialedSigner;
+import org.bouncycastle.tls.crypto.impl.bc.BcTlsCrypto;
+import org.bouncycastle.tls.crypto.impl.jcajce.JcaDefaultTlsCredentialedSigner;
+import org.bouncycastle.tls.crypto.impl.jcajce.JcaTlsCrypto;
+import org.bouncycastle.tls.crypto.impl.jcajce.JceDefaultTlsCredentialedDecryptor;
+
+/**
+ * Holds the host credentials of a {@link RemoteIfdConfigManager} in the form
+ * needed by the TLS servers.
+ * <p>
+ * The private key is read from the config manager and converted only once,
+ * together with the host certificate. All handshakes share one
+ * {@link TlsCrypto} instance, either a {@link BcTlsCrypto} or a
+ * {@link JcaTlsCrypto}. The converted credentials are rebuilt when the config
+ * manager returns a different host certificate, which is the case whenever a
+ * new host key has been generated, or after {@link #invalidate()}.
+ */
+public class HostCredentials
+{
+
+	/**
+	 * Converted host identity, replaced as a whole when it changes
+	 */
+	private static class Converted
+	{
+		private final java.security.cert.Certificate hostCertificate;
+		private final HostKeyType keyType;
+		private final Certificate certificate;
+		private final AsymmetricKeyParameter privateKey;
+		private final PrivateKey javaPrivateKey;
+		private final TlsCredentialedDecryptor decryptor;
+
+		Converted(java.security.cert.Certificate hostCertificate, HostKeyType keyType, Certificate certificate, AsymmetricKeyParameter privateKey,
+				PrivateKey javaPrivateKey, TlsCredentialedDecryptor decryptor)
+		{
+			this.hostCertificate = hostCertificate;
+			this.keyType = keyType;
+			this.certificate = certificate;
+			this.privateKey = privateKey;
+			this.javaPrivateKey = javaPrivateKey;
+			this.decryptor = decryptor;
+		}
+	}
+
+	private final RemoteIfdConfigManager remoteIfdConfig;
+	private final TlsCrypto crypto;
+	private volatile Converted converted;
+
+	public HostCredentials(RemoteIfdConfigManager remoteIfdConfig)
+	{
+		this(remoteIfdConfig, new BcTlsCrypto(new SecureRandom()));
+	}
+
+	/**
+	 * @param crypto
+	 *            either a {@link BcTlsCrypto} or a {@link JcaTlsCrypto}
+	 */
+	public HostCredentials(RemoteIfdConfigManager remoteIfdConfig, TlsCrypto crypto)
+	{
+		if (!(crypto instanceof BcTlsCrypto) && !(crypto instanceof JcaTlsCrypto)) {
+			throw new IllegalArgumentException("Unsupported TLS crypto " + crypto.getClass().getName());
+		}
+		this.remoteIfdConfig = remoteIfdConfig;
+		this.crypto = crypto;
+	}
+
+	/**
+	 * @return the crypto shared by all handshakes using these credentials
+	 */
+	public TlsCrypto getCrypto()
+	{
+		return crypto;
+	}
+
+	/**
+	 * @return the host certificate the credentials were built from
+	 */
+	public java.security.cert.Certificate getHostCertificate()
+	{
+		return current().hostCertificate;
+	}
+
+	/**
+	 * @return the type of the host key
+	 */
+	public HostKeyType getKeyType()
+	{
+		return current().keyType;
+	}
+
+	/**
+	 * @return the host certificate as TLS certificate chain
+	 */
+	public Certificate getCertificate()
+	{
+		return current().certificate;
+	}
+
+	/**
+	 * @return the host private key as Bouncycastle key parameters, null if
+	 *         the JCA crypto is used
+	 */
+	public AsymmetricKeyParameter getPrivateKey()
+	{
+		return current().privateKey;
+	}
+
+	/**
+	 * Creates a signer for the server key exchange. The signer depends on the
+	 * connection context and is therefore not cached, but it reuses the
+	 * converted certificate and key.
+	 * <p>
+	 * RSA keys sign with PKCS#1 v1.5 up to TLS 1.2 and with RSASSA-PSS in TLS
+	 * 1.3, EC keys sign with ECDSA. SHA-256 is used in all cases. TLS 1.3
+	 * also requires the certificate entry form of the chain, with an empty
+	 * request context.
+	 */
+	public TlsCredentialedSigner createSigner(TlsCryptoParameters cryptoParameters)
+	{
+		Converted current = current();
+		Certificate certificate = current.certificate;
+		SignatureAndHashAlgorithm signatureAndHash = new SignatureAndHashAlgorithm(HashAlgorithm.sha256, current.keyType.getSignatureAlgorithm());
+		if (TlsUtils.isTLSv13(cryptoParameters.getServerVersion())) {
+			certificate = new Certificate(TlsUtils.EMPTY_BYTES, new CertificateEntry[] { new CertificateEntry(certificate.getCertificateAt(0), null) });
+			if (current.keyType == HostKeyType.RSA) {
+				signatureAndHash = SignatureAndHashAlgorithm.rsa_pss_rsae_sha256;
+			}
+		}
+		if (crypto instanceof JcaTlsCrypto) {
+			return new JcaDefaultTlsCredentialedSigner(cryptoParameters, (JcaTlsCrypto) crypto, current.javaPrivateKey, certificate, signatureAndHash);
+		}
+		return new BcDefaultTlsCredentialedSigner(cryptoParameters, (BcTlsCrypto) crypto, current.privateKey, certificate, signatureAndHash);
+	}
+
+	/**
+	 * @return the decryptor for the RSA encrypted premaster secret, null if
+	 *         the host key is not an RSA key
+	 */
+	public TlsCredentialedDecryptor getDecryptor()
+	{
+		return current().decryptor;
+	}
+
+	/**
+	 * Drops the converted credentials, they are rebuilt on the next access.
+	 */
+	public void invalidate()
+	{
+		converted = null;
+	}
+
+	private Converted current()
+	{
+		java.security.cert.Certificate hostCertificate = remoteIfdConfig.getHostCertificate();
+		Converted current = converted;
+		if (current != null && (current.hostCertificate == hostCertificate || current.hostCertificate.equals(hostCertificate))) {
+			return current;
+		}
+		synchronized (this) {
+			current = converted;
+			if (current == null || !current.hostCertificate.equals(hostCertificate)) {
+				current = convert(hostCertificate);
+				converted = current;
+			}
+			return current;
+		}
+	}
+
+	private Converted convert(java.security.cert.Certificate hostCertificate)
+	{
+		Certificate certificate = CertificateConverter.fromJavaCertificateToBcTlsCertificate(crypto, hostCertificate);
+		PrivateKey javaPrivateKey = remoteIfdConfig.getHostKey();
+		HostKeyType keyType = HostKeyType.of(javaPrivateKey);
+		boolean rsa = keyType == HostKeyType.RSA;
+		if (crypto instanceof JcaTlsCrypto) {
+			TlsCredentialedDecryptor decryptor = rsa ? new JceDefaultTlsCredentialedDecryptor((JcaTlsCrypto) crypto, certificate, javaPrivateKey) : null;
+			return new Converted(hostCertificate, keyType, certificate, null, javaPrivateKey, decryptor);
+		}
+		AsymmetricKeyParameter privateKey = CertificateConverter.fromJavaKeyToBcAsymetricKeyParameter(javaPrivateKey);
+		TlsCredentialedDecryptor decryptor = rsa ? new BcDefaultTlsCredentialedDecryptor((BcTlsCrypto) crypto, certificate, privateKey) : null;
+		return new Converted(hostCertificate, keyType, certificate, privateKey, null, decryptor);
+	}
+
+}
@@ -0,0 +1,172 @@
+package de.persosim.websocket;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.interfaces.ECKey;
+import java.security.interfaces.RSAKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.asn1.x509.TBSCertificate;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.asn1.x509.V3TBSCertificateGenerator;
+import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
+import org.bouncycastle.tls.SignatureAlgorithm;
+import org.globaltester.cryptoprovider.bc.TlsCertificateGenerator;
+import org.globaltester.logging.BasicLogger;
+import org.globaltester.logging.tags.LogLevel;
+import org.globaltester.logging.tags.LogTag;
+
+import de.persosim.simulator.log.PersoSimLogTags;
+
+/**
+ * The key types supported for the host identity of the remote IFD.
+ */
+public enum HostKeyType
+{
+	/**
+	 * RSA keys as created by the {@link TlsCertificateGenerator}, usable for
+	 * all cipher suites including the RSA_PSK pairing suites
+	 */
+	RSA,
+
+	/**
+	 * EC keys on the NIST P-256 curve for the ECDHE_ECDSA cipher suites, much
+	 * faster to generate and to sign with than RSA keys.
+	 * <p>
+	 * The pairing only supports the RSA_PSK cipher suites, which need an RSA
+	 * host key. A remote IFD with an EC host key can therefore not be paired
+	 * with new clients, only clients paired before the key was created can
+	 * connect.
+	 */
+	EC;
+
+	private static final String EC_CURVE = "secp256r1";
+	private static final String EC_CERTIFICATE_NAME = "CN=PersoSim";
+	private static final long EC_CERTIFICATE_VALIDITY_MILLIS = 10L * 365 * 24 * 60 * 60 * 1000;
+
+	/**
+	 * @return the TLS {@link SignatureAlgorithm} used with keys of this type
+	 */
+	public short getSignatureAlgorithm()
+	{
+		return this == EC ? SignatureAlgorithm.ecdsa : SignatureAlgorithm.rsa;
+	}
+
+	public KeyPair generateKeyPair()
+	{
+		if (this == RSA) {
+			return TlsCertificateGenerator.generateKeyPair();
+		}
+		try {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+			generator.initialize(new ECGenParameterSpec(EC_CURVE));
+			return generator.generateKeyPair();
+		}
+		catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Could not generate EC key pair", e);
+		}
+	}
+
+	/**
+	 * Creates a self-signed certificate for a key pair created by
+	 * {@link #generateKeyPair()}.
+	 */
+	public Certificate generateCertificate(KeyPair keyPair)
+	{
+		if (this == RSA) {
+			return TlsCertificateGenerator.generateTlsCertificate(keyPair);
+		}
+		try {
+			X500Name name = new X500Name(EC_CERTIFICATE_NAME);
+			AlgorithmIdentifier signatureAlgorithm = new AlgorithmIdentifier(X9ObjectIdentifiers.ecdsa_with_SHA256);
+			long now = System.currentTimeMillis();
+
+			V3TBSCertificateGenerator generator = new V3TBSCertificateGenerator();
+			generator.setSerialNumber(new ASN1Integer(new BigInteger(64, new SecureRandom())));
+			generator.setSignature(signatureAlgorithm);
+			generator.setIssuer(name);
+			generator.setSubject(name);
+			generator.setStartDate(new Time(new Date(now)));
+			generator.setEndDate(new Time(new Date(now + EC_CERTIFICATE_VALIDITY_MILLIS)));
+			generator.setSubjectPublicKeyInfo(SubjectPublicKeyInfo.getInstance(keyPair.getPublic().getEncoded()));
+			TBSCertificate tbsCertificate = generator.generateTBSCertificate();
+
+			Signature signature = Signature.getInstance("SHA256withECDSA");
+			signature.initSign(keyPair.getPrivate());
+			signature.update(tbsCertificate.getEncoded(ASN1Encoding.DER));
+
+			DERSequence certificate = new DERSequence(new ASN1Encodable[] { tbsCertificate, signatureAlgorithm, new DERBitString(signature.sign()) });
+			return CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(certificate.getEncoded(ASN1Encoding.DER)));
+		}
+		catch (GeneralSecurityException | IOException e) {
+			throw new IllegalStateException("Could not generate EC certificate", e);
+		}
+	}
+
+	/**
+	 * Generates a key pair and its self-signed certificate.
+	 */
+	public KeyStore.PrivateKeyEntry generateIdentity()
+	{
+		long start = System.nanoTime();
+		KeyPair keyPair = generateKeyPair();
+		KeyStore.PrivateKeyEntry identity = new KeyStore.PrivateKeyEntry(keyPair.getPrivate(), new Certificate[] { generateCertificate(keyPair) });
+		BasicLogger.log("Generated " + this + " host identity in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms", LogLevel.DEBUG,
+				new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+		return identity;
+	}
+
+	/**
+	 * Generates the identity like {@link #generateIdentity()} on a new daemon
+	 * thread, so that the generation overlaps with the remaining startup.
+	 *
+	 * @return the future identity, completed exceptionally if the generation
+	 *         failed
+	 */
+	public CompletableFuture<KeyStore.PrivateKeyEntry> generateIdentityAsync()
+	{
+		return CompletableFuture.supplyAsync(this::generateIdentity, runnable -> {
+			Thread thread = new Thread(runnable, "RemoteIfd-HostIdentityGenerator");
+			thread.setDaemon(true);
+			thread.start();
+		});
+	}
+
+	/**
+	 * @return the type of the given key
+	 * @throws IllegalArgumentException
+	 *             if the key is neither an RSA nor an EC key
+	 */
+	public static HostKeyType of(Key key)
+	{
+		if (key instanceof RSAKey) {
+			return RSA;
+		}
+		if (key instanceof ECKey) {
+			return EC;
+		}
+		throw new IllegalArgumentException("Unsupported host key algorithm " + key.getAlgorithm());
+	}
+
+}
@@ -0,0 +1,172 @@
+package de.persosim.websocket;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The HTTP request opening a WebSocket connection, see RFC6455 4.2.1.
+ * <p>
+ * The request is read byte by byte and reading stops right after the empty
+ * line ending the header, so the frames following on the same stream are left
+ * untouched. The header is limited in size to protect against clients sending
+ * endless headers.
+ */
+public class HttpUpgradeRequest
+{
+
+	public static final int DEFAULT_MAX_HEADER_LENGTH = 8192;
+
+	private String method;
+	private String target;
+	private String version;
+	private Map<String, String> headers = new LinkedHashMap<>();
+	private String text;
+
+	private HttpUpgradeRequest()
+	{
+		// created by read
+	}
+
+	/**
+	 * Reads the request line and the header fields up to and including the
+	 * empty line ending the header.
+	 *
+	 * @param inputStream
+	 *            the stream to read from, nothing after the header is read
+	 * @param maxHeaderLength
+	 *            the maximum number of bytes of the request including the
+	 *            request line
+	 * @return the parsed request
+	 * @throws EOFException
+	 *             if the stream ends before the header is complete
+	 * @throws IOException
+	 *             if the header is too long or malformed
+	 */
+	public static HttpUpgradeRequest read(InputStream inputStream, int maxHeaderLength) throws IOException
+	{
+		byte[] buffer = new byte[Math.min(maxHeaderLength, 1024)];
+		int length = 0;
+		int lineStart = 0;
+
+		while (true) {
+			int read = inputStream.read();
+			if (read < 0) {
+				throw new EOFException("Stream ended within the handshake request");
+			}
+			if (length == maxHeaderLength) {
+				throw new IOException("Handshake request exceeds " + maxHeaderLength + " bytes");
+			}
+			if (length == buffer.length) {
+				byte[] grown = new byte[Math.min(maxHeaderLength, buffer.length * 2)];
+				System.arraycopy(buffer, 0, grown, 0, length);
+				buffer = grown;
+			}
+			buffer[length++] = (byte) read;
+
+			if (read == '\n') {
+				// an empty line, optionally with CR, ends the header
+				int lineLength = length - 1 - lineStart;
+				if (lineLength == 0 || lineLength == 1 && buffer[lineStart] == '\r') {
+					break;
+				}
+				lineStart = length;
+			}
+		}
+
+		HttpUpgradeRequest request = new HttpUpgradeRequest();
+		request.text = new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+		request.parse();
+		return request;
+	}
+
+	private void parse() throws IOException
+	{
+		String[] lines = text.split("\r?\n");
+
+		String[] requestLine = lines[0].split(" ");
+		if (requestLine.length != 3) {
+			throw new IOException("Invalid request line: " + lines[0]);
+		}
+		method = requestLine[0];
+		target = requestLine[1];
+		version = requestLine[2];
+
+		String lastName = null;
+		for (int i = 1; i < lines.length; i++) {
+			String line = lines[i];
+			if (line.isEmpty()) {
+				continue;
+			}
+
+			if (line.charAt(0) == ' ' || line.charAt(0) == '\t') {
+				// obsolete line folding continues the previous value, see RFC7230 3.2.4
+				if (lastName == null) {
+					throw new IOException("Invalid header continuation: " + line);
+				}
+				headers.put(lastName, headers.get(lastName) + " " + line.trim());
+				continue;
+			}
+
+			int separator = line.indexOf(':');
+			if (separator <= 0) {
+				throw new IOException("Invalid header field: " + line);
+			}
+			String name = line.substring(0, separator).trim().toLowerCase(Locale.ROOT);
+			String value = line.substring(separator + 1).trim();
+
+			// repeated fields are equivalent to one field with comma separated values, see RFC7230 3.2.2
+			headers.merge(name, value, (existing, added) -> existing + "," + added);
+			lastName = name;
+		}
+	}
+
+	public String getMethod()
+	{
+		return method;
+	}
+
+	public String getTarget()
+	{
+		return target;
+	}
+
+	public String getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * @param name
+	 *            the field name, case insensitive
+	 * @return the value of the header field, multiple occurrences joined by
+	 *         commas, or null if not present
+	 */
+	public String getHeader(String name)
+	{
+		return headers.get(name.toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * @return all header fields with lower case names
+	 */
+	public Map<String, String> getHeaders()
+	{
+		return Collections.unmodifiableMap(headers);
+	}
+
+	/**
+	 * @return the request as received
+	 */
+	@Override
+	public String toString()
+	{
+		return text;
+	}
+
+}
@@ -0,0 +1,13 @@
+package de.persosim.websocket;
+
+/**
+ * This listener is called when a card is inserted into or removed from the
+ * simulated reader.
+ */
+public interface IccPresenceListener {
+	/**
+	 * @param iccAvailable
+	 *            true, iff the icc is available after the change
+	 */
+	public void iccPresenceChanged(boolean iccAvailable);
+}
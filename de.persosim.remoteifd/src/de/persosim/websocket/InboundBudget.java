@@ -0,0 +1,97 @@
+package de.persosim.websocket;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the memory held by the received data of one connection. Partially
+ * received frames, fragments of incomplete messages and messages waiting for
+ * processing all count against the budget until they are released.
+ * <p>
+ * Bytes are reserved by the reading thread before they are allocated and
+ * released by whichever thread is done with them.
+ */
+public class InboundBudget
+{
+
+	/**
+	 * Default limit, room for a full message queue of messages with the
+	 * default maximum size
+	 */
+	public static final long DEFAULT_LIMIT = 16L * 1024 * 1024;
+
+	private final long limit;
+	private final AtomicLong reserved = new AtomicLong();
+	private final AtomicLong peak = new AtomicLong();
+
+	/**
+	 * @param limit
+	 *            the maximum number of bytes reserved at the same time
+	 */
+	public InboundBudget(long limit)
+	{
+		if (limit < 1) {
+			throw new IllegalArgumentException("Inbound budget must be positive");
+		}
+		this.limit = limit;
+	}
+
+	/**
+	 * Reserves the given number of bytes.
+	 *
+	 * @param bytes
+	 * @throws WebSocketProtocolException
+	 *             with status code 1009 if the budget would be exceeded,
+	 *             nothing is reserved in this case
+	 */
+	public void reserve(long bytes) throws WebSocketProtocolException
+	{
+		long current;
+		do {
+			current = reserved.get();
+			if (bytes > limit - current) {
+				throw new WebSocketProtocolException(WebSocketProtocol.CLOSE_MESSAGE_TOO_BIG,
+						"Inbound budget of " + limit + " bytes exceeded, " + current + " bytes held, " + bytes + " bytes requested");
+			}
+		}
+		while (!reserved.compareAndSet(current, current + bytes));
+
+		peak.accumulateAndGet(current + bytes, Math::max);
+	}
+
+	/**
+	 * Returns bytes reserved earlier.
+	 *
+	 * @param bytes
+	 */
+	public void release(long bytes)
+	{
+		reserved.addAndGet(-bytes);
+	}
+
+	/**
+	 * @return the number of bytes that can still be reserved
+	 */
+	public long getAvailable()
+	{
+		return Math.max(0, limit - reserved.get());
+	}
+
+	public long getReserved()
+	{
+		return reserved.get();
+	}
+
+	/**
+	 * @return the highest number of bytes reserved at the same time
+	 */
+	public long getPeak()
+	{
+		return peak.get();
+	}
+
+	public long getLimit()
+	{
+		return limit;
+	}
+
+}
@@ -0,0 +1,248 @@
+package de.persosim.websocket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import org.globaltester.logging.BasicLogger;
+import org.globaltester.logging.tags.LogLevel;
+import org.globaltester.logging.tags.LogTag;
+
+import de.persosim.simulator.log.PersoSimLogTags;
+import de.persosim.websocket.Frame.Opcode;
+
+/**
+ * Detects dead peers of one connection. PING frames are sent in a fixed
+ * interval, if the matching PONG does not arrive in time or nothing at all is
+ * received for the idle timeout, the connection is closed. This unblocks the
+ * reading thread, so the connection is released even if the peer vanished
+ * without closing the TCP connection.
+ * <p>
+ * The round trip time is measured from each PING/PONG pair.
+ */
+public class KeepAlive
+{
+
+	public static final int DEFAULT_PING_INTERVAL_MILLIS = 20000;
+	public static final int DEFAULT_PONG_TIMEOUT_MILLIS = 10000;
+	public static final int DEFAULT_IDLE_TIMEOUT_MILLIS = 120000;
+
+	private final long pingIntervalNanos;
+	private final long pongTimeoutNanos;
+	private final long idleTimeoutNanos;
+
+	private final Consumer<Frame> controlFrameSender;
+	private final LongSupplier lastReceivedNanos;
+	private final Closeable connection;
+
+	private volatile Thread thread;
+	private volatile boolean stopped = false;
+	private volatile boolean timedOut = false;
+
+	// guarded by this
+	private long pingCounter = 0;
+	private byte[] outstandingPing = null;
+	private long pingSentNanos;
+	private long lastRoundTripNanos = -1;
+	private long minRoundTripNanos = Long.MAX_VALUE;
+	private long totalRoundTripNanos = 0;
+	private long roundTrips = 0;
+
+	/**
+	 * @param pingIntervalMillis
+	 *            time between PING frames, 0 to disable sending PINGs
+	 * @param pongTimeoutMillis
+	 *            time to wait for the PONG answering a PING
+	 * @param idleTimeoutMillis
+	 *            time without any received data after which the connection is
+	 *            closed, 0 to disable
+	 * @param controlFrameSender
+	 *            used to enqueue the PING frames
+	 * @param lastReceivedNanos
+	 *            provides the {@link System#nanoTime()} of the last received
+	 *            data
+	 * @param connection
+	 *            closed on timeout
+	 */
+	public KeepAlive(int pingIntervalMillis, int pongTimeoutMillis, int idleTimeoutMillis, Consumer<Frame> controlFrameSender, LongSupplier lastReceivedNanos, Closeable connection)
+	{
+		if (pingIntervalMillis < 0 || idleTimeoutMillis < 0 || pongTimeoutMillis < 1) {
+			throw new IllegalArgumentException("Keep alive intervals must not be negative and the PONG timeout must be positive");
+		}
+		this.pingIntervalNanos = TimeUnit.MILLISECONDS.toNanos(pingIntervalMillis);
+		this.pongTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(pongTimeoutMillis);
+		this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+		this.controlFrameSender = controlFrameSender;
+		this.lastReceivedNanos = lastReceivedNanos;
+		this.connection = connection;
+	}
+
+	/**
+	 * Starts the thread sending PINGs and checking the timeouts. Nothing is
+	 * started if both PINGs and the idle timeout are disabled.
+	 */
+	public void start()
+	{
+		if (thread != null) {
+			throw new IllegalStateException("Keep alive already started");
+		}
+		if (pingIntervalNanos == 0 && idleTimeoutNanos == 0) {
+			return;
+		}
+		thread = new Thread(this::run, "WebSocketProtocol-KeepAlive");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the keep alive thread without closing the connection.
+	 */
+	public void stop()
+	{
+		stopped = true;
+		Thread current = thread;
+		if (current != null) {
+			LockSupport.unpark(current);
+		}
+	}
+
+	/**
+	 * @return true, if the connection has been closed because of a timeout
+	 */
+	public boolean isTimedOut()
+	{
+		return timedOut;
+	}
+
+	/**
+	 * Processes a received PONG frame. PONGs not answering the outstanding
+	 * PING are ignored, they may be sent unsolicited, see RFC6455 5.5.3.
+	 *
+	 * @param payload
+	 *            the payload of the PONG
+	 */
+	public synchronized void pongReceived(ByteBuffer payload)
+	{
+		if (outstandingPing == null || !ByteBuffer.wrap(outstandingPing).equals(payload)) {
+			return;
+		}
+		long roundTrip = System.nanoTime() - pingSentNanos;
+		outstandingPing = null;
+
+		lastRoundTripNanos = roundTrip;
+		minRoundTripNanos = Math.min(minRoundTripNanos, roundTrip);
+		totalRoundTripNanos += roundTrip;
+		roundTrips++;
+
+		BasicLogger.log("Round trip time " + TimeUnit.NANOSECONDS.toMicros(roundTrip) / 1000.0 + " ms", LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+	}
+
+	/**
+	 * @return the round trip time of the last answered PING in nanoseconds or
+	 *         -1 if none has been answered yet
+	 */
+	public synchronized long getLastRoundTripNanos()
+	{
+		return lastRoundTripNanos;
+	}
+
+	/**
+	 * @return the shortest measured round trip time in nanoseconds or -1 if
+	 *         none has been measured yet
+	 */
+	public synchronized long getMinRoundTripNanos()
+	{
+		return roundTrips == 0 ? -1 : minRoundTripNanos;
+	}
+
+	/**
+	 * @return the mean of all measured round trip times in nanoseconds or -1
+	 *         if none has been measured yet
+	 */
+	public synchronized long getAverageRoundTripNanos()
+	{
+		return roundTrips == 0 ? -1 : totalRoundTripNanos / roundTrips;
+	}
+
+	/**
+	 * @return the number of answered PINGs
+	 */
+	public synchronized long getRoundTrips()
+	{
+		return roundTrips;
+	}
+
+	private void run()
+	{
+		long lastPingNanos = System.nanoTime();
+
+		while (!stopped) {
+			long now = System.nanoTime();
+			long waitNanos = Long.MAX_VALUE;
+
+			if (idleTimeoutNanos > 0) {
+				long idle = now - lastReceivedNanos.getAsLong();
+				if (idle >= idleTimeoutNanos) {
+					timeout("Nothing received for " + TimeUnit.NANOSECONDS.toMillis(idle) + " ms");
+					return;
+				}
+				waitNanos = idleTimeoutNanos - idle;
+			}
+
+			if (pingIntervalNanos > 0) {
+				synchronized (this) {
+					if (outstandingPing != null) {
+						long waited = now - pingSentNanos;
+						if (waited >= pongTimeoutNanos) {
+							timeout("No PONG received within " + TimeUnit.NANOSECONDS.toMillis(waited) + " ms");
+							return;
+						}
+						waitNanos = Math.min(waitNanos, pongTimeoutNanos - waited);
+					}
+					else if (now - lastPingNanos >= pingIntervalNanos) {
+						sendPing(now);
+						lastPingNanos = now;
+						waitNanos = Math.min(waitNanos, pongTimeoutNanos);
+					}
+					else {
+						waitNanos = Math.min(waitNanos, pingIntervalNanos - (now - lastPingNanos));
+					}
+				}
+			}
+
+			LockSupport.parkNanos(this, waitNanos);
+		}
+	}
+
+	private void sendPing(long now)
+	{
+		outstandingPing = ByteBuffer.allocate(Long.BYTES).putLong(++pingCounter).array();
+		pingSentNanos = now;
+
+		Frame ping = new Frame();
+		ping.setFin(true);
+		ping.setOpcode(Opcode.PING);
+		ping.setPayload(outstandingPing.clone());
+		controlFrameSender.accept(ping);
+	}
+
+	private void timeout(String reason)
+	{
+		if (stopped) {
+			return;
+		}
+		timedOut = true;
+		BasicLogger.log(reason + ", closing the connection", LogLevel.WARN, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+		try {
+			connection.close();
+		}
+		catch (IOException e) {
+			BasicLogger.logException("Closing the timed out connection failed", e, LogLevel.WARN, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+		}
+	}
+
+}
@@ -1,5 +1,8 @@
 package de.persosim.websocket;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 /**
  * Implementations handle IFD json messages.
  * @author boonk.martin
@@ -14,6 +17,26 @@ public interface MessageHandler {
 	 */
 	public String message(String incomingMessage);
 
+	/**
+	 * Handles the incoming message given as UTF-8 encoded bytes. Implementations should parse the bytes directly,
+	 * the default decodes them and calls {@link #message(String)}.
+	 * @param incomingMessage the payload of the message, reading it may advance the position
+	 * @return the response message as {@link String} or null if no response is necessary
+	 */
+	public default String message(ByteBuffer incomingMessage) {
+		return message(StandardCharsets.UTF_8.decode(incomingMessage).toString());
+	}
+
+	/**
+	 * Preselects the IFD protocol agreed on during the websocket handshake, so messages can be handled before
+	 * an IFDEstablishContext message names the protocol.
+	 * @param protocol the identifier of the protocol, e.g. IFDInterface_WebSocket_v2
+	 * @return true, iff the protocol is supported and has been selected
+	 */
+	public default boolean selectProtocol(String protocol) {
+		return false;
+	}
+
 	/**
 	 * @return true, iff the icc is available.
 	 */
@@ -25,4 +48,21 @@ public interface MessageHandler {
 	 */
 	public String getStatusMessage();
 
+	/**
+	 * Subscribes to icc presence changes pushed by the simulator.
+	 * @param listener
+	 * @return true, iff presence changes are pushed, otherwise the caller has to poll {@link #isIccAvailable()}
+	 */
+	public default boolean addIccPresenceListener(IccPresenceListener listener) {
+		return false;
+	}
+
+	/**
+	 * Removes a listener added by {@link #addIccPresenceListener(IccPresenceListener)}
+	 * @param listener
+	 */
+	public default void removeIccPresenceListener(IccPresenceListener listener) {
+		// nothing to remove if presence changes are not supported
+	}
+
 }
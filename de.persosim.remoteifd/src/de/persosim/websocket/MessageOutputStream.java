@@ -0,0 +1,160 @@
+package de.persosim.websocket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import de.persosim.websocket.Frame.Opcode;
+
+/**
+ * Streams one WebSocket message as a sequence of frames. Data written to this
+ * stream is collected until the maximum frame size is reached and then passed
+ * to the {@link FrameWriter} as a TEXT or BINARY frame followed by
+ * CONTINUATION frames. Closing the stream writes the final frame with the FIN
+ * bit set and flushes the writer.
+ * <p>
+ * This allows the underlying TLS stream to start encrypting before the whole
+ * message is produced. The {@link OutboundQueue} writes all messages through
+ * this stream.
+ */
+public class MessageOutputStream extends OutputStream
+{
+
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	private FrameWriter frameWriter;
+	private Opcode opcode;
+	private int maxFrameSize;
+	private byte[] buffer;
+	private int count = 0;
+	private boolean firstFrameWritten = false;
+	private boolean rsv1 = false;
+	private boolean closed = false;
+
+	/**
+	 * @param frameWriter
+	 *            the writer to pass the frames to
+	 * @param opcode
+	 *            the opcode of the message, must be a data opcode
+	 * @param maxFrameSize
+	 *            the maximum payload length of a single frame
+	 */
+	public MessageOutputStream(FrameWriter frameWriter, Opcode opcode, int maxFrameSize)
+	{
+		if (opcode.isControl() || opcode == Opcode.CONTINUATION) {
+			throw new IllegalArgumentException("Messages can only be streamed with a data opcode");
+		}
+		if (maxFrameSize < 1) {
+			throw new IllegalArgumentException("Maximum frame size must be positive");
+		}
+		this.frameWriter = frameWriter;
+		this.opcode = opcode;
+		this.maxFrameSize = maxFrameSize;
+		this.buffer = new byte[Math.min(INITIAL_BUFFER_SIZE, maxFrameSize)];
+	}
+
+	/**
+	 * @param rsv1
+	 *            true to set the RSV1 bit on the first frame, marking a
+	 *            compressed message. Must be set before the first write.
+	 */
+	public void setRsv1(boolean rsv1)
+	{
+		this.rsv1 = rsv1;
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] data, int offset, int length) throws IOException
+	{
+		if (closed) {
+			throw new IOException("Message already completed");
+		}
+		if (offset < 0 || length < 0 || offset > data.length - length) {
+			throw new IndexOutOfBoundsException();
+		}
+
+		while (length > 0) {
+			if (count == maxFrameSize) {
+				// more data follows, so this frame is not the final one
+				writeFrame(false);
+			}
+			ensureCapacity(Math.min(maxFrameSize, count + length));
+
+			int chunk = Math.min(length, buffer.length - count);
+			System.arraycopy(data, offset, buffer, count, chunk);
+			count += chunk;
+			offset += chunk;
+			length -= chunk;
+		}
+	}
+
+	/**
+	 * Completes the message with a final frame without flushing the frame
+	 * writer, so that following frames can share the write.
+	 */
+	public void finish() throws IOException
+	{
+		if (closed) {
+			return;
+		}
+		closed = true;
+		writeFrame(true);
+	}
+
+	/**
+	 * Completes the message with a final frame and flushes the frame writer.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (closed) {
+			return;
+		}
+		finish();
+		frameWriter.flush();
+	}
+
+	/**
+	 * Called after each frame of the message was passed to the frame writer.
+	 * Subclasses may append other frames between the fragments here.
+	 *
+	 * @param fin
+	 *            true for the final frame of the message
+	 * @throws IOException
+	 */
+	protected void frameWritten(boolean fin) throws IOException
+	{
+		// nothing to do by default
+	}
+
+	private void ensureCapacity(int capacity)
+	{
+		if (capacity > buffer.length) {
+			int newLength = (int) Math.min(maxFrameSize, Math.max(capacity, 2L * buffer.length));
+			byte[] newBuffer = new byte[newLength];
+			System.arraycopy(buffer, 0, newBuffer, 0, count);
+			buffer = newBuffer;
+		}
+	}
+
+	private void writeFrame(boolean fin) throws IOException
+	{
+		Frame frame = new Frame();
+		frame.setFin(fin);
+		frame.setOpcode(firstFrameWritten ? Opcode.CONTINUATION : opcode);
+		frame.setRSV1(rsv1 && !firstFrameWritten);
+		// the frame is serialized synchronously, so the buffer can be reused afterwards
+		frame.setPayload(buffer, 0, count);
+		frameWriter.append(frame);
+
+		firstFrameWritten = true;
+		count = 0;
+		frameWritten(fin);
+	}
+
+}
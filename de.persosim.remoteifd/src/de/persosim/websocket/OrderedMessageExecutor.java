@@ -0,0 +1,179 @@
+package de.persosim.websocket;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.globaltester.logging.BasicLogger;
+import org.globaltester.logging.tags.LogLevel;
+import org.globaltester.logging.tags.LogTag;
+
+import de.persosim.simulator.log.PersoSimLogTags;
+
+/**
+ * Executes the messages of one connection on a single worker, so responses are
+ * produced in request order. The number of waiting messages is bounded,
+ * {@link #execute(Runnable)} blocks the caller while the queue is full.
+ * <p>
+ * If requested and supported by the runtime, the worker is a virtual thread.
+ */
+public class OrderedMessageExecutor
+{
+
+	public static final int DEFAULT_QUEUE_DEPTH = 16;
+
+	private static final ThreadFactory VIRTUAL_THREAD_FACTORY = createVirtualThreadFactory();
+
+	private ThreadPoolExecutor executor;
+	private AtomicInteger threadsCreated = new AtomicInteger();
+	private AtomicInteger maxQueueDepth = new AtomicInteger();
+
+	/**
+	 * @param name
+	 *            name of the worker thread
+	 * @param queueDepth
+	 *            maximum number of messages waiting for execution
+	 * @param useVirtualThreads
+	 *            true, if the worker should be a virtual thread if the runtime
+	 *            supports them
+	 */
+	public OrderedMessageExecutor(String name, int queueDepth, boolean useVirtualThreads)
+	{
+		if (queueDepth < 1) {
+			throw new IllegalArgumentException("Queue depth must be positive");
+		}
+
+		ThreadFactory baseFactory = useVirtualThreads && VIRTUAL_THREAD_FACTORY != null ? VIRTUAL_THREAD_FACTORY : Thread::new;
+		ThreadFactory countingFactory = runnable -> {
+			Thread thread = baseFactory.newThread(runnable);
+			thread.setName(name + "-" + threadsCreated.incrementAndGet());
+			return thread;
+		};
+
+		executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueDepth), countingFactory);
+	}
+
+	/**
+	 * @return a factory for virtual threads or null if the runtime does not
+	 *         support them
+	 */
+	private static ThreadFactory createVirtualThreadFactory()
+	{
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		}
+		catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true, if the runtime supports virtual threads
+	 */
+	public static boolean isVirtualThreadSupported()
+	{
+		return VIRTUAL_THREAD_FACTORY != null;
+	}
+
+	/**
+	 * Queues the task for execution after all previously queued tasks. Blocks
+	 * while the queue is full.
+	 *
+	 * @param task
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for space in the queue
+	 * @throws RejectedExecutionException
+	 *             if this executor has been shut down
+	 */
+	public void execute(Runnable task) throws InterruptedException
+	{
+		if (executor.isShutdown()) {
+			throw new RejectedExecutionException("Executor has been shut down");
+		}
+
+		if (executor.getPoolSize() == 0) {
+			executor.prestartCoreThread();
+		}
+
+		// the core thread is running, so queuing directly keeps the order
+		executor.getQueue().put(() -> runLogged(task));
+
+		maxQueueDepth.accumulateAndGet(executor.getQueue().size(), Math::max);
+	}
+
+	private static void runLogged(Runnable task)
+	{
+		try {
+			task.run();
+		}
+		catch (RuntimeException e) {
+			// keep the worker alive for the following messages
+			BasicLogger.logException("Handling of message failed", e, LogLevel.ERROR, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+		}
+	}
+
+	/**
+	 * Lets the already queued tasks complete, but accepts no new ones.
+	 */
+	public void shutdown()
+	{
+		if (executor.isShutdown()) {
+			return;
+		}
+		executor.shutdown();
+
+		BasicLogger.log("Message executor statistics: " + getCompletedTaskCount() + " messages handled, maximum queue depth " + getMaxQueueDepth() + ", threads created " + getThreadsCreated(),
+				LogLevel.DEBUG, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+	}
+
+	/**
+	 * Waits for the completion of all queued tasks after {@link #shutdown()}.
+	 *
+	 * @return true, if all tasks completed within the timeout
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * @return the number of messages currently waiting for execution
+	 */
+	public int getQueueDepth()
+	{
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * @return the maximum number of messages that were waiting at the same
+	 *         time
+	 */
+	public int getMaxQueueDepth()
+	{
+		return maxQueueDepth.get();
+	}
+
+	/**
+	 * @return the number of threads created by this executor
+	 */
+	public int getThreadsCreated()
+	{
+		return threadsCreated.get();
+	}
+
+	/**
+	 * @return the number of messages completely handled
+	 */
+	public long getCompletedTaskCount()
+	{
+		return executor.getCompletedTaskCount();
+	}
+
+}
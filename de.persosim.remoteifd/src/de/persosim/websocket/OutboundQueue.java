@@ -0,0 +1,392 @@
+package de.persosim.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.globaltester.logging.BasicLogger;
+import org.globaltester.logging.tags.LogLevel;
+import org.globaltester.logging.tags.LogTag;
+
+import de.persosim.simulator.log.PersoSimLogTags;
+import de.persosim.websocket.Frame.Opcode;
+
+/**
+ * Serializes all outgoing frames of one connection on a dedicated writer
+ * thread. Any thread may enqueue frames without locking, the writer drains
+ * everything pending into the {@link FrameWriter} and flushes once, so several
+ * small frames share one TLS write.
+ * <p>
+ * Messages are encoded to UTF-8 piecewise and streamed through a
+ * {@link MessageOutputStream}, so a long message is never held as a whole in
+ * encoded form. Control frames take priority and are also sent between the
+ * fragments of a long message. Status messages that have not been sent yet are replaced by
+ * newer ones, only the latest status is sent. A CLOSE frame is either sent
+ * with priority, discarding the pending messages, or after them when replying
+ * to the CLOSE of the peer. Nothing is sent after a CLOSE frame.
+ */
+public class OutboundQueue
+{
+
+	private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+	private static final int ENCODE_BUFFER_SIZE = 8192;
+
+	/**
+	 * Placeholder in the message queue for the latest pending status message,
+	 * compared by identity
+	 */
+	private static final String STATUS_MARKER = new String(); // NOSONAR: a distinct instance is required
+
+	/**
+	 * Placeholder in the message queue for the CLOSE frame to be sent after
+	 * the messages enqueued before it, compared by identity
+	 */
+	private static final String CLOSE_MARKER = new String(); // NOSONAR: a distinct instance is required
+
+	private FrameWriter frameWriter;
+	private int maxFrameSize;
+	private PerMessageDeflate perMessageDeflate;
+
+	private Queue<Frame> controlFrames = new ConcurrentLinkedQueue<>();
+	private Queue<String> messages = new ConcurrentLinkedQueue<>();
+	private AtomicReference<String> pendingStatus = new AtomicReference<>();
+	private AtomicReference<Frame> pendingClose = new AtomicReference<>();
+
+	private CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private ByteBuffer encodeBuffer = ByteBuffer.allocate(ENCODE_BUFFER_SIZE);
+
+	private volatile Thread writerThread;
+	private volatile boolean closing = false;
+	private volatile boolean terminated = false;
+	private boolean closeSent = false;
+
+	private AtomicLong mergedStatusMessages = new AtomicLong();
+	private long framesWritten = 0;
+	private long flushes = 0;
+
+	/**
+	 * @param frameWriter
+	 *            the writer to pass the frames to, only used by the writer
+	 *            thread
+	 * @param maxFrameSize
+	 *            the maximum payload length of a single data frame, longer
+	 *            messages are fragmented
+	 */
+	public OutboundQueue(FrameWriter frameWriter, int maxFrameSize)
+	{
+		if (maxFrameSize < 1) {
+			throw new IllegalArgumentException("Maximum frame size must be positive");
+		}
+		this.frameWriter = frameWriter;
+		this.maxFrameSize = maxFrameSize;
+	}
+
+	/**
+	 * @param perMessageDeflate
+	 *            the negotiated compression for messages, null to send them
+	 *            uncompressed. Must be set before {@link #start()}.
+	 */
+	public void setPerMessageDeflate(PerMessageDeflate perMessageDeflate)
+	{
+		this.perMessageDeflate = perMessageDeflate;
+	}
+
+	/**
+	 * Starts the writer thread.
+	 */
+	public void start()
+	{
+		if (writerThread != null) {
+			throw new IllegalStateException("Outbound queue already started");
+		}
+		writerThread = new Thread(this::run, "WebSocketProtocol-Writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Enqueues a control frame, it is sent before any pending data.
+	 *
+	 * @param frame
+	 *            a complete control frame
+	 */
+	public void sendControl(Frame frame)
+	{
+		if (!frame.getOpcode().isControl() || !frame.getFin()) {
+			throw new IllegalArgumentException("Only complete control frames can be sent with priority");
+		}
+		if (frame.getPayloadLength() > Frame.MAX_CONTROL_PAYLOAD_LENGTH) {
+			throw new IllegalArgumentException("Control frame payload must not exceed " + Frame.MAX_CONTROL_PAYLOAD_LENGTH + " bytes");
+		}
+		if (offer(controlFrames, frame)) {
+			wakeUp();
+		}
+	}
+
+	/**
+	 * Enqueues a CLOSE frame that is sent after all previously enqueued
+	 * messages, so that the responses to the messages received before a CLOSE
+	 * reach the peer. Only the first such frame is used.
+	 *
+	 * @param frame
+	 *            a complete CLOSE frame
+	 */
+	public void sendCloseAfterMessages(Frame frame)
+	{
+		if (frame.getOpcode() != Opcode.CLOSE || !frame.getFin()) {
+			throw new IllegalArgumentException("Only a complete CLOSE frame can be sent after the messages");
+		}
+		if (frame.getPayloadLength() > Frame.MAX_CONTROL_PAYLOAD_LENGTH) {
+			throw new IllegalArgumentException("Control frame payload must not exceed " + Frame.MAX_CONTROL_PAYLOAD_LENGTH + " bytes");
+		}
+		if (pendingClose.compareAndSet(null, frame) && offer(messages, CLOSE_MARKER)) {
+			wakeUp();
+		}
+	}
+
+	/**
+	 * Enqueues a TEXT message, sent after all previously enqueued messages.
+	 *
+	 * @param message
+	 *            the message, encoded to UTF-8 while it is written
+	 */
+	public void sendMessage(String message)
+	{
+		if (offer(messages, message)) {
+			wakeUp();
+		}
+	}
+
+	/**
+	 * Enqueues a status message. If an earlier status message is still
+	 * waiting, it is replaced and the new one takes its place in the queue.
+	 *
+	 * @param message
+	 *            the message, encoded to UTF-8 while it is written
+	 */
+	public void sendStatus(String message)
+	{
+		if (pendingStatus.getAndSet(message) != null) {
+			mergedStatusMessages.incrementAndGet();
+			return;
+		}
+		if (offer(messages, STATUS_MARKER)) {
+			wakeUp();
+		}
+	}
+
+	private <T> boolean offer(Queue<T> queue, T element)
+	{
+		if (closing || terminated) {
+			BasicLogger.log("Outbound queue is closed, discarding data", LogLevel.DEBUG, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+			return false;
+		}
+		queue.offer(element);
+		return true;
+	}
+
+	private void wakeUp()
+	{
+		Thread thread = writerThread;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Sends everything already enqueued and stops the writer thread. Waits a
+	 * limited time for the pending data to be written.
+	 */
+	public void close()
+	{
+		closing = true;
+		wakeUp();
+
+		if (writerThread != null && writerThread != Thread.currentThread()) {
+			try {
+				writerThread.join(CLOSE_TIMEOUT_MILLIS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return true, if the writer thread has stopped
+	 */
+	public boolean isTerminated()
+	{
+		return terminated;
+	}
+
+	/**
+	 * @return the number of status messages replaced by newer ones before
+	 *         being sent
+	 */
+	public long getMergedStatusMessages()
+	{
+		return mergedStatusMessages.get();
+	}
+
+	private void run()
+	{
+		try {
+			while (true) {
+				// read before draining, so nothing enqueued before close() is missed
+				boolean closeRequested = closing;
+
+				if (drain()) {
+					frameWriter.flush();
+					flushes++;
+				}
+				else if (closeRequested || closeSent) {
+					break;
+				}
+				else {
+					LockSupport.parkNanos(this, TimeUnit.SECONDS.toNanos(1));
+				}
+			}
+		}
+		catch (IOException e) {
+			BasicLogger.logException("Writing to the connection failed", e, LogLevel.ERROR, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+		}
+		finally {
+			terminated = true;
+			controlFrames.clear();
+			messages.clear();
+			pendingStatus.set(null);
+			pendingClose.set(null);
+
+			BasicLogger.log("Outbound queue statistics: " + framesWritten + " frames in " + flushes + " writes, " + mergedStatusMessages.get() + " status messages merged", LogLevel.DEBUG,
+					new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+		}
+	}
+
+	/**
+	 * Appends all pending frames to the frame writer.
+	 *
+	 * @return true, if anything was appended
+	 */
+	private boolean drain() throws IOException
+	{
+		boolean appended = appendControlFrames();
+
+		String message;
+		while (!closeSent && (message = messages.poll()) != null) {
+			if (message == CLOSE_MARKER) {
+				append(pendingClose.get());
+				closeSent = true;
+				appended = true;
+				continue;
+			}
+			if (message == STATUS_MARKER) {
+				message = pendingStatus.getAndSet(null);
+				if (message == null) {
+					continue;
+				}
+			}
+			appendMessage(message);
+			appended = true;
+		}
+
+		return appended;
+	}
+
+	private boolean appendControlFrames() throws IOException
+	{
+		boolean appended = false;
+		Frame frame;
+		while (!closeSent && (frame = controlFrames.poll()) != null) {
+			append(frame);
+			appended = true;
+			if (frame.getOpcode() == Opcode.CLOSE) {
+				closeSent = true;
+			}
+		}
+		return appended;
+	}
+
+	private void appendMessage(String message) throws IOException
+	{
+		MessageOutputStream messageStream = new MessageOutputStream(frameWriter, Opcode.TEXT, maxFrameSize) {
+
+			@Override
+			protected void frameWritten(boolean fin) throws IOException
+			{
+				framesWritten++;
+				if (!fin) {
+					// control frames may be sent between the fragments of a message
+					appendControlFrames();
+				}
+			}
+		};
+
+		// the number of characters is a lower bound of the encoded length
+		if (perMessageDeflate != null && perMessageDeflate.shouldCompress(message.length())) {
+			// compressed here, the compression context depends on the order of messages
+			byte[] compressed = perMessageDeflate.compress(message.getBytes(StandardCharsets.UTF_8));
+			messageStream.setRsv1(true);
+			writeFragmented(messageStream, compressed, 0, compressed.length);
+		}
+		else {
+			writeEncoded(messageStream, message);
+		}
+
+		if (!closeSent) {
+			messageStream.finish();
+		}
+	}
+
+	/**
+	 * Encodes the message in pieces of the encode buffer size into the stream.
+	 */
+	private void writeEncoded(MessageOutputStream messageStream, String message) throws IOException
+	{
+		CharBuffer chars = CharBuffer.wrap(message);
+		encoder.reset();
+		CoderResult result;
+		do {
+			result = encoder.encode(chars, encodeBuffer, true);
+			if (result.isUnderflow()) {
+				encoder.flush(encodeBuffer);
+			}
+			encodeBuffer.flip();
+			writeFragmented(messageStream, encodeBuffer.array(), 0, encodeBuffer.limit());
+			encodeBuffer.clear();
+		}
+		while (result.isOverflow() && !closeSent);
+	}
+
+	/**
+	 * Writes the data in pieces of at most one frame, so that nothing is
+	 * written after a CLOSE frame was sent between two fragments.
+	 */
+	private void writeFragmented(MessageOutputStream messageStream, byte[] data, int offset, int length) throws IOException
+	{
+		int end = offset + length;
+		while (offset < end && !closeSent) {
+			int chunk = Math.min(maxFrameSize, end - offset);
+			messageStream.write(data, offset, chunk);
+			offset += chunk;
+		}
+	}
+
+	private void append(Frame frame) throws IOException
+	{
+		BasicLogger.log("Writing frame: " + frame, LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+		frameWriter.append(frame);
+		framesWritten++;
+	}
+
+}
@@ -0,0 +1,79 @@
+package de.persosim.websocket;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory index of paired certificates keyed by the SHA-256 fingerprint of
+ * their encoding. Lookups are a single hash map access and do not need to
+ * parse any stored certificates.
+ */
+public class PairedCertificateIndex
+{
+
+	/**
+	 * SHA-256 instances reused for all fingerprints computed on the same thread
+	 */
+	private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is required for certificate fingerprints", e);
+		}
+	});
+
+	private final Map<ByteBuffer, Certificate> certificates = new HashMap<>();
+
+	public PairedCertificateIndex(Collection<Certificate> pairedCertificates)
+	{
+		for (Certificate certificate : pairedCertificates) {
+			add(certificate);
+		}
+	}
+
+	/**
+	 * @return the SHA-256 fingerprint of the encoded certificate
+	 */
+	public static byte[] getFingerprint(Certificate certificate)
+	{
+		try {
+			return SHA256.get().digest(certificate.getEncoded());
+		}
+		catch (CertificateEncodingException e) {
+			throw new IllegalArgumentException("Could not encode certificate", e);
+		}
+	}
+
+	public synchronized void add(Certificate certificate)
+	{
+		certificates.put(ByteBuffer.wrap(getFingerprint(certificate)), certificate);
+	}
+
+	public synchronized void remove(Certificate certificate)
+	{
+		certificates.remove(ByteBuffer.wrap(getFingerprint(certificate)));
+	}
+
+	public boolean contains(Certificate certificate)
+	{
+		return containsFingerprint(getFingerprint(certificate));
+	}
+
+	public synchronized boolean containsFingerprint(byte[] fingerprint)
+	{
+		return certificates.containsKey(ByteBuffer.wrap(fingerprint));
+	}
+
+	public synchronized int size()
+	{
+		return certificates.size();
+	}
+
+}
@@ -0,0 +1,35 @@
+package de.persosim.websocket;
+
+import org.bouncycastle.tls.CipherSuite;
+
+/**
+ * The cipher suites the {@link PairingServer} can negotiate. The
+ * declaration order is the default preference order: AES-GCM first, the
+ * original CBC suite as fallback for clients offering nothing else.
+ * <p>
+ * Only RSA_PSK suites are supported. The pairing stores the client
+ * certificate, which is only requested by servers sending a certificate
+ * themselves, so the ECDHE_PSK suites can not be used.
+ */
+public enum PairingCipherSuite
+{
+	RSA_PSK_WITH_AES_256_GCM_SHA384(CipherSuite.TLS_RSA_PSK_WITH_AES_256_GCM_SHA384),
+	RSA_PSK_WITH_AES_128_GCM_SHA256(CipherSuite.TLS_RSA_PSK_WITH_AES_128_GCM_SHA256),
+	RSA_PSK_WITH_AES_256_CBC_SHA(CipherSuite.TLS_RSA_PSK_WITH_AES_256_CBC_SHA);
+
+	private final int cipherSuite;
+
+	PairingCipherSuite(int cipherSuite)
+	{
+		this.cipherSuite = cipherSuite;
+	}
+
+	/**
+	 * @return the TLS {@link CipherSuite} value
+	 */
+	public int getCipherSuite()
+	{
+		return cipherSuite;
+	}
+
+}
@@ -4,12 +4,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
-import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Vector;
 
 import org.bouncycastle.tls.Certificate;
 import org.bouncycastle.tls.CertificateRequest;
-import org.bouncycastle.tls.CipherSuite;
 import org.bouncycastle.tls.ClientCertificateType;
 import org.bouncycastle.tls.HashAlgorithm;
 import org.bouncycastle.tls.PSKTlsServer;
@@ -20,8 +20,6 @@ import org.bouncycastle.tls.TlsKeyExchangeFactory;
 import org.bouncycastle.tls.TlsPSKIdentityManager;
 import org.bouncycastle.tls.TlsServerProtocol;
 import org.bouncycastle.tls.crypto.TlsCrypto;
-import org.bouncycastle.tls.crypto.impl.bc.BcDefaultTlsCredentialedDecryptor;
-import org.bouncycastle.tls.crypto.impl.bc.BcTlsCrypto;
 import org.globaltester.logging.BasicLogger;
 import org.globaltester.logging.tags.LogLevel;
 import org.globaltester.logging.tags.LogTag;
@@ -36,21 +34,46 @@ public class PairingServer implements TlsHandshaker
 	private Socket clientSocket;
 	private TlsServerProtocol protocol;
 	private RemoteIfdConfigManager remoteIfdConfig;
+	private HostCredentials hostCredentials;
 	private Certificate clientCert = null;
+	private List<PairingCipherSuite> cipherSuites = Arrays.asList(PairingCipherSuite.values());
 
 	public PairingServer(String psk, RemoteIfdConfigManager remoteIfdConfig, Socket client)
+	{
+		this(psk, remoteIfdConfig, new HostCredentials(remoteIfdConfig), client);
+	}
+
+	public PairingServer(String psk, RemoteIfdConfigManager remoteIfdConfig, HostCredentials hostCredentials, Socket client)
 	{
 		this.psk = psk.getBytes();
 		this.clientSocket = client;
 		this.remoteIfdConfig = remoteIfdConfig;
+		this.hostCredentials = hostCredentials;
+	}
+
+	/**
+	 * @param cipherSuites
+	 *            the cipher suites to negotiate in order of preference
+	 */
+	public void setCipherSuites(List<PairingCipherSuite> cipherSuites)
+	{
+		this.cipherSuites = cipherSuites;
 	}
 
 	@Override
 	public boolean performHandshake()
 	{
-		TlsCrypto crypto = new BcTlsCrypto(new SecureRandom());
+		if (hostCredentials.getKeyType() != HostKeyType.RSA) {
+			// no handshake, it could not succeed without the RSA decryptor
+			BasicLogger.log("Pairing refused, the RSA_PSK pairing cipher suites require an RSA host key but the host key is an " + hostCredentials.getKeyType() + " key",
+					LogLevel.ERROR, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+			return false;
+		}
+
+		TlsCrypto crypto = hostCredentials.getCrypto();
 
 		TlsPSKIdentityManager identityManager = new SimpleTlsPSKIdentityManager(psk);
+		int[] preferredCipherSuites = cipherSuites.stream().mapToInt(PairingCipherSuite::getCipherSuite).toArray();
 
 		try {
 
@@ -66,14 +89,19 @@ public class PairingServer implements TlsHandshaker
 				@Override
 				public int[] getCipherSuites()
 				{
-					return new int[] { CipherSuite.TLS_RSA_PSK_WITH_AES_256_CBC_SHA };
+					return preferredCipherSuites;
+				}
+
+				@Override
+				protected boolean preferLocalCipherSuites()
+				{
+					return true;
 				}
 
 				@Override
 				protected TlsCredentialedDecryptor getRSAEncryptionCredentials() throws IOException
 				{
-					return new BcDefaultTlsCredentialedDecryptor((BcTlsCrypto) getCrypto(), CertificateConverter.fromJavaCertificateToBcTlsCertificate(remoteIfdConfig.getHostCertificate()),
-							CertificateConverter.fromJavaKeyToBcAsymetricKeyParameter(remoteIfdConfig.getHostPrivateKey()));
+					return hostCredentials.getDecryptor();
 				}
 
 				@Override
@@ -87,7 +115,7 @@ public class PairingServer implements TlsHandshaker
 				{
 					super.notifyHandshakeComplete();
 					remoteIfdConfig.addPairedCertificate(CertificateConverter.fromBcTlsCertificateToJavaCertificate(clientCert));
-					BasicLogger.log("Handshake done", LogLevel.DEBUG, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+					BasicLogger.log("Handshake done, cipher suite " + Integer.toHexString(context.getSecurityParametersConnection().getCipherSuite()), LogLevel.DEBUG, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
 				}
 
 				@Override
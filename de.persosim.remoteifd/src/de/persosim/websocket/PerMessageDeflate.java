@@ -0,0 +1,383 @@
+package de.persosim.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The permessage-deflate extension as defined in RFC7692. Compressed messages
+ * are marked by the RSV1 bit on their first frame.
+ * <p>
+ * An instance with the server preferences negotiates the parameters for a
+ * connection from the extension offers of the client, see
+ * {@link #negotiate(String)}. The negotiated instance holds the compression
+ * contexts of one connection. Compression is only used by the single writer
+ * thread and decompression only by the reading thread.
+ * <p>
+ * java.util.zip always compresses with a window of 2^15 bytes, so offers
+ * limiting the server window to less than 15 bits are declined.
+ */
+public class PerMessageDeflate
+{
+
+	public static final String EXTENSION_NAME = "permessage-deflate";
+
+	public static final int MIN_WINDOW_BITS = 8;
+	public static final int MAX_WINDOW_BITS = 15;
+
+	/**
+	 * Shorter messages are sent uncompressed, the deflate overhead outweighs
+	 * the savings
+	 */
+	public static final int DEFAULT_MIN_COMPRESSION_LENGTH = 64;
+
+	private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+	private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+	private static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+	private static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+
+	/**
+	 * Removed from the end of each compressed message and appended before
+	 * decompression, see RFC7692 7.2.1
+	 */
+	private static final byte[] EMPTY_BLOCK_TAIL = new byte[] { 0, 0, (byte) 0xFF, (byte) 0xFF };
+
+	private boolean serverNoContextTakeover;
+	private boolean clientNoContextTakeover;
+	private int clientMaxWindowBits;
+	private int minCompressionLength = DEFAULT_MIN_COMPRESSION_LENGTH;
+	private String responseParameters = "";
+
+	private Deflater deflater;
+	private Inflater inflater;
+	private byte[] buffer = new byte[1024];
+
+	/**
+	 * Creates the server preferences.
+	 *
+	 * @param serverNoContextTakeover
+	 *            true, if the compression context is reset after each message
+	 *            sent, saving memory of the client
+	 * @param clientNoContextTakeover
+	 *            true, if the client is asked to reset its compression context
+	 *            after each message, saving memory of the server
+	 * @param clientMaxWindowBits
+	 *            window size requested for the compression of the client,
+	 *            used if the client allows to limit it
+	 */
+	public PerMessageDeflate(boolean serverNoContextTakeover, boolean clientNoContextTakeover, int clientMaxWindowBits)
+	{
+		if (clientMaxWindowBits < MIN_WINDOW_BITS || clientMaxWindowBits > MAX_WINDOW_BITS) {
+			throw new IllegalArgumentException("Window bits must be between " + MIN_WINDOW_BITS + " and " + MAX_WINDOW_BITS);
+		}
+		this.serverNoContextTakeover = serverNoContextTakeover;
+		this.clientNoContextTakeover = clientNoContextTakeover;
+		this.clientMaxWindowBits = clientMaxWindowBits;
+	}
+
+	/**
+	 * @param minCompressionLength
+	 *            messages shorter than this are sent uncompressed
+	 */
+	public void setMinCompressionLength(int minCompressionLength)
+	{
+		this.minCompressionLength = minCompressionLength;
+	}
+
+	/**
+	 * Selects the first acceptable permessage-deflate offer.
+	 *
+	 * @param extensionOffers
+	 *            the value of the Sec-WebSocket-Extensions headers, multiple
+	 *            headers joined by commas
+	 * @return the negotiated extension for the connection or null, if no
+	 *         offer is acceptable
+	 */
+	public PerMessageDeflate negotiate(String extensionOffers)
+	{
+		if (extensionOffers == null) {
+			return null;
+		}
+
+		for (String offer : extensionOffers.split(",")) {
+			String[] elements = offer.split(";");
+			if (!EXTENSION_NAME.equalsIgnoreCase(elements[0].trim())) {
+				continue;
+			}
+
+			PerMessageDeflate negotiated = accept(elements);
+			if (negotiated != null) {
+				return negotiated;
+			}
+		}
+		return null;
+	}
+
+	private PerMessageDeflate accept(String[] elements)
+	{
+		PerMessageDeflate negotiated = new PerMessageDeflate(serverNoContextTakeover, clientNoContextTakeover, clientMaxWindowBits);
+		negotiated.minCompressionLength = minCompressionLength;
+		// the window of the client can only be limited if it offers so
+		negotiated.clientMaxWindowBits = MAX_WINDOW_BITS;
+
+		boolean serverWindowBitsOffered = false;
+		boolean clientWindowBitsOffered = false;
+		Set<String> seen = new HashSet<>();
+
+		for (int i = 1; i < elements.length; i++) {
+			String[] parameter = elements[i].split("=", 2);
+			String name = parameter[0].trim().toLowerCase(Locale.ROOT);
+			String value = parameter.length > 1 ? parameter[1].trim().replace("\"", "") : null;
+
+			if (!seen.add(name)) {
+				// duplicate parameters make the offer invalid, see RFC7692 7
+				return null;
+			}
+
+			switch (name) {
+				case SERVER_NO_CONTEXT_TAKEOVER:
+					if (value != null) {
+						return null;
+					}
+					negotiated.serverNoContextTakeover = true;
+					break;
+				case CLIENT_NO_CONTEXT_TAKEOVER:
+					if (value != null) {
+						return null;
+					}
+					// confirming the hint of the client allows resetting the inflater
+					negotiated.clientNoContextTakeover = true;
+					break;
+				case SERVER_MAX_WINDOW_BITS:
+					if (parseWindowBits(value) != MAX_WINDOW_BITS) {
+						// window of the deflater can not be limited
+						return null;
+					}
+					serverWindowBitsOffered = true;
+					break;
+				case CLIENT_MAX_WINDOW_BITS:
+					if (value != null && parseWindowBits(value) < 0) {
+						return null;
+					}
+					clientWindowBitsOffered = true;
+					negotiated.clientMaxWindowBits = value == null ? clientMaxWindowBits : Math.min(clientMaxWindowBits, parseWindowBits(value));
+					break;
+				default:
+					return null;
+			}
+		}
+
+		StringBuilder response = new StringBuilder();
+		if (negotiated.serverNoContextTakeover) {
+			response.append("; ").append(SERVER_NO_CONTEXT_TAKEOVER);
+		}
+		if (negotiated.clientNoContextTakeover) {
+			response.append("; ").append(CLIENT_NO_CONTEXT_TAKEOVER);
+		}
+		if (serverWindowBitsOffered) {
+			response.append("; ").append(SERVER_MAX_WINDOW_BITS).append('=').append(MAX_WINDOW_BITS);
+		}
+		if (clientWindowBitsOffered && negotiated.clientMaxWindowBits < MAX_WINDOW_BITS) {
+			response.append("; ").append(CLIENT_MAX_WINDOW_BITS).append('=').append(negotiated.clientMaxWindowBits);
+		}
+		negotiated.responseParameters = response.toString();
+
+		negotiated.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		negotiated.inflater = new Inflater(true);
+		return negotiated;
+	}
+
+	/**
+	 * @return the window bits or -1 if the value is not valid
+	 */
+	private static int parseWindowBits(String value)
+	{
+		if (value == null || value.length() > 2) {
+			return -1;
+		}
+		try {
+			int bits = Integer.parseInt(value);
+			return bits >= MIN_WINDOW_BITS && bits <= MAX_WINDOW_BITS ? bits : -1;
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return the value of the Sec-WebSocket-Extensions header accepting the
+	 *         negotiated offer
+	 */
+	public String getResponseHeaderValue()
+	{
+		return EXTENSION_NAME + responseParameters;
+	}
+
+	public boolean isServerNoContextTakeover()
+	{
+		return serverNoContextTakeover;
+	}
+
+	public boolean isClientNoContextTakeover()
+	{
+		return clientNoContextTakeover;
+	}
+
+	public int getClientMaxWindowBits()
+	{
+		return clientMaxWindowBits;
+	}
+
+	/**
+	 * @param length
+	 *            the length of the uncompressed message
+	 * @return true, if a message of this length should be sent compressed
+	 */
+	public boolean shouldCompress(int length)
+	{
+		return length >= minCompressionLength;
+	}
+
+	/**
+	 * Compresses the payload of one message.
+	 *
+	 * @param payload
+	 * @return the compressed payload without the trailing empty block
+	 */
+	public byte[] compress(byte[] payload)
+	{
+		checkNegotiated();
+
+		deflater.setInput(payload);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, payload.length / 2));
+		int length;
+		do {
+			length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+			compressed.write(buffer, 0, length);
+		}
+		while (length == buffer.length || !deflater.needsInput());
+
+		if (serverNoContextTakeover) {
+			deflater.reset();
+		}
+
+		byte[] result = compressed.toByteArray();
+		int resultLength = result.length;
+		if (endsWithEmptyBlock(result)) {
+			resultLength -= EMPTY_BLOCK_TAIL.length;
+		}
+		return resultLength == result.length ? result : Arrays.copyOf(result, resultLength);
+	}
+
+	/**
+	 * Decompresses the payload of one message.
+	 *
+	 * @param payload
+	 *            the compressed payload without the trailing empty block
+	 * @return the decompressed payload
+	 * @throws IOException
+	 *             if the payload is not valid deflate data
+	 */
+	public byte[] decompress(ByteBuffer payload) throws IOException
+	{
+		return decompress(payload, Integer.MAX_VALUE - 8);
+	}
+
+	/**
+	 * Decompresses the payload of one message, stopping as soon as the
+	 * decompressed data exceeds the given length.
+	 *
+	 * @param payload
+	 *            the compressed payload without the trailing empty block
+	 * @param maxLength
+	 *            the maximum length of the decompressed payload
+	 * @return the decompressed payload
+	 * @throws WebSocketProtocolException
+	 *             with status code 1009 if the decompressed payload is longer
+	 *             than maxLength
+	 * @throws IOException
+	 *             if the payload is not valid deflate data
+	 */
+	public byte[] decompress(ByteBuffer payload, int maxLength) throws IOException
+	{
+		checkNegotiated();
+
+		ByteArrayOutputStream decompressed = new ByteArrayOutputStream((int) Math.min(maxLength, Math.max(64, payload.remaining() * 4L)));
+		try {
+			inflater.setInput(payload);
+			inflate(decompressed, maxLength);
+			inflater.setInput(EMPTY_BLOCK_TAIL);
+			inflate(decompressed, maxLength);
+		}
+		catch (DataFormatException e) {
+			throw new IOException("Invalid compressed message", e);
+		}
+
+		// a final block ends the context as well, see RFC7692 7.2.3.3
+		if (clientNoContextTakeover || inflater.finished()) {
+			inflater.reset();
+		}
+		return decompressed.toByteArray();
+	}
+
+	private void inflate(ByteArrayOutputStream decompressed, int maxLength) throws DataFormatException, WebSocketProtocolException
+	{
+		while (!inflater.finished()) {
+			int length = inflater.inflate(buffer);
+			if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+				break;
+			}
+			if (length > maxLength - decompressed.size()) {
+				// the context is unusable after an aborted message, the connection is closed anyway
+				inflater.reset();
+				throw new WebSocketProtocolException(WebSocketProtocol.CLOSE_MESSAGE_TOO_BIG, "Decompressed message exceeds the maximum of " + maxLength + " bytes");
+			}
+			decompressed.write(buffer, 0, length);
+		}
+	}
+
+	private static boolean endsWithEmptyBlock(byte[] data)
+	{
+		if (data.length < EMPTY_BLOCK_TAIL.length) {
+			return false;
+		}
+		for (int i = 0; i < EMPTY_BLOCK_TAIL.length; i++) {
+			if (data[data.length - EMPTY_BLOCK_TAIL.length + i] != EMPTY_BLOCK_TAIL[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void checkNegotiated()
+	{
+		if (deflater == null) {
+			throw new IllegalStateException("Compression is only available after negotiation");
+		}
+	}
+
+	/**
+	 * Releases the native resources of the compression contexts.
+	 */
+	public void close()
+	{
+		if (deflater != null) {
+			deflater.end();
+			inflater.end();
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return getResponseHeaderValue();
+	}
+
+}
@@ -1,5 +1,6 @@
 package de.persosim.websocket;
 
+import java.security.PrivateKey;
 import java.security.cert.Certificate;
 import java.security.interfaces.RSAPrivateKey;
 import java.util.Map;
@@ -13,10 +14,39 @@ public interface RemoteIfdConfigManager {
 
 	Certificate getHostCertificate();
 
+	/**
+	 * @return the private key of the host certificate
+	 * @throws IllegalStateException
+	 *             if the host key is not an RSA key
+	 * @deprecated the host key may be an EC key, use {@link #getHostKey()}
+	 */
+	@Deprecated
 	RSAPrivateKey getHostPrivateKey();
 
+	/**
+	 * Implementations supporting EC host keys must override this method, the
+	 * default only supports RSA host keys.
+	 *
+	 * @return the private key of the host certificate, either an RSA or an EC
+	 *         key, see {@link HostKeyType}
+	 */
+	@SuppressWarnings("deprecation")
+	default PrivateKey getHostKey() {
+		return getHostPrivateKey();
+	}
+
 	Map<Certificate, String> getPairedCertificates();
 
+	/**
+	 * Checks whether a certificate is paired. This is called during every
+	 * handshake, implementations that need to load or parse the paired
+	 * certificates should override it with an indexed lookup, e.g. using a
+	 * {@link PairedCertificateIndex}.
+	 */
+	default boolean isPairedCertificate(Certificate certificate) {
+		return getPairedCertificates().containsKey(certificate);
+	}
+
 	void addPairedCertificate(Certificate certificate);
 
 	void deletePairedCertificate(Certificate certificate);
@@ -0,0 +1,36 @@
+package de.persosim.websocket;
+
+import java.security.SecureRandom;
+
+import org.bouncycastle.tls.crypto.TlsCrypto;
+import org.bouncycastle.tls.crypto.impl.bc.BcTlsCrypto;
+import org.bouncycastle.tls.crypto.impl.jcajce.JcaTlsCryptoProvider;
+
+/**
+ * The implementations of the TLS primitives available for the remote IFD
+ * servers.
+ */
+public enum TlsCryptoBackend
+{
+	/**
+	 * Bouncycastle lightweight API, pure Java implementations
+	 */
+	BC,
+
+	/**
+	 * Algorithms of the JVM security providers, which use the AES and SHA
+	 * intrinsics of the JVM where available
+	 */
+	JCA;
+
+	public TlsCrypto create(SecureRandom random)
+	{
+		switch (this) {
+		case JCA:
+			return new JcaTlsCryptoProvider().create(random);
+		default:
+			return new BcTlsCrypto(random);
+		}
+	}
+
+}
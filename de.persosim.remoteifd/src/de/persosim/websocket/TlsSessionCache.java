@@ -0,0 +1,262 @@
+package de.persosim.websocket;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.bouncycastle.tls.Certificate;
+import org.bouncycastle.tls.TlsSession;
+
+/**
+ * Bounded server side cache of TLS sessions for session ID based resumption.
+ * <p>
+ * Entries expire after a fixed lifetime measured from the full handshake that
+ * created them. If the cache is full, the least recently used entry is
+ * evicted. Each entry remembers the client and host certificate of the full
+ * handshake, so that callers can refuse to resume a session whose client is no
+ * longer paired or whose host certificate has been replaced.
+ * <p>
+ * The cache also collects the hit rate and the handshake latencies of full and
+ * resumed handshakes.
+ */
+public class TlsSessionCache
+{
+	public static final int DEFAULT_MAX_SIZE = 32;
+	public static final long DEFAULT_LIFETIME_MILLIS = TimeUnit.HOURS.toMillis(2);
+
+	private static final int SESSION_ID_LENGTH = 32;
+
+	/**
+	 * A cached session together with the certificates of its full handshake
+	 */
+	public static class Entry
+	{
+		private final TlsSession session;
+		private final Certificate clientCertificate;
+		private final java.security.cert.Certificate javaClientCertificate;
+		private final java.security.cert.Certificate hostCertificate;
+		private final long createdNanos;
+
+		Entry(TlsSession session, Certificate clientCertificate, java.security.cert.Certificate javaClientCertificate, java.security.cert.Certificate hostCertificate,
+				long createdNanos)
+		{
+			this.session = session;
+			this.clientCertificate = clientCertificate;
+			this.javaClientCertificate = javaClientCertificate;
+			this.hostCertificate = hostCertificate;
+			this.createdNanos = createdNanos;
+		}
+
+		public TlsSession getSession()
+		{
+			return session;
+		}
+
+		public Certificate getClientCertificate()
+		{
+			return clientCertificate;
+		}
+
+		public java.security.cert.Certificate getJavaClientCertificate()
+		{
+			return javaClientCertificate;
+		}
+
+		public java.security.cert.Certificate getHostCertificate()
+		{
+			return hostCertificate;
+		}
+	}
+
+	private final int maxSize;
+	private final long lifetimeNanos;
+	private final SecureRandom random = new SecureRandom();
+	private final LinkedHashMap<ByteBuffer, Entry> sessions;
+
+	private long lookups = 0;
+	private long hits = 0;
+	private long fullHandshakes = 0;
+	private long fullHandshakeNanos = 0;
+	private long resumedHandshakes = 0;
+	private long resumedHandshakeNanos = 0;
+
+	/**
+	 * @param maxSize
+	 *            the maximum number of cached sessions, must be positive
+	 * @param lifetimeMillis
+	 *            the time after which a session can no longer be resumed
+	 */
+	public TlsSessionCache(int maxSize, long lifetimeMillis)
+	{
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("The maximum size must be positive");
+		}
+		if (lifetimeMillis < 1) {
+			throw new IllegalArgumentException("The lifetime must be positive");
+		}
+		this.maxSize = maxSize;
+		this.lifetimeNanos = TimeUnit.MILLISECONDS.toNanos(lifetimeMillis);
+		this.sessions = new LinkedHashMap<ByteBuffer, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Entry> eldest)
+			{
+				if (size() > TlsSessionCache.this.maxSize) {
+					eldest.getValue().getSession().invalidate();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @return a new random session ID
+	 */
+	public byte[] createSessionID()
+	{
+		byte[] sessionId = new byte[SESSION_ID_LENGTH];
+		random.nextBytes(sessionId);
+		return sessionId;
+	}
+
+	/**
+	 * Stores a session after a full handshake. Sessions that are not resumable
+	 * or have no session ID are ignored.
+	 */
+	public synchronized void put(TlsSession session, Certificate clientCertificate, java.security.cert.Certificate javaClientCertificate, java.security.cert.Certificate hostCertificate)
+	{
+		if (session == null || !session.isResumable() || session.getSessionID() == null || session.getSessionID().length == 0) {
+			return;
+		}
+		removeExpired(System.nanoTime());
+		sessions.put(key(session.getSessionID()), new Entry(session, clientCertificate, javaClientCertificate, hostCertificate, System.nanoTime()));
+	}
+
+	/**
+	 * Looks up a session offered by a client. Expired and no longer resumable
+	 * sessions as well as sessions rejected by the given check are removed and
+	 * not returned.
+	 *
+	 * @param stillValid
+	 *            decides whether the certificates of the entry still allow a
+	 *            resumption
+	 * @return the cached entry or null
+	 */
+	public synchronized Entry get(byte[] sessionId, Predicate<Entry> stillValid)
+	{
+		if (sessionId == null || sessionId.length == 0) {
+			return null;
+		}
+		lookups++;
+		ByteBuffer key = key(sessionId);
+		Entry entry = sessions.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (isExpired(entry, System.nanoTime()) || !entry.getSession().isResumable() || !stillValid.test(entry)) {
+			sessions.remove(key);
+			entry.getSession().invalidate();
+			return null;
+		}
+		hits++;
+		return entry;
+	}
+
+	/**
+	 * Removes and invalidates all sessions
+	 */
+	public synchronized void clear()
+	{
+		for (Entry entry : sessions.values()) {
+			entry.getSession().invalidate();
+		}
+		sessions.clear();
+	}
+
+	public synchronized int size()
+	{
+		return sessions.size();
+	}
+
+	public int getMaxSize()
+	{
+		return maxSize;
+	}
+
+	/**
+	 * Records the duration of a successful handshake.
+	 */
+	public synchronized void recordHandshake(boolean resumed, long nanos)
+	{
+		if (resumed) {
+			resumedHandshakes++;
+			resumedHandshakeNanos += nanos;
+		}
+		else {
+			fullHandshakes++;
+			fullHandshakeNanos += nanos;
+		}
+	}
+
+	/**
+	 * @return the share of session lookups that resulted in a resumable
+	 *         session, 0 if there were no lookups
+	 */
+	public synchronized double getHitRate()
+	{
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	public synchronized long getFullHandshakes()
+	{
+		return fullHandshakes;
+	}
+
+	public synchronized long getResumedHandshakes()
+	{
+		return resumedHandshakes;
+	}
+
+	/**
+	 * @return a human readable summary of hit rate and handshake latencies
+	 */
+	public synchronized String getStatistics()
+	{
+		return String.format("session cache %d/%d, hit rate %.1f%% (%d/%d), full handshakes %d (avg %.2f ms), resumed handshakes %d (avg %.2f ms)", sessions.size(), maxSize,
+				getHitRate() * 100, hits, lookups, fullHandshakes, average(fullHandshakeNanos, fullHandshakes), resumedHandshakes,
+				average(resumedHandshakeNanos, resumedHandshakes));
+	}
+
+	private static double average(long nanos, long count)
+	{
+		return count == 0 ? 0 : nanos / 1e6 / count;
+	}
+
+	private boolean isExpired(Entry entry, long now)
+	{
+		return now - entry.createdNanos >= lifetimeNanos;
+	}
+
+	private void removeExpired(long now)
+	{
+		Iterator<Entry> iterator = sessions.values().iterator();
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (isExpired(entry, now)) {
+				entry.getSession().invalidate();
+				iterator.remove();
+			}
+		}
+	}
+
+	private static ByteBuffer key(byte[] sessionId)
+	{
+		return ByteBuffer.wrap(sessionId.clone());
+	}
+}
@@ -1,74 +1,243 @@
 package de.persosim.websocket;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.globaltester.logging.BasicLogger;
 import org.globaltester.logging.tags.LogLevel;
 import org.globaltester.logging.tags.LogTag;
 
 import de.persosim.simulator.log.PersoSimLogTags;
-import de.persosim.simulator.utils.HexString;
-import de.persosim.simulator.utils.Utils;
 import de.persosim.websocket.Frame.Opcode;
 
 public class WebSocketProtocol
 {
 
-	private DataInputStream inputStream;
-	private DataOutputStream outputStream;
+	/**
+	 * Default maximum payload length of outgoing frames, longer messages are
+	 * fragmented
+	 */
+	public static final int DEFAULT_MAX_OUTBOUND_FRAME_SIZE = 65536;
+
+	/**
+	 * Interval for polling the icc presence if the message handler does not
+	 * push presence changes
+	 */
+	private static final long ICC_POLLING_INTERVAL_MILLIS = 1000;
+
+	/**
+	 * Maximum time to wait for the handling of already received messages
+	 * when the connection is closed
+	 */
+	private static final long MESSAGE_DRAIN_TIMEOUT_MILLIS = 5000;
+
+	/**
+	 * Status codes for CLOSE frames, see RFC6455 7.4.1
+	 */
+	static final int CLOSE_PROTOCOL_ERROR = 1002;
+	static final int CLOSE_INVALID_PAYLOAD = 1007;
+	static final int CLOSE_MESSAGE_TOO_BIG = 1009;
+
+	private FrameDecoder frameDecoder = new FrameDecoder();
+	private BlockingFrameReader frameReader;
+	private FrameWriter frameWriter;
 	private MessageHandler messageHandler;
 	private HandshakeHandler handshakeHandler;
 
-	private Frame joinedFrame = null;
+	private int maxOutboundFrameSize = DEFAULT_MAX_OUTBOUND_FRAME_SIZE;
+	private int messageQueueDepth = OrderedMessageExecutor.DEFAULT_QUEUE_DEPTH;
+	private boolean useVirtualThreads = false;
+	private OrderedMessageExecutor messageExecutor;
+	private OutboundQueue outboundQueue;
+	private PerMessageDeflate perMessageDeflate;
+
+	private int pingIntervalMillis = KeepAlive.DEFAULT_PING_INTERVAL_MILLIS;
+	private int pongTimeoutMillis = KeepAlive.DEFAULT_PONG_TIMEOUT_MILLIS;
+	private int idleTimeoutMillis = KeepAlive.DEFAULT_IDLE_TIMEOUT_MILLIS;
+	private Closeable connection;
+	private KeepAlive keepAlive;
+
+	private final Semaphore iccPresenceSignal = new Semaphore(0);
+	private volatile boolean pushedIccState;
+	private final IccPresenceListener iccPresenceListener = iccAvailable -> {
+		pushedIccState = iccAvailable;
+		iccPresenceSignal.release();
+	};
 
 	public WebSocketProtocol(InputStream inputStream, OutputStream outputStream, MessageHandler messageHandler, HandshakeHandler handshakeHandler)
 	{
-		this.inputStream = new DataInputStream(inputStream);
-		this.outputStream = new DataOutputStream(outputStream);
+		this.frameReader = new BlockingFrameReader(inputStream, frameDecoder);
+		this.connection = inputStream;
+		this.frameWriter = new FrameWriter(outputStream);
 		this.messageHandler = messageHandler;
 		this.handshakeHandler = handshakeHandler;
 	}
 
+	/**
+	 * Sets the maximum payload length of outgoing frames. Longer messages are
+	 * sent as a sequence of fragments.
+	 * 
+	 * @param maxOutboundFrameSize
+	 */
+	public void setMaxOutboundFrameSize(int maxOutboundFrameSize)
+	{
+		if (maxOutboundFrameSize < 1) {
+			throw new IllegalArgumentException("Maximum outbound frame size must be positive");
+		}
+		this.maxOutboundFrameSize = maxOutboundFrameSize;
+	}
+
+	/**
+	 * Sets the maximum payload length of received frames. Longer frames are
+	 * rejected by closing the connection before the payload is read.
+	 * 
+	 * @param maxInboundFrameSize
+	 */
+	public void setMaxInboundFrameSize(int maxInboundFrameSize)
+	{
+		frameDecoder.setMaxFrameSize(maxInboundFrameSize);
+	}
+
+	/**
+	 * Sets the maximum length of received messages, all fragments joined and
+	 * decompressed. Longer messages are rejected by closing the connection.
+	 * 
+	 * @param maxInboundMessageSize
+	 */
+	public void setMaxInboundMessageSize(int maxInboundMessageSize)
+	{
+		frameDecoder.setMaxMessageSize(maxInboundMessageSize);
+	}
+
+	/**
+	 * Sets the maximum number of bytes held by received data that is not
+	 * completely processed yet, including messages waiting for processing.
+	 * The connection is closed if the limit is exceeded.
+	 * 
+	 * @param inboundBudget
+	 */
+	public void setInboundBudget(long inboundBudget)
+	{
+		frameDecoder.setInboundBudget(new InboundBudget(inboundBudget));
+	}
+
+	/**
+	 * @param pingIntervalMillis
+	 *            time between PING frames sent to detect dead peers, 0 to
+	 *            disable
+	 */
+	public void setPingInterval(int pingIntervalMillis)
+	{
+		this.pingIntervalMillis = pingIntervalMillis;
+	}
+
+	/**
+	 * @param pongTimeoutMillis
+	 *            time to wait for the PONG before the connection is closed
+	 */
+	public void setPongTimeout(int pongTimeoutMillis)
+	{
+		this.pongTimeoutMillis = pongTimeoutMillis;
+	}
+
+	/**
+	 * @param idleTimeoutMillis
+	 *            time without any received data before the connection is
+	 *            closed, 0 to disable
+	 */
+	public void setIdleTimeout(int idleTimeoutMillis)
+	{
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	/**
+	 * Sets the connection to close if the peer does not respond anymore.
+	 * Closing it must unblock the reading thread, by default the input stream
+	 * is closed.
+	 * 
+	 * @param connection
+	 */
+	public void setConnection(Closeable connection)
+	{
+		this.connection = connection;
+	}
+
+	/**
+	 * @return the keep alive of the current connection providing the measured
+	 *         round trip times, null before the connection is established
+	 */
+	public KeepAlive getKeepAlive()
+	{
+		return keepAlive;
+	}
+
+	/**
+	 * Sets the maximum number of received messages waiting for processing.
+	 * Reading from the connection blocks while this limit is reached.
+	 * 
+	 * @param messageQueueDepth
+	 */
+	public void setMessageQueueDepth(int messageQueueDepth)
+	{
+		if (messageQueueDepth < 1) {
+			throw new IllegalArgumentException("Message queue depth must be positive");
+		}
+		this.messageQueueDepth = messageQueueDepth;
+	}
+
+	/**
+	 * @param useVirtualThreads
+	 *            true, if messages should be processed on a virtual thread if
+	 *            supported by the runtime
+	 */
+	public void setUseVirtualThreads(boolean useVirtualThreads)
+	{
+		this.useVirtualThreads = useVirtualThreads;
+	}
+
+	/**
+	 * @return the executor processing the messages of the current connection,
+	 *         null before the connection is established
+	 */
+	public OrderedMessageExecutor getMessageExecutor()
+	{
+		return messageExecutor;
+	}
+
 	public void handleConnection()
 	{
 		ConnectionState connectionState = ConnectionState.NEW;
-		Thread iccPollingThread = null;
+		Thread iccStatusThread = null;
 
 		while (true) {
 			switch (connectionState) {
 				case NEW:
 					if (handshakeHandler.handle()) {
 						connectionState = ConnectionState.ESTABLISHED;
-						iccPollingThread = new Thread(new Runnable() {
-
-							private boolean lastIccState;
-
-							@Override
-							public void run()
-							{
-								while (!Thread.interrupted()) {
-									try {
-										Thread.sleep(1000);
-									}
-									catch (InterruptedException e) {
-										// Expected when peer closes socket
-										BasicLogger.log("Sleeping of icc polling thread interrupted. " + e.getMessage(), LogLevel.INFO, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
-										Thread.currentThread().interrupt();
-									}
-									if (messageHandler.isIccAvailable() != lastIccState) {
-										lastIccState = !lastIccState;
-										writeFrame(createBasicFrame(Opcode.TEXT, messageHandler.getStatusMessage().getBytes(StandardCharsets.UTF_8)));
-									}
-								}
-							}
-						});
-						iccPollingThread.start();
+						perMessageDeflate = handshakeHandler.getPerMessageDeflate();
+						if (handshakeHandler.getSubprotocol() != null && !messageHandler.selectProtocol(handshakeHandler.getSubprotocol())) {
+							BasicLogger.log("Message handler does not support the negotiated subprotocol " + handshakeHandler.getSubprotocol(), LogLevel.WARN,
+									new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+						}
+						frameDecoder.setRsv1Allowed(perMessageDeflate != null);
+						outboundQueue = new OutboundQueue(frameWriter, maxOutboundFrameSize);
+						outboundQueue.setPerMessageDeflate(perMessageDeflate);
+						outboundQueue.start();
+						keepAlive = new KeepAlive(pingIntervalMillis, pongTimeoutMillis, idleTimeoutMillis, outboundQueue::sendControl, frameReader::getLastReadNanos, connection);
+						keepAlive.start();
+						messageExecutor = new OrderedMessageExecutor("WebSocketProtocol-MessageHandler", messageQueueDepth, useVirtualThreads);
+						iccStatusThread = createIccStatusThread();
+						iccStatusThread.start();
+					}
+					else {
+						// the request was rejected or the stream ended, a retry would fail the same way
+						BasicLogger.log("Websocket handshake failed, closing connection", LogLevel.WARN, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+						connectionState = ConnectionState.CLOSED;
 					}
 
 					break;
@@ -80,45 +249,81 @@ public class WebSocketProtocol
 						break;
 					}
 
+					InboundBudget inboundBudget = frameDecoder.getInboundBudget();
+
 					if (currentFrame.getOpcode().isControl()) {
 						BasicLogger.log("Handling control frame", LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+						if (currentFrame.getOpcode() == Opcode.CLOSE) {
+							// the responses to earlier messages are sent before the CLOSE reply
+							finishMessageProcessing();
+						}
 						connectionState = handleFrame(currentFrame);
+						inboundBudget.release(currentFrame.getPayloadLength());
+						break;
 					}
-					else {
-						if (joinedFrame == null) {
-							if (!Opcode.CONTINUATION.equals(currentFrame.getOpcode())) {
-								BasicLogger.log("Starting new joined frame", LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
-								joinedFrame = currentFrame;
-							}
-							else {
-								BasicLogger.log("Expected normal frame but got " + currentFrame.getOpcode().toString(), LogLevel.WARN,
-										new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
-							}
+
+					BasicLogger.log("Message complete, handling now", LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+					if (currentFrame.getRSV1()) {
+						try {
+							int compressedLength = currentFrame.getPayloadLength();
+							// only the reading thread reserves, so the available bytes can not shrink meanwhile
+							int maxLength = (int) Math.min(frameDecoder.getMaxMessageSize(), inboundBudget.getAvailable());
+							byte[] decompressed = perMessageDeflate.decompress(currentFrame.getPayloadBuffer(), maxLength);
+							inboundBudget.reserve(decompressed.length);
+							currentFrame.setPayload(decompressed);
+							currentFrame.setRSV1(false);
+							inboundBudget.release(compressedLength);
 						}
-						else {
-							if (Opcode.CONTINUATION.equals(currentFrame.getOpcode())) {
-								BasicLogger.log("Appending to joined frame", LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
-								joinedFrame.appendFrame(currentFrame);
-							}
-							else {
-								BasicLogger.log("Expected contination frame but got " + currentFrame.getOpcode().toString(), LogLevel.WARN,
-										new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
-							}
+						catch (WebSocketProtocolException e) {
+							BasicLogger.logException("Decompressed message too big", e, LogLevel.WARN, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+							writeFrame(createCloseFrame(e.getCloseCode()));
+							connectionState = ConnectionState.CLOSED;
+							break;
 						}
-
-						if (joinedFrame != null && joinedFrame.getFin()) {
-							BasicLogger.log("Joined frame complete, handling now", LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
-							final Frame frameToProcess = joinedFrame;
-							joinedFrame = null;
-							Thread handler = new Thread(() -> handleFrame(frameToProcess));
-							handler.start();
+						catch (IOException e) {
+							BasicLogger.logException("Decompressing a message failed", e, LogLevel.WARN, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+							writeFrame(createCloseFrame(CLOSE_INVALID_PAYLOAD));
+							connectionState = ConnectionState.CLOSED;
+							break;
 						}
 					}
 
+					try {
+						int reservedLength = currentFrame.getPayloadLength();
+						messageExecutor.execute(() -> {
+							try {
+								handleFrame(currentFrame);
+							}
+							finally {
+								inboundBudget.release(reservedLength);
+							}
+						});
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						connectionState = ConnectionState.CLOSED;
+					}
+
 					break;
 				case CLOSED:
-					if (iccPollingThread != null) {
-						iccPollingThread.interrupt();
+					messageHandler.removeIccPresenceListener(iccPresenceListener);
+					if (keepAlive != null) {
+						keepAlive.stop();
+						BasicLogger.log("Round trip times: " + keepAlive.getRoundTrips() + " measured, last " + TimeUnit.NANOSECONDS.toMillis(keepAlive.getLastRoundTripNanos()) + " ms, min "
+								+ TimeUnit.NANOSECONDS.toMillis(keepAlive.getMinRoundTripNanos()) + " ms, average " + TimeUnit.NANOSECONDS.toMillis(keepAlive.getAverageRoundTripNanos()) + " ms", LogLevel.DEBUG,
+								new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+					}
+					if (iccStatusThread != null) {
+						iccStatusThread.interrupt();
+					}
+					finishMessageProcessing();
+					BasicLogger.log("Inbound budget peak usage: " + frameDecoder.getInboundBudget().getPeak() + " of " + frameDecoder.getInboundBudget().getLimit() + " bytes", LogLevel.DEBUG,
+							new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+					if (outboundQueue != null) {
+						outboundQueue.close();
+					}
+					if (perMessageDeflate != null && (outboundQueue == null || outboundQueue.isTerminated())) {
+						perMessageDeflate.close();
 					}
 					return;
 				default:
@@ -127,28 +332,94 @@ public class WebSocketProtocol
 		}
 	}
 
+	/**
+	 * Stops accepting messages and waits a limited time for the handling of
+	 * the already received ones, so that their responses are enqueued before
+	 * the outbound queue is closed.
+	 */
+	private void finishMessageProcessing()
+	{
+		if (messageExecutor == null) {
+			return;
+		}
+		messageExecutor.shutdown();
+		try {
+			if (!messageExecutor.awaitTermination(MESSAGE_DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+				BasicLogger.log("Handling of received messages not completed within " + MESSAGE_DRAIN_TIMEOUT_MILLIS + " ms, their responses are discarded", LogLevel.WARN,
+						new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Creates the thread sending an IFDStatus message on each change of the
+	 * icc presence. Changes are pushed by the message handler if supported,
+	 * otherwise the presence is polled.
+	 */
+	private Thread createIccStatusThread()
+	{
+		boolean pushed = messageHandler.addIccPresenceListener(iccPresenceListener);
+		BasicLogger.log("Icc presence is " + (pushed ? "pushed by the message handler" : "polled"), LogLevel.DEBUG, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+
+		return new Thread(() -> {
+			boolean lastIccState = false;
+			// the initial state is always queried, pushed events only report changes
+			boolean iccState = messageHandler.isIccAvailable();
+
+			while (!Thread.currentThread().isInterrupted()) {
+				if (iccState != lastIccState) {
+					lastIccState = iccState;
+					writeStatusMessage(messageHandler.getStatusMessage());
+				}
+
+				try {
+					if (pushed) {
+						iccPresenceSignal.acquire();
+						iccPresenceSignal.drainPermits();
+						iccState = pushedIccState;
+					}
+					else {
+						iccPresenceSignal.tryAcquire(ICC_POLLING_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+						iccState = messageHandler.isIccAvailable();
+					}
+				}
+				catch (InterruptedException e) {
+					// Expected when peer closes socket
+					BasicLogger.log("Waiting for icc presence changes interrupted. " + e.getMessage(), LogLevel.INFO, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, "WebSocketProtocol-IccStatus");
+	}
+
 	private ConnectionState handleFrame(Frame curFrame)
 	{
 		switch (curFrame.getOpcode()) {
 			case CLOSE:
 				// Echo first two bytes on close (status code, see RFC6455 5.5.1)
-				if (curFrame.getPayload().length > 2) {
-					writeFrame(createBasicFrame(Opcode.CLOSE, new byte[] { curFrame.getPayload()[1], curFrame.getPayload()[2] }));
-
+				ByteBuffer closePayload = curFrame.getPayloadBuffer();
+				Frame closeReply;
+				if (closePayload.remaining() > 2) {
+					closeReply = createBasicFrame(Opcode.CLOSE, new byte[] { closePayload.get(1), closePayload.get(2) });
 				}
 				else {
-					writeFrame(createBasicFrame(Opcode.CLOSE, new byte[0]));
+					closeReply = createBasicFrame(Opcode.CLOSE, new byte[0]);
 				}
+				// the responses to the messages received before are sent first
+				BasicLogger.log("Enqueuing close frame: " + closeReply, LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+				outboundQueue.sendCloseAfterMessages(closeReply);
 				return ConnectionState.CLOSED;
 			case PING:
 				writeFrame(createBasicFrame(Opcode.PONG, curFrame.getPayload()));
 				return ConnectionState.ESTABLISHED;
+			case PONG:
+				keepAlive.pongReceived(curFrame.getPayloadBuffer());
+				return ConnectionState.ESTABLISHED;
 			case TEXT:
-				Frame responseFrame = handleTextFrame(curFrame);
-				if (responseFrame != null) {
-					writeFrame(responseFrame);
-				}
-
+				handleTextFrame(curFrame);
 				return ConnectionState.ESTABLISHED;
 			default:
 				BasicLogger.log("Got message with unhandled opcode: " + curFrame.toString(), LogLevel.WARN, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
@@ -164,6 +435,11 @@ public class WebSocketProtocol
 		return result;
 	}
 
+	private Frame createCloseFrame(int statusCode)
+	{
+		return createBasicFrame(Opcode.CLOSE, new byte[] { (byte) (statusCode >> 8), (byte) statusCode });
+	}
+
 	private Frame createBasicFrame(Opcode opcode)
 	{
 		Frame result = new Frame();
@@ -172,109 +448,70 @@ public class WebSocketProtocol
 		return result;
 	}
 
-	private Frame handleTextFrame(Frame frame)
+	private void handleTextFrame(Frame frame)
 	{
-		String message = messageHandler.message(new String(frame.getPayload(), StandardCharsets.UTF_8));
-
-		if (message != null) {
-			return createBasicFrame(Opcode.TEXT, message.getBytes(StandardCharsets.UTF_8));
-		}
-		return null;
+		writeMessage(messageHandler.message(frame.getPayloadBuffer()));
 	}
 
-	private void writeFrame(Frame frame)
+	/**
+	 * Enqueues the message as TEXT message, fragmented according to the
+	 * maximum outbound frame size.
+	 * 
+	 * @param message
+	 *            the message to send, nothing is sent for null
+	 */
+	private void writeMessage(String message)
 	{
-		BasicLogger.log("Writing frame: " + frame, LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+		if (message == null) {
+			return;
+		}
 
-		StringBuilder logMessage = new StringBuilder();
+		BasicLogger.log("Writing message of " + message.length() + " characters", LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+		outboundQueue.sendMessage(message);
+	}
 
-		try {
-			byte[] toWrite = frame.getHeaderBytes();
-			BasicLogger.log("Frame header and length is: " + HexString.encode(toWrite), LogLevel.DEBUG, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
-			outputStream.write(toWrite);
-			outputStream.write(frame.getPayload());
+	/**
+	 * Enqueues the status message, replacing a status message that was not
+	 * sent yet.
+	 * 
+	 * @param message
+	 *            the message to send, nothing is sent for null
+	 */
+	private void writeStatusMessage(String message)
+	{
+		if (message == null) {
+			return;
+		}
 
-			logMessage.append("Sent frame bytes: " + HexString.dump(Utils.concatByteArrays(toWrite, frame.getPayload())));
-			BasicLogger.log(logMessage.toString(), LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+		outboundQueue.sendStatus(message);
+	}
 
-		}
-		catch (IOException e) {
-			BasicLogger.logException("Writing a frame failed", e, LogLevel.ERROR, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
-		}
+	private void writeFrame(Frame frame)
+	{
+		BasicLogger.log("Enqueuing control frame: " + frame, LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+		outboundQueue.sendControl(frame);
 	}
 
+	/**
+	 * @return the next control frame or complete data message, null if the
+	 *         connection is to be closed
+	 */
 	private Frame readFrame()
 	{
 		try {
-			Frame result = new Frame();
-
-			int header = inputStream.readUnsignedShort();
-
-			boolean fin = (header & 0x8000) == 0x8000;
-			boolean rsv1 = (header & 0x4000) == 0x4000;
-			boolean rsv2 = (header & 0x2000) == 0x2000;
-			boolean rsv3 = (header & 0x1000) == 0x1000;
-			Opcode opcode = Opcode.forValue((header & 0xF00) >>> 8);
-
-			boolean mask = (header & 0x80) == 0x80;
-
-			long payloadLength = (header & 0x7F);
-
-			if (payloadLength == 126) {
-				payloadLength = inputStream.readUnsignedShort();
-			}
-			else if (payloadLength == 127) {
-				payloadLength = inputStream.readLong();
-			}
-
-			byte[] maskingKey = new byte[4];
-
-			if (mask) {
-				int readMaskingKeyBytes = inputStream.read(maskingKey);
-				if (readMaskingKeyBytes != 4) {
-					throw new IllegalArgumentException("Masking key incomplete");
-				}
-			}
-
-			StringBuilder logMessage = new StringBuilder();
-			logMessage.append("Received Frame Header:" + System.lineSeparator() + "FIN: " + fin + System.lineSeparator() + "Opcode: " + opcode.toString() + System.lineSeparator() + "Mask: " + mask
-					+ System.lineSeparator() + "Payload Length: " + payloadLength);
-			BasicLogger.log(logMessage.toString(), LogLevel.DEBUG, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
-
-			// IMPL handle extension data
-
-			int readBytes = 0;
-
-			ByteArrayOutputStream payload = new ByteArrayOutputStream();
-
-			while (readBytes < payloadLength) {
-				byte current = inputStream.readByte();
-				if (mask) {
-					current = (byte) (current ^ maskingKey[readBytes % 4]);
-				}
-				readBytes++;
-				payload.write(current);
-			}
-
-			logMessage = new StringBuilder();
-
-			logMessage.append("Received frame payload bytes:" + System.lineSeparator());
-
-			logMessage.append(HexString.dump(payload.toByteArray()));
-
-			BasicLogger.log(logMessage.toString(), LogLevel.TRACE, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
-
-			result.setFin(fin);
-			result.setRSV1(rsv1);
-			result.setRSV2(rsv2);
-			result.setRSV3(rsv3);
-			result.setOpcode(opcode);
-			result.setPayload(payload.toByteArray());
-
-			return result;
+			return frameReader.read();
+		}
+		catch (WebSocketProtocolException e) {
+			BasicLogger.logException("Received frame violates the protocol", e, LogLevel.WARN, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+			writeFrame(createCloseFrame(e.getCloseCode()));
 		}
 		catch (IOException e) {
-			BasicLogger.logException("Reading and parsing a new frame failed", e, LogLevel.ERROR, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+			if (keepAlive != null && keepAlive.isTimedOut()) {
+				BasicLogger.log("Connection closed after timeout: " + e.getMessage(), LogLevel.DEBUG, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+			}
+			else {
+				BasicLogger.logException("Reading and parsing a new frame failed", e, LogLevel.ERROR, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+			}
 		}
 		return null;
 	}
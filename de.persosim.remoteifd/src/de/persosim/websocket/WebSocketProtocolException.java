@@ -0,0 +1,35 @@
+package de.persosim.websocket;
+
+import java.io.IOException;
+
+/**
+ * Signals a violation of the WebSocket protocol by the peer. The connection
+ * should be closed with the given status code.
+ */
+public class WebSocketProtocolException extends IOException
+{
+
+	private static final long serialVersionUID = 1L;
+
+	private final int closeCode;
+
+	/**
+	 * @param closeCode
+	 *            the status code for the CLOSE frame, see RFC6455 7.4.1
+	 * @param message
+	 */
+	public WebSocketProtocolException(int closeCode, String message)
+	{
+		super(message);
+		this.closeCode = closeCode;
+	}
+
+	/**
+	 * @return the status code for the CLOSE frame
+	 */
+	public int getCloseCode()
+	{
+		return closeCode;
+	}
+
+}
@@ -2,7 +2,6 @@ package de.persosim.websocket;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.StringWriter;
 import java.net.ServerSocket;
@@ -10,9 +9,14 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 import org.bouncycastle.util.io.pem.PemObject;
 import org.bouncycastle.util.io.pem.PemWriter;
@@ -27,7 +31,7 @@ import de.persosim.simulator.log.PersoSimLogTags;
 import de.persosim.simulator.preferences.PersoSimPreferenceManager;
 import de.persosim.simulator.utils.HexString;
 
-public class WebsocketComm implements IfdComm, Runnable
+public class WebsocketComm implements IfdComm, Runnable, IccPresenceListener
 {
 	public static final String NAME = "WEBSOCKET";
 	private volatile boolean running = false;
@@ -39,18 +43,52 @@ public class WebsocketComm implements IfdComm, Runnable
 	private RemoteIfdConfigManager remoteIfdConfig;
 	private HandshakeResultListener handshakeResultListener;
 	private Thread announcer;
+	private AnnouncementMessageBuilder announcementMessageBuilder;
+	private volatile HandshakeExecutor handshakeExecutor;
+	private long startNanos;
+	private volatile DefaultMessageHandler currentMessageHandler;
+	private volatile boolean iccPresenceEventsAvailable = false;
+	private HostCredentials hostCredentials;
+	private TlsSessionCache sessionCache;
 
 	public static final String REMOTE_IFD_CERT_OR_HASH = "REMOTE_IFD_CERT_OR_HASH";
 	public static final String REMOTE_IFD_CERT = "CERT";
 	public static final String REMOTE_IFD_HASH = "HASH"; // default
 	private String remoteIfdCertOrHash = REMOTE_IFD_HASH;
 
+	public static final String REMOTE_IFD_MAX_OUTBOUND_FRAME_SIZE = "REMOTE_IFD_MAX_OUTBOUND_FRAME_SIZE";
+	public static final String REMOTE_IFD_MAX_INBOUND_FRAME_SIZE = "REMOTE_IFD_MAX_INBOUND_FRAME_SIZE";
+	public static final String REMOTE_IFD_MAX_INBOUND_MESSAGE_SIZE = "REMOTE_IFD_MAX_INBOUND_MESSAGE_SIZE";
+	public static final String REMOTE_IFD_INBOUND_BUDGET = "REMOTE_IFD_INBOUND_BUDGET";
+	public static final String REMOTE_IFD_MAX_HANDSHAKE_LENGTH = "REMOTE_IFD_MAX_HANDSHAKE_LENGTH";
+	public static final String REMOTE_IFD_PING_INTERVAL = "REMOTE_IFD_PING_INTERVAL";
+	public static final String REMOTE_IFD_PONG_TIMEOUT = "REMOTE_IFD_PONG_TIMEOUT";
+	public static final String REMOTE_IFD_IDLE_TIMEOUT = "REMOTE_IFD_IDLE_TIMEOUT";
+	public static final String REMOTE_IFD_MESSAGE_QUEUE_DEPTH = "REMOTE_IFD_MESSAGE_QUEUE_DEPTH";
+	public static final String REMOTE_IFD_VIRTUAL_THREADS = "REMOTE_IFD_VIRTUAL_THREADS";
+	public static final String REMOTE_IFD_PERMESSAGE_DEFLATE = "REMOTE_IFD_PERMESSAGE_DEFLATE";
+	public static final String REMOTE_IFD_DEFLATE_SERVER_NO_CONTEXT_TAKEOVER = "REMOTE_IFD_DEFLATE_SERVER_NO_CONTEXT_TAKEOVER";
+	public static final String REMOTE_IFD_DEFLATE_CLIENT_NO_CONTEXT_TAKEOVER = "REMOTE_IFD_DEFLATE_CLIENT_NO_CONTEXT_TAKEOVER";
+	public static final String REMOTE_IFD_DEFLATE_CLIENT_MAX_WINDOW_BITS = "REMOTE_IFD_DEFLATE_CLIENT_MAX_WINDOW_BITS";
+	public static final String REMOTE_IFD_TLS_SESSION_CACHE_SIZE = "REMOTE_IFD_TLS_SESSION_CACHE_SIZE";
+	public static final String REMOTE_IFD_TLS_SESSION_LIFETIME = "REMOTE_IFD_TLS_SESSION_LIFETIME";
+	public static final String REMOTE_IFD_TLS_CRYPTO = "REMOTE_IFD_TLS_CRYPTO";
+	public static final String REMOTE_IFD_TLS13 = "REMOTE_IFD_TLS13";
+	public static final String REMOTE_IFD_HOST_KEY_TYPE = "REMOTE_IFD_HOST_KEY_TYPE";
+	public static final String REMOTE_IFD_PAIRING_CIPHER_SUITES = "REMOTE_IFD_PAIRING_CIPHER_SUITES";
+	public static final String REMOTE_IFD_HANDSHAKE_TIMEOUT = "REMOTE_IFD_HANDSHAKE_TIMEOUT";
+	public static final String REMOTE_IFD_HANDSHAKE_THREADS = "REMOTE_IFD_HANDSHAKE_THREADS";
+
+	private static final long CONNECTION_SHUTDOWN_TIMEOUT_SECONDS = 5;
+
 	public WebsocketComm(String pairingCode, RemoteIfdConfigManager remoteIfdConfig, HandshakeResultListener handshakeResultListener)
 	{
 		this.pairingCode = pairingCode;
 		this.remoteIfdConfig = remoteIfdConfig;
 		this.handshakeResultListener = handshakeResultListener;
 		getConfigCertOrHash();
+		this.hostCredentials = new HostCredentials(remoteIfdConfig, getTlsCryptoBackend().create(new SecureRandom()));
+		this.sessionCache = createSessionCache();
 	}
 
 	public WebsocketComm(String pairingCode, RemoteIfdConfigManager remoteIfdConfig)
@@ -67,12 +105,148 @@ public class WebsocketComm implements IfdComm, Runnable
 		}
 	}
 
+	/**
+	 * @return the TLS crypto backend selected in the preferences, BC if none
+	 *         or an unknown one is selected
+	 */
+	private static TlsCryptoBackend getTlsCryptoBackend()
+	{
+		String value = PersoSimPreferenceManager.getPreference(REMOTE_IFD_TLS_CRYPTO);
+		if (value == null) {
+			return TlsCryptoBackend.BC;
+		}
+		try {
+			return TlsCryptoBackend.valueOf(value.trim().toUpperCase(Locale.ROOT));
+		}
+		catch (IllegalArgumentException e) {
+			BasicLogger.log("Invalid value \"" + value + "\" for preference " + REMOTE_IFD_TLS_CRYPTO + ", using default " + TlsCryptoBackend.BC, LogLevel.WARN,
+					new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+			return TlsCryptoBackend.BC;
+		}
+	}
+
+	/**
+	 * The host key type only takes effect when a new host identity is
+	 * generated, existing keys are kept. Selecting {@link HostKeyType#EC}
+	 * trades faster startup and handshakes for the ability to pair, see
+	 * there.
+	 *
+	 * @return the host key type selected in the preferences, RSA if none or
+	 *         an unknown one is selected
+	 */
+	public static HostKeyType getHostKeyType()
+	{
+		String value = PersoSimPreferenceManager.getPreference(REMOTE_IFD_HOST_KEY_TYPE);
+		if (value == null) {
+			return HostKeyType.RSA;
+		}
+		try {
+			return HostKeyType.valueOf(value.trim().toUpperCase(Locale.ROOT));
+		}
+		catch (IllegalArgumentException e) {
+			BasicLogger.log("Invalid value \"" + value + "\" for preference " + REMOTE_IFD_HOST_KEY_TYPE + ", using default " + HostKeyType.RSA, LogLevel.WARN,
+					new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+			return HostKeyType.RSA;
+		}
+	}
+
+	/**
+	 * Reads the comma separated {@link PairingCipherSuite} names in order of
+	 * preference. Unknown names are skipped.
+	 *
+	 * @return the configured pairing cipher suites, all suites in their
+	 *         default order if none or no valid one is configured
+	 */
+	static List<PairingCipherSuite> getPairingCipherSuites()
+	{
+		String value = PersoSimPreferenceManager.getPreference(REMOTE_IFD_PAIRING_CIPHER_SUITES);
+		if (value == null) {
+			return Arrays.asList(PairingCipherSuite.values());
+		}
+		List<PairingCipherSuite> cipherSuites = new ArrayList<>();
+		for (String name : value.split(",")) {
+			try {
+				PairingCipherSuite cipherSuite = PairingCipherSuite.valueOf(name.trim().toUpperCase(Locale.ROOT));
+				if (!cipherSuites.contains(cipherSuite)) {
+					cipherSuites.add(cipherSuite);
+				}
+			}
+			catch (IllegalArgumentException e) {
+				BasicLogger.log("Ignoring unknown cipher suite \"" + name.trim() + "\" in preference " + REMOTE_IFD_PAIRING_CIPHER_SUITES, LogLevel.WARN,
+						new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+			}
+		}
+		if (cipherSuites.isEmpty()) {
+			return Arrays.asList(PairingCipherSuite.values());
+		}
+		return cipherSuites;
+	}
+
+	/**
+	 * Creates the TLS session cache from the preferences. A cache size of 0
+	 * disables session resumption.
+	 */
+	private static TlsSessionCache createSessionCache()
+	{
+		int size = getIntPreference(REMOTE_IFD_TLS_SESSION_CACHE_SIZE, TlsSessionCache.DEFAULT_MAX_SIZE, 0);
+		if (size == 0) {
+			return null;
+		}
+		return new TlsSessionCache(size, getIntPreference(REMOTE_IFD_TLS_SESSION_LIFETIME, (int) TlsSessionCache.DEFAULT_LIFETIME_MILLIS));
+	}
+
+	/**
+	 * Reads an integer preference, falling back to the default value if it is
+	 * not set or not a valid positive number.
+	 */
+	static int getIntPreference(String key, int defaultValue)
+	{
+		return getIntPreference(key, defaultValue, 1);
+	}
+
+	/**
+	 * Reads an integer preference, falling back to the default value if it is
+	 * not set or not a valid number of at least minValue.
+	 */
+	static int getIntPreference(String key, int defaultValue, int minValue)
+	{
+		String value = PersoSimPreferenceManager.getPreference(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			int parsed = Integer.parseInt(value.trim());
+			if (parsed >= minValue) {
+				return parsed;
+			}
+		}
+		catch (NumberFormatException e) {
+			// fall through to default value
+		}
+		BasicLogger.log("Invalid value \"" + value + "\" for preference " + key + ", using default " + defaultValue, LogLevel.WARN, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+		return defaultValue;
+	}
+
+	/**
+	 * Reads a boolean preference, falling back to the default value if it is
+	 * not set.
+	 */
+	static boolean getBooleanPreference(String key, boolean defaultValue)
+	{
+		String value = PersoSimPreferenceManager.getPreference(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		return Boolean.parseBoolean(value.trim());
+	}
+
 	@Override
 	public void start()
 	{
+		running = true;
+		startNanos = System.nanoTime();
 		serverThread = new Thread(this, "WebsocketComm-ServerThread");
 		serverThread.start();
-		running = true;
 	}
 
 	@Override
@@ -83,17 +257,17 @@ public class WebsocketComm implements IfdComm, Runnable
 		if (serverThread != null) {
 			serverThread.interrupt();
 		}
-		if (announcer != null) {
-			announcer.interrupt();
-		}
-		try {
-			if (client != null) {
-				client.close();
-				client = null;
+		stopAnnouncer();
+		synchronized (this) {
+			try {
+				if (client != null) {
+					client.close();
+					client = null;
+				}
+			}
+			catch (IOException e) {
+				BasicLogger.logException("Exception during closing of the websocket client socket", e, LogLevel.WARN, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
 			}
-		}
-		catch (IOException e) {
-			BasicLogger.logException("Exception during closing of the websocket client socket", e, LogLevel.WARN, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
 		}
 		try {
 			if (serverSocket != null) {
@@ -104,10 +278,18 @@ public class WebsocketComm implements IfdComm, Runnable
 		catch (IOException e) {
 			BasicLogger.logException("Exception during closing of the websocket comm server socket", e, LogLevel.WARN, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
 		}
+		HandshakeExecutor executor = handshakeExecutor;
+		if (executor != null) {
+			executor.shutdown();
+		}
 		try {
-			if (serverThread != null) {
+			if (serverThread != null && serverThread != Thread.currentThread()) {
 				serverThread.join();
 			}
+			// a connection worker must not wait for its own termination
+			if (executor != null && !executor.isWorkerThread() && !executor.awaitTermination(CONNECTION_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				BasicLogger.log("Remote IFD connections did not terminate in time", LogLevel.WARN, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+			}
 		}
 		catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
@@ -127,48 +309,65 @@ public class WebsocketComm implements IfdComm, Runnable
 		this.listeners = listeners;
 	}
 
+	/**
+	 * Called by the simulator when a card is inserted or removed. Once called,
+	 * following connections rely on these notifications instead of polling for
+	 * the icc presence.
+	 */
+	@Override
+	public void iccPresenceChanged(boolean iccAvailable)
+	{
+		iccPresenceEventsAvailable = true;
+		DefaultMessageHandler messageHandler = currentMessageHandler;
+		if (messageHandler != null) {
+			messageHandler.iccPresenceChanged(iccAvailable);
+		}
+	}
+
 	@Override
 	public void run()
 	{
 		try {
+			// waits for the host identity if it is still being generated
 			String id = encodeCertificate(remoteIfdConfig.getHostCertificate());
 
+			if (pairingCode != null && hostCredentials.getKeyType() != HostKeyType.RSA) {
+				BasicLogger.log("Pairing is not possible, the RSA_PSK pairing cipher suites require an RSA host key but the host key is an "
+						+ hostCredentials.getKeyType() + " key", LogLevel.ERROR, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+				notifyListeners(false);
+				return;
+			}
+
 			if (serverSocket != null) {
 				throw new IllegalStateException("Server socket should be null at this point, probably not stopped correctly before resetting");
 			}
 
-			announcer = null;
+			// the active session occupies one of the threads as well
+			HandshakeExecutor executor = new HandshakeExecutor("WebsocketComm-Connection", getIntPreference(REMOTE_IFD_HANDSHAKE_THREADS, HandshakeExecutor.DEFAULT_POOL_SIZE),
+					getIntPreference(REMOTE_IFD_HANDSHAKE_TIMEOUT, HandshakeExecutor.DEFAULT_DEADLINE_MILLIS));
+			handshakeExecutor = executor;
 			try (ServerSocket serverSock = new ServerSocket(0)) {
 				this.serverSocket = serverSock;
+				BasicLogger.log("Local server port: " + serverSocket.getLocalPort(), LogLevel.DEBUG, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
 
-				while (!Thread.interrupted() && running) {
-					BasicLogger.log("Local server port: " + serverSocket.getLocalPort(), LogLevel.DEBUG, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
-
-					announcer = new Thread(new Announcer(new DefaultAnnouncementMessageBuilder(remoteIfdConfig.getName(), id, serverSocket.getLocalPort(), pairingCode != null)));
-					announcer.start();
-
-					try (Socket clientSock = serverSock.accept()) {
-						this.client = clientSock;
-
-						announcer.interrupt();
-						announcer = null;
-
-						TlsHandshaker handshaker = getHandshaker();
+				announcementMessageBuilder = new DefaultAnnouncementMessageBuilder(remoteIfdConfig.getName(), id, serverSocket.getLocalPort(), pairingCode != null);
+				startAnnouncer();
+				BasicLogger.log("First announcement " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms after start", LogLevel.DEBUG,
+						new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
 
-						boolean handshakeResult = handshaker.performHandshake();
-
-						notifyListeners(handshakeResult);
-
-						if (handshakeResult) {
-							handleWebSocketCommunication(handshaker);
-						}
-
-						notifyListenersConnectionClosed();
-
-						if (pairingCode != null) {
-							stop();
-							break;
-						}
+				// the handshakes run on the executor, a stalled client must not
+				// block the acceptance of others
+				while (!Thread.interrupted() && running) {
+					Socket clientSock = serverSock.accept();
+					if (pairingCode != null) {
+						// the pairing code is valid for a single connection only,
+						// further clients must not get a chance to guess it
+						serverSock.close();
+						serveConnection(executor, clientSock);
+						break;
+					}
+					if (!executor.execute(() -> serveConnection(executor, clientSock))) {
+						HandshakeExecutor.closeQuietly(clientSock);
 					}
 				}
 			}
@@ -181,12 +380,96 @@ public class WebsocketComm implements IfdComm, Runnable
 		}
 		finally {
 			running = false;
-			if (announcer != null) {
-				announcer.interrupt();
+			stopAnnouncer();
+			HandshakeExecutor executor = handshakeExecutor;
+			if (executor != null) {
+				executor.shutdown();
 			}
 		}
 	}
 
+	/**
+	 * Performs the TLS handshake on an accepted connection and handles the
+	 * websocket communication afterwards. Runs on a worker of the
+	 * {@link HandshakeExecutor}, or in pairing mode on the server thread.
+	 */
+	private void serveConnection(HandshakeExecutor executor, Socket clientSock)
+	{
+		try {
+			TlsHandshaker handshaker = getHandshaker(clientSock);
+
+			boolean handshakeResult = executor.performHandshake(clientSock, handshaker);
+
+			if (handshakeResult && !claimConnection(clientSock)) {
+				BasicLogger.log("Connection dropped, another remote IFD session is active", LogLevel.INFO, new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+				handshaker.closeConnection();
+				return;
+			}
+
+			notifyListeners(handshakeResult);
+
+			if (handshakeResult) {
+				try {
+					handleWebSocketCommunication(handshaker, clientSock);
+				}
+				finally {
+					releaseConnection(clientSock);
+				}
+			}
+
+			notifyListenersConnectionClosed();
+
+			if (pairingCode != null) {
+				stop();
+			}
+		}
+		finally {
+			HandshakeExecutor.closeQuietly(clientSock);
+		}
+	}
+
+	/**
+	 * Makes the connection the current session and stops the announcement
+	 * while it is active. Only one session is served at a time.
+	 *
+	 * @return false, if another session is already active
+	 */
+	private synchronized boolean claimConnection(Socket clientSock)
+	{
+		if (client != null || !running) {
+			return false;
+		}
+		client = clientSock;
+		stopAnnouncer();
+		return true;
+	}
+
+	private synchronized void releaseConnection(Socket clientSock)
+	{
+		if (client == clientSock) {
+			client = null;
+		}
+		if (pairingCode == null) {
+			startAnnouncer();
+		}
+	}
+
+	private synchronized void startAnnouncer()
+	{
+		if (announcer == null && running) {
+			announcer = new Thread(new Announcer(announcementMessageBuilder));
+			announcer.start();
+		}
+	}
+
+	private synchronized void stopAnnouncer()
+	{
+		if (announcer != null) {
+			announcer.interrupt();
+			announcer = null;
+		}
+	}
+
 	private String encodeCertificate(Certificate hostCertificate) throws CertificateEncodingException, NoSuchAlgorithmException, IOException
 	{
 		if (REMOTE_IFD_HASH.equals(remoteIfdCertOrHash)) {
@@ -208,20 +491,60 @@ public class WebsocketComm implements IfdComm, Runnable
 		}
 	}
 
-	private void handleWebSocketCommunication(TlsHandshaker handshaker)
+	private void handleWebSocketCommunication(TlsHandshaker handshaker, Socket clientSock)
 	{
-		WebSocketProtocol websocket = getWebSocketProtocol(handshaker);
+		WebSocketProtocol websocket = getWebSocketProtocol(handshaker, clientSock);
 		websocket.handleConnection();
+		currentMessageHandler = null;
 		handshaker.closeConnection();
 	}
 
-	private WebSocketProtocol getWebSocketProtocol(TlsHandshaker handshaker)
+	private WebSocketProtocol getWebSocketProtocol(TlsHandshaker handshaker, Socket clientSock)
 	{
 		InputStream inputStream = handshaker.getInputStream();
 		OutputStream outputStream = handshaker.getOutputStream();
 		DefaultMessageHandler messageHandler = new DefaultMessageHandler(listeners, remoteIfdConfig, handshaker.getClientCertificate());
-		DefaultHandshakeHandler handshakeHandler = new DefaultHandshakeHandler(outputStream, new InputStreamReader(inputStream));
-		return new WebSocketProtocol(inputStream, outputStream, messageHandler, handshakeHandler);
+		messageHandler.setIccPresenceEventsAvailable(iccPresenceEventsAvailable);
+		currentMessageHandler = messageHandler;
+		DefaultHandshakeHandler handshakeHandler = new DefaultHandshakeHandler(outputStream, inputStream);
+		handshakeHandler.setMaxHeaderLength(getIntPreference(REMOTE_IFD_MAX_HANDSHAKE_LENGTH, HttpUpgradeRequest.DEFAULT_MAX_HEADER_LENGTH));
+		handshakeHandler.setPerMessageDeflatePreferences(getPerMessageDeflatePreferences());
+		handshakeHandler.setSupportedSubprotocols(DefaultMessageHandler.getSupportedApi());
+		WebSocketProtocol websocket = new WebSocketProtocol(inputStream, outputStream, messageHandler, handshakeHandler);
+		websocket.setMaxOutboundFrameSize(getIntPreference(REMOTE_IFD_MAX_OUTBOUND_FRAME_SIZE, WebSocketProtocol.DEFAULT_MAX_OUTBOUND_FRAME_SIZE));
+		websocket.setMaxInboundFrameSize(Math.max(Frame.MAX_CONTROL_PAYLOAD_LENGTH, getIntPreference(REMOTE_IFD_MAX_INBOUND_FRAME_SIZE, FrameDecoder.DEFAULT_MAX_FRAME_SIZE)));
+		websocket.setMaxInboundMessageSize(getIntPreference(REMOTE_IFD_MAX_INBOUND_MESSAGE_SIZE, FrameDecoder.DEFAULT_MAX_MESSAGE_SIZE));
+		websocket.setInboundBudget(getIntPreference(REMOTE_IFD_INBOUND_BUDGET, (int) InboundBudget.DEFAULT_LIMIT));
+		websocket.setMessageQueueDepth(getIntPreference(REMOTE_IFD_MESSAGE_QUEUE_DEPTH, OrderedMessageExecutor.DEFAULT_QUEUE_DEPTH));
+		websocket.setUseVirtualThreads(getBooleanPreference(REMOTE_IFD_VIRTUAL_THREADS, false));
+		// 0 disables PINGs or the idle timeout
+		websocket.setPingInterval(getIntPreference(REMOTE_IFD_PING_INTERVAL, KeepAlive.DEFAULT_PING_INTERVAL_MILLIS, 0));
+		websocket.setPongTimeout(getIntPreference(REMOTE_IFD_PONG_TIMEOUT, KeepAlive.DEFAULT_PONG_TIMEOUT_MILLIS));
+		websocket.setIdleTimeout(getIntPreference(REMOTE_IFD_IDLE_TIMEOUT, KeepAlive.DEFAULT_IDLE_TIMEOUT_MILLIS, 0));
+		// closing the socket unblocks the reading thread if the peer vanished
+		websocket.setConnection(clientSock);
+		return websocket;
+	}
+
+	/**
+	 * @return the configured permessage-deflate preferences or null if
+	 *         compression is disabled
+	 */
+	private PerMessageDeflate getPerMessageDeflatePreferences()
+	{
+		if (!getBooleanPreference(REMOTE_IFD_PERMESSAGE_DEFLATE, true)) {
+			return null;
+		}
+
+		int clientMaxWindowBits = getIntPreference(REMOTE_IFD_DEFLATE_CLIENT_MAX_WINDOW_BITS, PerMessageDeflate.MAX_WINDOW_BITS);
+		if (clientMaxWindowBits < PerMessageDeflate.MIN_WINDOW_BITS || clientMaxWindowBits > PerMessageDeflate.MAX_WINDOW_BITS) {
+			BasicLogger.log("Invalid value " + clientMaxWindowBits + " for preference " + REMOTE_IFD_DEFLATE_CLIENT_MAX_WINDOW_BITS + ", using default " + PerMessageDeflate.MAX_WINDOW_BITS, LogLevel.WARN,
+					new LogTag(BasicLogger.LOG_TAG_TAG_ID, PersoSimLogTags.REMOTE_IFD_TAG_ID));
+			clientMaxWindowBits = PerMessageDeflate.MAX_WINDOW_BITS;
+		}
+
+		return new PerMessageDeflate(getBooleanPreference(REMOTE_IFD_DEFLATE_SERVER_NO_CONTEXT_TAKEOVER, false), getBooleanPreference(REMOTE_IFD_DEFLATE_CLIENT_NO_CONTEXT_TAKEOVER, false),
+				clientMaxWindowBits);
 	}
 
 	private void notifyListenersConnectionClosed()
@@ -238,13 +561,17 @@ public class WebsocketComm implements IfdComm, Runnable
 		}
 	}
 
-	private TlsHandshaker getHandshaker()
+	private TlsHandshaker getHandshaker(Socket clientSock)
 	{
 		if (pairingCode != null) {
-			return new PairingServer(pairingCode, remoteIfdConfig, client);
+			PairingServer pairingServer = new PairingServer(pairingCode, remoteIfdConfig, hostCredentials, clientSock);
+			pairingServer.setCipherSuites(getPairingCipherSuites());
+			return pairingServer;
 		}
 		else {
-			return new DefaultHandshaker(remoteIfdConfig, client);
+			DefaultHandshaker handshaker = new DefaultHandshaker(remoteIfdConfig, hostCredentials, clientSock, sessionCache);
+			handshaker.setTls13Enabled(getBooleanPreference(REMOTE_IFD_TLS13, false));
+			return handshaker;
 		}
 	}
 